@@ -1,34 +1,66 @@
 package weatheraggregation.aggregationserver;
 
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
 import java.io.*;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import weatheraggregation.core.*;
 import weatheraggregation.jsonparser.CustomJsonParser;
 import weatheraggregation.jsonparser.CustomParseException;
+import weatheraggregation.jsonparser.ParsedJson;
 
 public class AggregationServer {
 
     public static final int DEFAULT_PORT = 4567;
     public static final int PURGE_SECONDS = 30;
+    public static final int EXPIRY_TICK_SECONDS = 1;
+    public static final int HEARTBEAT_SECONDS = 15;
+    public static final int REPLICATION_BATCH_ENTRIES = 1024;
 
-    private final String contentFilename;
+    // A follower saves its place in the primary's replication log next to its content file
+    public static final String REPLICATION_OFFSET_SUFFIX = ".replication";
+
+    // Sent to idle subscribers, so dead connections are noticed
+    private static final byte[] HEARTBEAT_EVENT = ": heartbeat\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final WeatherStore weatherStore;
+    private final WeatherIndex weatherIndex;
+    private final ExpiryWheel expiryWheel;
+    private final StationLocks stationLocks;
+    private final SubscriptionHub subscriptionHub;
+    private final ServerMetrics metrics;
+    private final ReplicationLog replicationLog;
     private final LamportClock lamportClock;
     private final int serverPort;
     private final boolean testing;
+    private final ExecutorMode executorMode;
+    private final int executorThreads;
+    private final int maxBodyBytes;
+    private final BodyReader bodyReader;
 
-    private final Object requestLock = false;
     private HttpServer server;
+    private ExecutorService executor;
     private ScheduledExecutorService scheduler;
 
+    // Keeps this server up to date with its primary, if it is a follower (optionally null)
+    private ReplicationFollower follower;
+
     public AggregationServer(String content_filename) {
         this(content_filename, DEFAULT_PORT);
     }
@@ -38,13 +70,41 @@ public class AggregationServer {
     }
 
     public AggregationServer(String contentFilename, int serverPort, boolean testing) {
-        this.contentFilename = contentFilename;
-        this.lamportClock = new LamportClockImpl();
+        this(new FileWeatherStore(contentFilename), serverPort, testing);
+    }
+
+    public AggregationServer(WeatherStore weatherStore, int serverPort, boolean testing) {
+        this(weatherStore, serverPort, testing, ExecutorMode.DISPATCHER, ExecutorMode.DEFAULT_THREADS);
+    }
+
+    public AggregationServer(WeatherStore weatherStore, int serverPort, boolean testing, ExecutorMode executorMode, int executorThreads) {
+        this(weatherStore, serverPort, testing, executorMode, executorThreads, BodyReader.DEFAULT_MAX_BODY_BYTES);
+    }
+
+    public AggregationServer(WeatherStore weatherStore, int serverPort, boolean testing, ExecutorMode executorMode, int executorThreads, int maxBodyBytes) {
+        this.weatherStore = weatherStore;
+        this.weatherIndex = new WeatherIndex();
+        this.expiryWheel = new ExpiryWheel(PURGE_SECONDS, Instant.now().getEpochSecond());
+        this.stationLocks = new StationLocks();
+        this.subscriptionHub = new SubscriptionHub();
+        this.metrics = new ServerMetrics();
+        this.replicationLog = new ReplicationLog();
+        this.lamportClock = new AtomicLamportClock();
         this.serverPort = serverPort;
         this.testing = testing;
+        this.executorMode = executorMode;
+        this.executorThreads = executorThreads;
+        this.maxBodyBytes = maxBodyBytes;
+        this.bodyReader = new BodyReader(maxBodyBytes);
 
-        // Try creating the file if it doesn't exist
-        FileHelpers.tryCreateFile(contentFilename);
+        // Load the store into memory once, all reads are served from the index
+        try {
+            List<WeatherRecord> records = weatherStore.load();
+            this.weatherIndex.load(records);
+            for (WeatherRecord record : records) this.expiryWheel.schedule(record);
+        } catch (IOException e) {
+            Log.error("IO exception when loading weather data: " + e.getMessage());
+        }
     }
 
     /**
@@ -60,51 +120,221 @@ public class AggregationServer {
             // Create the server, mounted on localhost
             this.server = HttpServer.create(socketAddress, 0);
             this.server.createContext("/", this::handleRequest);
+            this.server.createContext("/batch", this::handleBatchRequest);
+            this.server.createContext("/subscribe", this::handleSubscribeRequest);
+            this.server.createContext("/export", this::handleExportRequest);
+            this.server.createContext("/metrics", this::handleMetricsRequest);
+            this.server.createContext("/replication", this::handleReplicationRequest);
 
-            this.server.setExecutor(null);
+            // Run exchanges on the configured executor, or the dispatcher thread if there is none
+            this.executor = this.executorMode.createExecutor(this.executorThreads);
+            this.server.setExecutor(this.executor);
             this.server.start();
 
-            System.out.println("Server " + this.server.getAddress() + " started.");
+            Log.info("Server " + this.server.getAddress() + " started with " + this.executorMode + " executor.");
 
             // Only purge outdated data if we aren't testing
             if (!testing) startMaintenanceLoop();
+
+            // Catch up with the primary, if we follow one
+            if (this.follower != null) this.follower.start(this::applyReplicated);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Follow a primary AggregationServer, replicating its commits instead of accepting PUTs.
+     * Must be called before the server is started.
+     * @param follower The follower, which tracks the primary and this server's offset in its log.
+     */
+    public void follow(ReplicationFollower follower) {
+        this.follower = follower;
+    }
+
     /**
      * Invoke the appropriate handler for an HTTP request.
+     * There is no global request lock: GETs only read the index, and PUTs lock their own station.
      * @param exchange An object containing the HTTP exchange.
      */
     private void handleRequest(HttpExchange exchange) {
+        long startNanos = System.nanoTime();
         String method = exchange.getRequestMethod();
 
-        synchronized (this.requestLock) {
-            boolean result;
-            switch (method) {
-                case "GET" -> result = this.handleGET(exchange);
-                case "PUT" -> result = this.handlePUT(exchange);
-                default -> result = this.handleMiscellaneous(exchange);
+        // Advertise the encodings that PUT bodies may be compressed with
+        exchange.getResponseHeaders().add("Accept-Encoding", EncodingHelpers.SUPPORTED_ENCODINGS);
+
+        boolean result;
+        ServerMetrics.Endpoint endpoint;
+        switch (method) {
+            case "GET" -> {
+                result = this.handleGET(exchange);
+                endpoint = ServerMetrics.Endpoint.GET;
+            }
+            case "PUT" -> {
+                result = this.handlePUT(exchange);
+                endpoint = ServerMetrics.Endpoint.PUT;
+            }
+            default -> {
+                result = this.handleMiscellaneous(exchange);
+                endpoint = ServerMetrics.Endpoint.OTHER;
             }
-            if (!result) System.err.println("Failed to send response for request with method " + method);
         }
+        this.metrics.recordRequest(endpoint, exchange.getResponseCode(), System.nanoTime() - startNanos);
+        if (!result) Log.error("Failed to send response for request with method " + method);
+    }
+
+    /**
+     * Invoke the appropriate handler for an HTTP request to the batch endpoint.
+     * Only PUTs can be batched.
+     * @param exchange An object containing the HTTP exchange.
+     */
+    private void handleBatchRequest(HttpExchange exchange) {
+        long startNanos = System.nanoTime();
+        String method = exchange.getRequestMethod();
+        exchange.getResponseHeaders().add("Accept-Encoding", EncodingHelpers.SUPPORTED_ENCODINGS);
+
+        boolean result;
+        if (method.equals("PUT")) {
+            result = this.handleBatchPUT(exchange);
+        } else {
+            result = this.handleMiscellaneous(exchange);
+        }
+        this.metrics.recordRequest(ServerMetrics.Endpoint.BATCH, exchange.getResponseCode(), System.nanoTime() - startNanos);
+        if (!result) Log.error("Failed to send batch response for request with method " + method);
+    }
+
+
+    /**
+     * Invoke the appropriate handler for an HTTP request to the subscription endpoint.
+     * Only GETs can subscribe.
+     * @param exchange An object containing the HTTP exchange.
+     */
+    private void handleSubscribeRequest(HttpExchange exchange) {
+        long startNanos = System.nanoTime();
+        String method = exchange.getRequestMethod();
+
+        boolean result;
+        if (method.equals("GET")) {
+            // The subscription counts itself once its stream starts
+            result = this.handleSubscribe(exchange);
+        } else {
+            result = this.handleMiscellaneous(exchange);
+            this.metrics.recordRequest(ServerMetrics.Endpoint.SUBSCRIBE, exchange.getResponseCode(), System.nanoTime() - startNanos);
+        }
+        if (!result) Log.error("Failed to send subscription response for request with method " + method);
+    }
+
+    /**
+     * Invoke the appropriate handler for an HTTP request to the export endpoint.
+     * Only GETs can export.
+     * @param exchange An object containing the HTTP exchange.
+     */
+    private void handleExportRequest(HttpExchange exchange) {
+        long startNanos = System.nanoTime();
+        String method = exchange.getRequestMethod();
+
+        boolean result;
+        if (method.equals("GET")) {
+            // The export is recorded once its stream has been written
+            result = this.handleExport(exchange, startNanos);
+        } else {
+            result = this.handleMiscellaneous(exchange);
+            this.metrics.recordRequest(ServerMetrics.Endpoint.EXPORT, exchange.getResponseCode(), System.nanoTime() - startNanos);
+        }
+        if (!result) Log.error("Failed to send export response for request with method " + method);
+    }
+
+    /**
+     * Invoke the appropriate handler for an HTTP request to the metrics endpoint.
+     * Only GETs can read metrics.
+     * @param exchange An object containing the HTTP exchange.
+     */
+    private void handleMetricsRequest(HttpExchange exchange) {
+        long startNanos = System.nanoTime();
+        String method = exchange.getRequestMethod();
+
+        boolean result;
+        if (method.equals("GET")) {
+            result = this.handleMetrics(exchange);
+        } else {
+            result = this.handleMiscellaneous(exchange);
+        }
+        this.metrics.recordRequest(ServerMetrics.Endpoint.METRICS, exchange.getResponseCode(), System.nanoTime() - startNanos);
+        if (!result) Log.error("Failed to send metrics response for request with method " + method);
+    }
+
+    /**
+     * Invoke the appropriate handler for an HTTP request to the replication endpoint.
+     * GETs read the replication log, PUTs commit replication log entries moved from another shard,
+     * and POSTs promote a follower to primary.
+     * @param exchange An object containing the HTTP exchange.
+     */
+    private void handleReplicationRequest(HttpExchange exchange) {
+        long startNanos = System.nanoTime();
+        String method = exchange.getRequestMethod();
+
+        boolean result;
+        if (method.equals("GET")) {
+            // The request is recorded once its entries have been sent
+            result = this.handleReplication(exchange, startNanos);
+        } else {
+            result = switch (method) {
+                case "PUT" -> this.handleReplicatedPUT(exchange);
+                case "POST" -> this.handlePromote(exchange);
+                default -> this.handleMiscellaneous(exchange);
+            };
+            this.metrics.recordRequest(ServerMetrics.Endpoint.REPLICATION, exchange.getResponseCode(), System.nanoTime() - startNanos);
+        }
+        if (!result) Log.error("Failed to send replication response for request with method " + method);
     }
 
     /**
-     * Schedule to purge outdated weather data every PURGE_SECONDS seconds.
+     * Schedule to purge outdated weather data every EXPIRY_TICK_SECONDS seconds.
+     * Each record expires PURGE_SECONDS after it was committed, and only expiring records are visited.
      */
     private void startMaintenanceLoop() {
         this.scheduler = Executors.newScheduledThreadPool(1);
         this.scheduler.scheduleAtFixedRate(() -> {
-            System.out.println("Purging outdated data...");
-            int realTime = (int) Instant.now().getEpochSecond();
+            long realTime = Instant.now().getEpochSecond();
+            long startNanos = System.nanoTime();
             try {
-                FileHelpers.expungeAndSwapWeatherFile(this.contentFilename, realTime);
+                int expired = this.expireRecords(this.expiryWheel.advance(realTime));
+                this.metrics.recordPurge(System.nanoTime() - startNanos, expired);
             } catch (IOException e) {
-                System.err.println("IO exception when expunging data: " + e.getMessage());
+                Log.error("IO exception when expunging data: " + e.getMessage());
+            }
+        }, 0, EXPIRY_TICK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Remove expired records from the index, then from the store.
+     * Each record is removed under its station's lock, so it never races a PUT to the same station.
+     * Records that have been replaced since they were scheduled are skipped.
+     * @param records The expired records.
+     * @return The number of records expired.
+     * @throws IOException The store may fail to be written.
+     */
+    private int expireRecords(List<WeatherRecord> records) throws IOException {
+        List<WeatherRecord> expired = new ArrayList<>();
+        for (WeatherRecord record : records) {
+            ReentrantLock lock = this.stationLocks.lockFor(record.stationId);
+            this.lock(lock);
+            try {
+                if (this.weatherIndex.remove(record)) expired.add(record);
+            } finally {
+                lock.unlock();
             }
-        }, 0, PURGE_SECONDS, TimeUnit.SECONDS);
+        }
+
+        // The store only removes records that have not been replaced, so this needs no lock
+        if (!expired.isEmpty()) {
+            Log.info("Purging " + expired.size() + " outdated records...");
+            long startNanos = System.nanoTime();
+            this.weatherStore.remove(expired);
+            this.metrics.recordStore(ServerMetrics.StoreOperation.REMOVE, System.nanoTime() - startNanos);
+        }
+        return expired.size();
     }
 
     /**
@@ -113,91 +343,473 @@ public class AggregationServer {
      * @return Whether the response successfully sent.
      */
     private boolean handleMiscellaneous(HttpExchange exchange) {
-        System.out.println("Handling Miscellaneous Message...");
+        Log.debug("Handling Miscellaneous Message...");
 
         // Send a 400 Bad Request
         try {
             exchange.sendResponseHeaders(400, -1);
             return true;
         } catch (IOException e) {
-            System.err.println("IO Exception when sending error: " + e.getMessage());
+            Log.error("IO Exception when sending error: " + e.getMessage());
         }
         return false;
     }
 
     /**
      * Handle a GET request, responding with the requested weather data.
+     * Each record holds its pre-encoded response, so a GET does no JSON or file work.
+     * Compressed responses are also cached by the record, so each is only compressed once.
+     * If the client's If-None-Match holds the record's ETag, a 304 is sent without the body.
      * @param exchange An object containing the HTTP exchange.
      * @return Whether the response successfully sent.
      */
     private boolean handleGET(HttpExchange exchange) {
-        System.out.println("Handling GET...");
+        Log.debug("Handling GET...");
 
-        Map<String, String> headers = ConversionHelpers.requestHeadersToMap(exchange.getRequestHeaders());
+        Headers requestHeaders = exchange.getRequestHeaders();
 
-        int otherTime = Integer.parseInt(headers.getOrDefault("Lamport-time", "0"));
-        this.lamportClock.processEvent(otherTime);
-        exchange.getResponseHeaders().add("Lamport-time", String.valueOf(this.lamportClock.getLamportTime()));
+        String otherTime = requestHeaders.getFirst("Lamport-time");
+        long lamportTime = this.lamportClock.processEvent((otherTime != null) ? Long.parseLong(otherTime) : 0);
+        exchange.getResponseHeaders().add("Lamport-time", String.valueOf(lamportTime));
 
         // Send a 200 OK response
         try {
-            String stationId = headers.getOrDefault("Station-id", null);
-            String jsonString;
+            String stationId = requestHeaders.getFirst("Station-id");
+            WeatherRecord record;
 
             if (stationId == null) {
-                jsonString = FileHelpers.readWeatherFileFirst(this.contentFilename);
+                record = this.weatherIndex.getLatest();
             } else {
-                jsonString = FileHelpers.readWeatherFile(this.contentFilename, stationId);
+                record = this.weatherIndex.get(stationId);
             }
 
-            if (jsonString != null) {
-                exchange.sendResponseHeaders(200, jsonString.getBytes().length);
+            // Sharded clients pick the most recent record across servers by when it was committed
+            if (record != null) exchange.getResponseHeaders().add("Last-Modified", record.lastModified);
+
+            if (record != null && record.matchesETag(requestHeaders.getFirst("If-None-Match"))) {
+                // The client already holds this version, so only revalidate it
+                exchange.getResponseHeaders().add("ETag", record.etag);
+                exchange.sendResponseHeaders(304, -1);
+            } else if (record != null) {
+                exchange.getResponseHeaders().add("ETag", record.etag);
+
+                // Compress large records if the client accepts it, reusing the record's compressed bytes
+                String contentEncoding = EncodingHelpers.negotiateEncoding(requestHeaders.getFirst("Accept-Encoding"), record.jsonBytes.length);
+                byte[] responseBytes = record.jsonBytes;
+                if (contentEncoding != null) {
+                    responseBytes = record.encodedBytes(contentEncoding);
+                    exchange.getResponseHeaders().add("Content-Encoding", contentEncoding);
+                }
+                exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+
+                exchange.sendResponseHeaders(200, responseBytes.length);
                 try (OutputStream outputStream = exchange.getResponseBody()) {
-                    outputStream.write(jsonString.getBytes());
+                    outputStream.write(responseBytes);
                 }
             } else {
                 exchange.sendResponseHeaders(404, -1);
             }
             return true;
 
-        } catch (CustomParseException e) {
-            System.err.println("Parse exception: " + e.getMessage());
         } catch (IOException e) {
-            System.err.println("IO Exception when sending response: " + e.getMessage());
+            Log.error("IO Exception when sending response: " + e.getMessage());
         }
 
         // Send a 500 Internal Server Error response
         try {
             exchange.sendResponseHeaders(500, -1);
         } catch (IOException e) {
-            System.err.println("IO Exception when sending error: " + e.getMessage());
+            Log.error("IO Exception when sending error: " + e.getMessage());
+        }
+
+        return false;
+    }
+
+    /**
+     * Handle a subscription request, streaming committed weather data as server-sent events.
+     * The current record is sent first, followed by every later commit for the station, or for any station.
+     * The stream is written by its own virtual thread, so it never holds up the request executor.
+     * The subscription is counted once its stream starts, but not timed, as the stream stays open.
+     * @param exchange An object containing the HTTP exchange.
+     * @return Whether the response successfully started.
+     */
+    private boolean handleSubscribe(HttpExchange exchange) {
+        Log.debug("Handling subscription...");
+
+        Headers requestHeaders = exchange.getRequestHeaders();
+
+        String otherTime = requestHeaders.getFirst("Lamport-time");
+        long lamportTime = this.lamportClock.processEvent((otherTime != null) ? Long.parseLong(otherTime) : 0);
+        exchange.getResponseHeaders().add("Lamport-time", String.valueOf(lamportTime));
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+
+        // Subscribe before reading the current record, so no commit is missed in between, and skip any commit it includes
+        String stationId = requestHeaders.getFirst("Station-id");
+        SubscriptionHub.Subscription subscription = this.subscriptionHub.subscribe(stationId);
+        WeatherRecord current = (stationId == null) ? this.weatherIndex.getLatest() : this.weatherIndex.get(stationId);
+        subscription.skipThrough(current);
+
+        // Send a 200 OK response, with a chunked body that stays open
+        try {
+            exchange.sendResponseHeaders(200, 0);
+            this.metrics.countRequest(ServerMetrics.Endpoint.SUBSCRIBE, 200);
+            Thread.ofVirtual().start(() -> this.streamEvents(exchange, subscription, current));
+            return true;
+        } catch (IOException e) {
+            Log.error("IO Exception when starting subscription: " + e.getMessage());
+            this.subscriptionHub.unsubscribe(subscription);
+            exchange.close();
+        }
+        return false;
+    }
+
+    /**
+     * Write a subscription's events to its stream until the subscriber disconnects or the server shuts down.
+     * Idle streams are sent a heartbeat every HEARTBEAT_SECONDS seconds.
+     * @param exchange An object containing the HTTP exchange.
+     * @param subscription The subscription to stream.
+     * @param current The current record to send first (optionally null).
+     */
+    private void streamEvents(HttpExchange exchange, SubscriptionHub.Subscription subscription, WeatherRecord current) {
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            if (current != null) {
+                outputStream.write(SubscriptionHub.encodeEvent(current));
+                outputStream.flush();
+            }
+
+            while (!subscription.isClosed()) {
+                byte[] event = subscription.poll(HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+                outputStream.write((event != null) ? event : HEARTBEAT_EVENT);
+                outputStream.flush();
+            }
+        } catch (IOException e) {
+            // The subscriber disconnected
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.subscriptionHub.unsubscribe(subscription);
+            if (subscription.getDropped() > 0) {
+                Log.warn("Subscription dropped " + subscription.getDropped() + " events for a slow subscriber.");
+            }
+        }
+    }
+
+    /**
+     * Handle an export request, streaming every station's current record as newline-delimited JSON.
+     * Records are written straight from the index's pre-encoded bytes, with no copy of the table.
+     * The stream is written by its own virtual thread, so a large export never holds up the request executor.
+     * @param exchange An object containing the HTTP exchange.
+     * @param startNanos When the request was received, to time it once the stream has been written.
+     * @return Whether the response successfully started.
+     */
+    private boolean handleExport(HttpExchange exchange, long startNanos) {
+        Log.debug("Handling export...");
+
+        Headers requestHeaders = exchange.getRequestHeaders();
+
+        String otherTime = requestHeaders.getFirst("Lamport-time");
+        long lamportTime = this.lamportClock.processEvent((otherTime != null) ? Long.parseLong(otherTime) : 0);
+        exchange.getResponseHeaders().add("Lamport-time", String.valueOf(lamportTime));
+        exchange.getResponseHeaders().add("Content-Type", "application/x-ndjson");
+
+        // The export is always large enough to be worth compressing
+        String contentEncoding = EncodingHelpers.negotiateEncoding(requestHeaders.getFirst("Accept-Encoding"), Integer.MAX_VALUE);
+        if (contentEncoding != null) exchange.getResponseHeaders().add("Content-Encoding", contentEncoding);
+
+        // Send a 200 OK response, with a chunked body
+        try {
+            exchange.sendResponseHeaders(200, 0);
+            Thread.ofVirtual().start(() -> this.streamExport(exchange, contentEncoding, startNanos));
+            return true;
+        } catch (IOException e) {
+            Log.error("IO Exception when starting export: " + e.getMessage());
+            exchange.close();
+        }
+        this.metrics.recordRequest(ServerMetrics.Endpoint.EXPORT, exchange.getResponseCode(), System.nanoTime() - startNanos);
+        return false;
+    }
+
+    /**
+     * Write every station's current record to an export stream, one JSON object per line.
+     * @param exchange An object containing the HTTP exchange.
+     * @param contentEncoding The content encoding to compress the stream with (optionally null).
+     * @param startNanos When the request was received.
+     */
+    private void streamExport(HttpExchange exchange, String contentEncoding, long startNanos) {
+        OutputStream responseBody = exchange.getResponseBody();
+        try (OutputStream outputStream = new BufferedOutputStream(
+                (contentEncoding != null) ? EncodingHelpers.encodingStream(responseBody, contentEncoding) : responseBody)) {
+            int exported = 0;
+            for (WeatherRecord record : this.weatherIndex.records()) {
+                writeJsonLine(outputStream, record.jsonBytes);
+                exported++;
+            }
+            Log.debug("Exported " + exported + " records.");
+        } catch (IOException e) {
+            Log.error("IO Exception when streaming export: " + e.getMessage());
+            exchange.close();
+        } finally {
+            this.metrics.recordRequest(ServerMetrics.Endpoint.EXPORT, exchange.getResponseCode(), System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Write JSON bytes as a single line, folding any line breaks into spaces.
+     * Every stored body was checked by the JSON tokenizer, which rejects raw control characters inside strings,
+     * so any line break is whitespace between tokens, and folding it keeps the JSON equivalent.
+     * @param outputStream The stream to write to.
+     * @param jsonBytes The UTF-8 JSON bytes.
+     * @throws IOException The stream may fail to be written.
+     */
+    private static void writeJsonLine(OutputStream outputStream, byte[] jsonBytes) throws IOException {
+        int start = 0;
+        for (int i = 0; i < jsonBytes.length; i++) {
+            if (jsonBytes[i] == '\n' || jsonBytes[i] == '\r') {
+                outputStream.write(jsonBytes, start, i - start);
+                outputStream.write(' ');
+                start = i + 1;
+            }
         }
+        outputStream.write(jsonBytes, start, jsonBytes.length - start);
+        outputStream.write('\n');
+    }
+
+    /**
+     * Handle a metrics request, responding with every server metric in the Prometheus text format.
+     * @param exchange An object containing the HTTP exchange.
+     * @return Whether the response successfully sent.
+     */
+    private boolean handleMetrics(HttpExchange exchange) {
+        exchange.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
 
+        // Send a 200 OK response
+        try {
+            byte[] responseBytes = this.metrics.toPrometheus(this.weatherIndex.size()).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, responseBytes.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(responseBytes);
+            }
+            return true;
+        } catch (IOException e) {
+            Log.error("IO Exception when sending metrics: " + e.getMessage());
+        }
         return false;
     }
 
+    /**
+     * Handle a replication request, sending a follower the replication log entries from its offset.
+     * If there are no new entries, the request waits up to its wait time for one, on its own virtual thread.
+     * A follower from another epoch, or too far behind, is sent a snapshot of every station instead.
+     * @param exchange An object containing the HTTP exchange.
+     * @param startNanos When the request was received, to time it once the entries have been sent.
+     * @return Whether the request was accepted.
+     */
+    private boolean handleReplication(HttpExchange exchange, long startNanos) {
+        Log.debug("Handling replication...");
+
+        long offset = -1;
+        long waitSeconds = 0;
+        String query = exchange.getRequestURI().getQuery();
+        try {
+            for (String parameter : (query != null) ? query.split("&") : new String[0]) {
+                String[] parts = parameter.split("=", 2);
+                if (parts.length != 2) continue;
+                if (parts[0].equals("offset")) offset = Long.parseLong(parts[1]);
+                if (parts[0].equals("wait")) waitSeconds = Math.min(Long.parseLong(parts[1]), 60);
+            }
+        } catch (NumberFormatException e) {
+            boolean result = this.handleMiscellaneous(exchange);
+            this.metrics.recordRequest(ServerMetrics.Endpoint.REPLICATION, exchange.getResponseCode(), System.nanoTime() - startNanos);
+            return result;
+        }
+
+        String epoch = exchange.getRequestHeaders().getFirst("Replication-epoch");
+        boolean sameEpoch = epoch != null && epoch.equals(Long.toString(this.replicationLog.epoch));
+        long fromOffset = sameEpoch ? offset : -1;
+        long waitMillis = TimeUnit.SECONDS.toMillis(waitSeconds);
+
+        Thread.ofVirtual().start(() -> this.sendReplicationEntries(exchange, fromOffset, waitMillis, startNanos));
+        return true;
+    }
+
+    /**
+     * Send a follower the replication log entries from its offset, or a snapshot if the offset is not retained.
+     * @param exchange An object containing the HTTP exchange.
+     * @param fromOffset The offset of the first entry to send, or -1 for a snapshot.
+     * @param waitMillis How long to wait for an entry, if there are none yet.
+     * @param startNanos When the request was received, so its time includes any wait for an entry.
+     */
+    private void sendReplicationEntries(HttpExchange exchange, long fromOffset, long waitMillis, long startNanos) {
+        try (exchange) {
+            List<WeatherRecord> records = (fromOffset < 0) ? null : this.replicationLog.read(fromOffset, REPLICATION_BATCH_ENTRIES, waitMillis);
+            long nextOffset;
+            if (records != null) {
+                nextOffset = fromOffset + records.size();
+            } else {
+                // Read the offset first, so every commit after the snapshot is also replayed
+                nextOffset = this.replicationLog.getNextOffset();
+                records = new ArrayList<>(this.weatherIndex.records());
+                exchange.getResponseHeaders().add("Replication-snapshot", "true");
+            }
+
+            exchange.getResponseHeaders().add("Replication-epoch", Long.toString(this.replicationLog.epoch));
+            exchange.getResponseHeaders().add("Replication-offset", Long.toString(nextOffset));
+            byte[] responseBytes = ReplicationLog.encodeEntries(records);
+            exchange.sendResponseHeaders(200, (responseBytes.length > 0) ? responseBytes.length : -1);
+            if (responseBytes.length > 0) exchange.getResponseBody().write(responseBytes);
+        } catch (IOException e) {
+            Log.error("IO Exception when sending replication entries: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.metrics.recordRequest(ServerMetrics.Endpoint.REPLICATION, exchange.getResponseCode(), System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Handle a PUT of replication log entries, committing each record with its original Lamport time and commit time.
+     * Stations moved between shards this way keep their ordering against later PUTs, and expire when they would have.
+     * The status of each record is sent back in order, as for a batch PUT, and a record the server already holds,
+     * or holds a newer record for, gets a 304.
+     * @param exchange An object containing the HTTP exchange.
+     * @return Whether the response successfully sent.
+     */
+    private boolean handleReplicatedPUT(HttpExchange exchange) {
+        Log.debug("Handling replicated PUT...");
+
+        String otherTime = exchange.getRequestHeaders().getFirst("Lamport-time");
+        long lamportTime = this.lamportClock.processEvent((otherTime != null) ? Long.parseLong(otherTime) : 0);
+        exchange.getResponseHeaders().add("Lamport-time", String.valueOf(lamportTime));
+
+        try (BodyReader.Body body = this.refuseWhileFollowing(exchange) ? null : this.readRequestBody(exchange)) {
+            // A refused body has already been answered with a 503, 413 or 415
+            if (body == null) return true;
+
+            List<WeatherRecord> records = ReplicationLog.decodeEntries(body.bytes, body.length);
+            for (WeatherRecord record : records) this.lamportClock.processEvent(record.lamportTime);
+            int[] statuses = this.commitRecords(records);
+
+            StringBuilder responseBody = new StringBuilder();
+            for (int i = 0; i < statuses.length; i++) {
+                WeatherRecord record = records.get(i);
+                WeatherRecord existing = this.weatherIndex.get(record.stationId);
+                if (statuses[i] == 500 && existing != null && existing.lamportTime >= record.lamportTime) statuses[i] = 304;
+                responseBody.append(statuses[i]).append(' ').append(record.stationId).append('\n');
+            }
+
+            byte[] responseBytes = responseBody.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, (responseBytes.length > 0) ? responseBytes.length : -1);
+            if (responseBytes.length > 0) {
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(responseBytes);
+                }
+            }
+            return true;
+
+        } catch (IOException e) {
+            Log.error("IO Exception when sending OK: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            Log.warn("Invalid replication entries: " + e.getMessage());
+        }
+
+        // Send a 500 Internal Server Error response
+        // Catches invalid entries and failed sending
+        try {
+            exchange.sendResponseHeaders(500, -1);
+        } catch (IOException e) {
+            Log.error("IO Exception when sending error: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Handle a promotion request, so a follower stops following and accepts PUTs itself.
+     * Followers never promote themselves, so an operator sends this once the old primary is known to be down.
+     * A server that is already a primary is left as it is.
+     * @param exchange An object containing the HTTP exchange.
+     * @return Whether the response successfully sent.
+     */
+    private boolean handlePromote(HttpExchange exchange) {
+        try {
+            if (this.follower != null) this.follower.promote();
+            exchange.sendResponseHeaders(200, -1);
+            return true;
+        } catch (IOException e) {
+            Log.error("IO Exception when promoting: " + e.getMessage());
+        }
+
+        try {
+            exchange.sendResponseHeaders(500, -1);
+        } catch (IOException e) {
+            Log.error("IO Exception when sending error: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Apply records replicated from the primary, through the same commit path as PUTs.
+     * Only the newest replicated record for each station is committed, and stale ones are ignored.
+     * @param records The replicated records, in commit order.
+     * @param snapshot Whether the records are every station on the primary, so any others are removed.
+     * @throws IOException The store may fail to be written.
+     */
+    private void applyReplicated(List<WeatherRecord> records, boolean snapshot) throws IOException {
+        Map<String, WeatherRecord> latest = new LinkedHashMap<>();
+        for (WeatherRecord record : records) {
+            this.lamportClock.processEvent(record.lamportTime);
+            latest.merge(record.stationId, record, (current, next) -> (next.lamportTime > current.lamportTime) ? next : current);
+        }
+        this.commitRecords(new ArrayList<>(latest.values()));
+
+        if (snapshot) {
+            List<WeatherRecord> removed = new ArrayList<>();
+            for (WeatherRecord record : this.weatherIndex.records()) {
+                if (!latest.containsKey(record.stationId)) removed.add(record);
+            }
+            this.expireRecords(removed);
+        }
+    }
+
+    /**
+     * Refuse a PUT while this server follows a primary, since only the primary accepts writes.
+     * @param exchange An object containing the HTTP exchange.
+     * @return Whether the PUT was refused.
+     * @throws IOException The response may fail to be sent.
+     */
+    private boolean refuseWhileFollowing(HttpExchange exchange) throws IOException {
+        if (this.follower == null || !this.follower.isFollowing()) return false;
+        exchange.getResponseHeaders().add("Replication-primary", this.follower.primaryHostname);
+        exchange.sendResponseHeaders(503, -1);
+        return true;
+    }
+
     /**
      * Handle a PUT request, committing the received weather data to memory.
      * @param exchange An object containing the HTTP exchange.
      * @return Whether the response successfully sent.
      */
     private boolean handlePUT(HttpExchange exchange) {
-        System.out.println("Handling PUT...");
+        Log.debug("Handling PUT...");
         Map<String, String> headers = ConversionHelpers.requestHeadersToMap(exchange.getRequestHeaders());
 
-        int eventTime = Integer.parseInt(headers.getOrDefault("Lamport-time", "0"));
-        this.lamportClock.processEvent(eventTime);
-        exchange.getResponseHeaders().add("Lamport-time", String.valueOf(this.lamportClock.getLamportTime()));
+        long eventTime = Long.parseLong(headers.getOrDefault("Lamport-time", "0"));
+        exchange.getResponseHeaders().add("Lamport-time", String.valueOf(this.lamportClock.processEvent(eventTime)));
 
         // Send a 200 OK response
-        try {
-            String weatherString = ConversionHelpers.inputStreamToString(exchange.getRequestBody());
-            if (weatherString.length() == 3) {
+        try (BodyReader.Body body = this.refuseWhileFollowing(exchange) ? null : this.readRequestBody(exchange)) {
+            // A refused body has already been answered with a 503, 413 or 415
+            if (body == null) return true;
+
+            // Parse the raw body in a single pass, then reject empty JSON
+            long parseNanos = System.nanoTime();
+            Map<String, String> weatherJson = CustomJsonParser.bytesToJson(body.bytes, 0, body.length);
+            this.metrics.recordParse(System.nanoTime() - parseNanos);
+            if (weatherJson.isEmpty()) {
                 exchange.sendResponseHeaders(204, -1);
                 return false;
             }
 
-            Map<String, String> weatherJson = CustomJsonParser.stringToJson(weatherString);
             if (!weatherJson.containsKey("id")) {
                 exchange.sendResponseHeaders(500, -1);
                 return false;
@@ -206,33 +818,93 @@ public class AggregationServer {
             String stationId = weatherJson.get("id");
 
             // Try to commit this data to memory
-            try {
-                int realTime = (int) Instant.now().getEpochSecond();
-
-                boolean replaced = false;
-                try {
-                    replaced = FileHelpers.writeAndSwapWeatherFile(this.contentFilename, stationId, realTime, eventTime+1, weatherString);
-                } catch (IllegalStateException e) {
-                    exchange.sendResponseHeaders(500, -1);
-                    return true;
-                }
+            int realTime = (int) Instant.now().getEpochSecond();
+            String weatherString = new String(body.bytes, 0, body.length, StandardCharsets.UTF_8).trim();
+            WeatherRecord record = new WeatherRecord(stationId, realTime, eventTime+1, weatherString);
 
-                if (replaced) {
-                    exchange.sendResponseHeaders(200, -1);
+            exchange.sendResponseHeaders(this.commitRecord(record), -1);
+            return true;
+
+        } catch (IOException e) {
+            Log.error("IO Exception when sending OK: " + e.getMessage());
+        } catch (CustomParseException e) {
+            Log.warn("Parse exception: " + e.getMessage());
+        }
+
+        // Send a 500 Internal Server Error response
+        // Catches malformed JSON and failed sending
+        try {
+            exchange.sendResponseHeaders(500, -1);
+        } catch (IOException e) {
+            Log.error("IO Exception when sending error: " + e.getMessage());
+        }
+
+        return false;
+    }
+
+    /**
+     * Handle a batch PUT request, committing many stations' weather data at once.
+     * The body is a JSON array of objects, or newline-delimited objects, which all share the request's Lamport time.
+     * The response holds one "<status> <station ID>" line per object, in request order.
+     * @param exchange An object containing the HTTP exchange.
+     * @return Whether the response successfully sent.
+     */
+    private boolean handleBatchPUT(HttpExchange exchange) {
+        Log.debug("Handling batch PUT...");
+        Map<String, String> headers = ConversionHelpers.requestHeadersToMap(exchange.getRequestHeaders());
+
+        long eventTime = Long.parseLong(headers.getOrDefault("Lamport-time", "0"));
+        exchange.getResponseHeaders().add("Lamport-time", String.valueOf(this.lamportClock.processEvent(eventTime)));
+
+        // Send a 200 OK response
+        try (BodyReader.Body body = this.refuseWhileFollowing(exchange) ? null : this.readRequestBody(exchange)) {
+            // A refused body has already been answered with a 503, 413 or 415
+            if (body == null) return true;
+
+            // Parse every object in a single pass, then reject an empty batch
+            long parseNanos = System.nanoTime();
+            List<ParsedJson> weatherJsons = CustomJsonParser.bytesToJsonList(body.bytes, 0, body.length);
+            this.metrics.recordParse(System.nanoTime() - parseNanos);
+            if (weatherJsons.isEmpty()) {
+                exchange.sendResponseHeaders(204, -1);
+                return false;
+            }
+
+            // Empty objects and objects without an ID get the same status as a single PUT
+            int realTime = (int) Instant.now().getEpochSecond();
+            int[] statuses = new int[weatherJsons.size()];
+            List<WeatherRecord> records = new ArrayList<>();
+            for (int i = 0; i < statuses.length; i++) {
+                Map<String, String> weatherJson = weatherJsons.get(i).json;
+                if (weatherJson.isEmpty()) {
+                    statuses[i] = 204;
+                } else if (!weatherJson.containsKey("id")) {
+                    statuses[i] = 500;
                 } else {
-                    exchange.sendResponseHeaders(201, -1);
+                    records.add(new WeatherRecord(weatherJson.get("id"), realTime, eventTime+1, weatherJsons.get(i).text.trim()));
                 }
-                return true;
+            }
 
-            } catch (IOException e) {
-                System.err.println("Commit failed, retrying...");
+            // Try to commit the batch to memory, then fill in each record's status
+            int[] commitStatuses = this.commitRecords(records);
+            StringBuilder responseBody = new StringBuilder();
+            for (int i = 0, committed = 0; i < statuses.length; i++) {
+                if (statuses[i] == 0) statuses[i] = commitStatuses[committed++];
+                String stationId = weatherJsons.get(i).json.getOrDefault("id", "-");
+                responseBody.append(statuses[i]).append(' ').append(stationId).append('\n');
             }
-            return false;
+
+            byte[] responseBytes = responseBody.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, responseBytes.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(responseBytes);
+            }
+            return true;
 
         } catch (IOException e) {
-            System.err.println("IO Exception when sending OK: " + e.getMessage());
+            Log.error("IO Exception when sending OK: " + e.getMessage());
         } catch (CustomParseException e) {
-            System.err.println("Parse exception: " + e.getMessage());
+            Log.warn("Parse exception: " + e.getMessage());
         }
 
         // Send a 500 Internal Server Error response
@@ -240,27 +912,182 @@ public class AggregationServer {
         try {
             exchange.sendResponseHeaders(500, -1);
         } catch (IOException e) {
-            System.err.println("IO Exception when sending error: " + e.getMessage());
+            Log.error("IO Exception when sending error: " + e.getMessage());
         }
 
         return false;
     }
 
+    /**
+     * Read the whole body of a request into a pooled buffer, decompressing it by its Content-Encoding as it is read.
+     * Uncompressed bodies are read in exactly Content-Length bytes.
+     * Bodies larger than the maximum body size are refused with a 413 response, and bodies with an unknown encoding with a 415.
+     * @param exchange An object containing the HTTP exchange.
+     * @return The decompressed body, which must be closed to release its buffer, or null if it was refused.
+     * @throws IOException The body may fail to be read, or hold invalid compressed data.
+     */
+    private BodyReader.Body readRequestBody(HttpExchange exchange) throws IOException {
+        Headers requestHeaders = exchange.getRequestHeaders();
+        String contentEncoding = requestHeaders.getFirst("Content-Encoding");
+        if (!EncodingHelpers.isSupportedEncoding(contentEncoding)) {
+            exchange.sendResponseHeaders(415, -1);
+            return null;
+        }
+
+        String contentLength = requestHeaders.getFirst("Content-Length");
+        long length = (contentLength != null) ? Long.parseLong(contentLength.trim()) : -1;
+
+        try {
+            InputStream inputStream = exchange.getRequestBody();
+            if (contentEncoding == null || contentEncoding.equalsIgnoreCase("identity")) {
+                return this.bodyReader.read(inputStream, length);
+            }
+
+            // The decompressed length is unknown, but a compressed body larger than the maximum is refused up front
+            if (length > this.maxBodyBytes) throw new PayloadTooLargeException("Body of " + length + " bytes is too large");
+            return this.bodyReader.read(EncodingHelpers.decodingStream(inputStream, contentEncoding), -1);
+        } catch (PayloadTooLargeException e) {
+            Log.warn("Payload too large: " + e.getMessage());
+            exchange.sendResponseHeaders(413, -1);
+            return null;
+        }
+    }
+
+    /**
+     * Commit a record, unless its station already holds a newer one.
+     * Commits to the same station are serialised by its lock, while other stations proceed in parallel.
+     * @param record The record to commit.
+     * @return The status code of the commit: 201 if created, 200 if replaced, or 500 if out of date.
+     * @throws IOException The store may fail to be written.
+     */
+    private int commitRecord(WeatherRecord record) throws IOException {
+        ReentrantLock lock = this.stationLocks.lockFor(record.stationId);
+        this.lock(lock);
+        try {
+            // Reject the new record if it is out of date
+            WeatherRecord existing = this.weatherIndex.get(record.stationId);
+            if (existing != null && record.lamportTime <= existing.lamportTime) return 500;
+
+            long startNanos = System.nanoTime();
+            try {
+                this.weatherStore.commit(record);
+            } catch (IllegalStateException e) {
+                return 500;
+            } finally {
+                this.metrics.recordStore(ServerMetrics.StoreOperation.COMMIT, System.nanoTime() - startNanos);
+            }
+
+            // The store is committed, so publish the record to readers and subscribers
+            this.weatherIndex.put(record);
+            this.expiryWheel.schedule(record);
+            this.subscriptionHub.publish(record);
+            this.replicationLog.append(record);
+            return (existing != null) ? 200 : 201;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Commit a batch of records in one storage operation, skipping any that are out of date.
+     * Every station in the batch is locked first, with stripes taken in order so concurrent batches can't deadlock.
+     * Records in a batch share a Lamport time, so only the first record for a station is accepted.
+     * @param records The records to commit, in request order.
+     * @return The status code of each commit: 201 if created, 200 if replaced, or 500 if out of date.
+     * @throws IOException The store may fail to be written.
+     */
+    private int[] commitRecords(List<WeatherRecord> records) throws IOException {
+        int[] statuses = new int[records.size()];
+        if (records.isEmpty()) return statuses;
+
+        Set<String> stationIds = new HashSet<>();
+        for (WeatherRecord record : records) stationIds.add(record.stationId);
+
+        List<ReentrantLock> locks = this.stationLocks.locksFor(stationIds);
+        long lockNanos = System.nanoTime();
+        for (ReentrantLock lock : locks) lock.lock();
+        this.metrics.recordLockWait(System.nanoTime() - lockNanos);
+        try {
+            // Reject new records that are out of date, or repeat a station
+            Set<String> batchedStations = new HashSet<>();
+            List<WeatherRecord> accepted = new ArrayList<>();
+            for (int i = 0; i < statuses.length; i++) {
+                WeatherRecord record = records.get(i);
+                WeatherRecord existing = this.weatherIndex.get(record.stationId);
+                if (!batchedStations.add(record.stationId) || (existing != null && record.lamportTime <= existing.lamportTime)) {
+                    statuses[i] = 500;
+                } else {
+                    statuses[i] = (existing != null) ? 200 : 201;
+                    accepted.add(record);
+                }
+            }
+            if (accepted.isEmpty()) return statuses;
+
+            long startNanos = System.nanoTime();
+            try {
+                this.weatherStore.commitAll(accepted);
+            } catch (IllegalStateException e) {
+                for (int i = 0; i < statuses.length; i++) statuses[i] = 500;
+                return statuses;
+            } finally {
+                this.metrics.recordStore(ServerMetrics.StoreOperation.COMMIT, System.nanoTime() - startNanos);
+            }
+
+            // The store is committed, so publish the records to readers and subscribers
+            for (WeatherRecord record : accepted) {
+                this.weatherIndex.put(record);
+                this.expiryWheel.schedule(record);
+                this.subscriptionHub.publish(record);
+                this.replicationLog.append(record);
+            }
+            return statuses;
+        } finally {
+            for (ReentrantLock lock : locks.reversed()) lock.unlock();
+        }
+    }
+
+    /**
+     * Take a station lock, recording how long we waited for it.
+     * @param lock The lock to take.
+     */
+    private void lock(ReentrantLock lock) {
+        long startNanos = System.nanoTime();
+        lock.lock();
+        this.metrics.recordLockWait(System.nanoTime() - startNanos);
+    }
+
     /**
      * Shut down the HTTP server and scheduled maintenance loop.
      */
     public void shutdownServer() {
+        // End every subscription stream, and stop replicating
+        this.subscriptionHub.close();
+        this.replicationLog.close();
+        if (this.follower != null) this.follower.stop();
+
         // Shut down the HTTP server
         if (server != null) {
-            System.out.println("Shutting down the HTTP server...");
+            Log.info("Shutting down the HTTP server...");
             server.stop(0);
         }
 
+        // Shut down the exchange executor
+        if (executor != null && !executor.isShutdown()) {
+            executor.shutdownNow();
+        }
+
         // Shut down the scheduled maintenance service
         if (scheduler != null && !scheduler.isShutdown()) {
-            System.out.println("Shutting down the scheduler...");
+            Log.info("Shutting down the scheduler...");
             scheduler.shutdownNow();
         }
+
+        // Release the weather store
+        try {
+            weatherStore.close();
+        } catch (IOException e) {
+            Log.error("IO exception when closing weather store: " + e.getMessage());
+        }
     }
 
     /**
@@ -268,19 +1095,26 @@ public class AggregationServer {
      * @param args Command-line arguments.
      */
     public static void main(String[] args) {
-        if (args.length == 0) {
-            System.err.println("Usage: java AggregationServer <content_filename> <port>?");
+        List<String> arguments = ConversionHelpers.argsToPositionals(args);
+        Map<String, String> options = ConversionHelpers.argsToOptions(args);
+
+        if (arguments.isEmpty()) {
+            Log.error("Usage: java AggregationServer <content_filename> <port>? --storage=<file|log|mapped>? --slots=<count>? --slot-bytes=<bytes>? --executor=<dispatcher|platform|virtual>? --threads=<count>? --max-body=<bytes>? --log-level=<debug|info|warn|error>? --follow=<primary_hostname>?");
             return;
         }
 
-        AggregationServer server;
-        if (args.length > 1) {
-            int hostPort = Integer.parseInt(args[1]);
-            server = new AggregationServer(args[0], hostPort);
-        } else {
-            server = new AggregationServer(args[0]);
-        }
+        int hostPort = (arguments.size() > 1) ? Integer.parseInt(arguments.get(1)) : DEFAULT_PORT;
+        WeatherStore weatherStore = WeatherStore.create(options.getOrDefault("storage", "file"), arguments.get(0), options);
+        ExecutorMode executorMode = ExecutorMode.fromName(options.getOrDefault("executor", "dispatcher"));
+        int executorThreads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(ExecutorMode.DEFAULT_THREADS)));
 
+        int maxBodyBytes = Integer.parseInt(options.getOrDefault("max-body", String.valueOf(BodyReader.DEFAULT_MAX_BODY_BYTES)));
+        if (options.containsKey("log-level")) Log.setSharedLevel(Log.Level.fromName(options.get("log-level")));
+
+        AggregationServer server = new AggregationServer(weatherStore, hostPort, false, executorMode, executorThreads, maxBodyBytes);
+        if (options.containsKey("follow")) {
+            server.follow(new ReplicationFollower(options.get("follow"), arguments.get(0) + REPLICATION_OFFSET_SUFFIX));
+        }
         server.startServer();
     }
 }
\ No newline at end of file
@@ -0,0 +1,146 @@
+package weatheraggregation.aggregationserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads request bodies into pooled buffers, enforcing a maximum body size.
+ * A body with a Content-Length is read in exactly that many bytes, and refused up front if it is too large.
+ * Bodies that fit in a pooled buffer are read without allocating, and their bytes go to the parser as-is.
+ */
+public class BodyReader {
+
+    public static final int DEFAULT_MAX_BODY_BYTES = 1024 * 1024;
+    public static final int POOLED_BUFFER_BYTES = 16 * 1024;
+    public static final int POOL_SIZE = 64;
+
+    /**
+     * A request body, held in a buffer that must be released once the body has been used.
+     */
+    public class Body implements AutoCloseable {
+        // The buffer holding the body, which may be longer than the body
+        public final byte[] bytes;
+        // The length of the body in bytes
+        public final int length;
+
+        private Body(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        /**
+         * Return the body's buffer to the pool. The body must not be used afterwards.
+         */
+        @Override
+        public void close() {
+            BodyReader.this.release(this.bytes);
+        }
+    }
+
+    private final int maxBodyBytes;
+    private final BlockingQueue<byte[]> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    public BodyReader() {
+        this(DEFAULT_MAX_BODY_BYTES);
+    }
+
+    public BodyReader(int maxBodyBytes) {
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * Read a whole body from a stream.
+     * @param inputStream The stream holding the body.
+     * @param contentLength The exact length of the body, or -1 if the stream must be read to its end.
+     * @return The body, which must be closed to release its buffer.
+     * @throws PayloadTooLargeException The body may be larger than the maximum body size.
+     * @throws IOException The stream may fail to be read, or end before the Content-Length.
+     */
+    public Body read(InputStream inputStream, long contentLength) throws IOException {
+        if (contentLength > this.maxBodyBytes) throw new PayloadTooLargeException("Body of " + contentLength + " bytes is too large");
+        if (contentLength >= 0) return this.readExactly(inputStream, (int) contentLength);
+        return this.readToEnd(inputStream);
+    }
+
+    /**
+     * Read exactly a number of bytes from a stream.
+     * @param inputStream The stream holding the body.
+     * @param length The length of the body.
+     * @return The body.
+     * @throws IOException The stream may end before the body does.
+     */
+    private Body readExactly(InputStream inputStream, int length) throws IOException {
+        byte[] buffer = this.acquire(length);
+        int read = 0;
+        try {
+            while (read < length) {
+                int count = inputStream.read(buffer, read, length - read);
+                if (count < 0) throw new EOFException("Body ended after " + read + " of " + length + " bytes");
+                read += count;
+            }
+        } catch (IOException e) {
+            this.release(buffer);
+            throw e;
+        }
+        return new Body(buffer, length);
+    }
+
+    /**
+     * Read a stream to its end, growing the buffer as needed, up to the maximum body size.
+     * @param inputStream The stream holding the body.
+     * @return The body.
+     * @throws PayloadTooLargeException The stream may hold more than the maximum body size.
+     * @throws IOException The stream may fail to be read.
+     */
+    private Body readToEnd(InputStream inputStream) throws IOException {
+        byte[] buffer = this.acquire(0);
+        int read = 0;
+        try {
+            while (true) {
+                if (read == buffer.length) {
+                    // Only read one byte past the maximum, to detect an oversized body
+                    if (read > this.maxBodyBytes) throw new PayloadTooLargeException("Body is larger than " + this.maxBodyBytes + " bytes");
+                    byte[] grown = Arrays.copyOf(buffer, (int) Math.min((long) buffer.length * 2, this.maxBodyBytes + 1L));
+                    this.release(buffer);
+                    buffer = grown;
+                }
+
+                int count = inputStream.read(buffer, read, buffer.length - read);
+                if (count < 0) break;
+                read += count;
+            }
+        } catch (IOException e) {
+            this.release(buffer);
+            throw e;
+        }
+
+        if (read > this.maxBodyBytes) {
+            this.release(buffer);
+            throw new PayloadTooLargeException("Body is larger than " + this.maxBodyBytes + " bytes");
+        }
+        return new Body(buffer, read);
+    }
+
+    /**
+     * Take a buffer from the pool, or allocate one if the body is too large for a pooled buffer.
+     * @param length The length the buffer must hold.
+     * @return The buffer.
+     */
+    private byte[] acquire(int length) {
+        if (length > POOLED_BUFFER_BYTES) return new byte[length];
+        byte[] buffer = this.pool.poll();
+        return (buffer != null) ? buffer : new byte[POOLED_BUFFER_BYTES];
+    }
+
+    /**
+     * Return a buffer to the pool. Buffers that aren't pooled, or don't fit, are left to the garbage collector.
+     * @param buffer The buffer to return.
+     */
+    private void release(byte[] buffer) {
+        if (buffer.length == POOLED_BUFFER_BYTES) this.pool.offer(buffer);
+    }
+}
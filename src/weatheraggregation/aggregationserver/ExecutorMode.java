@@ -0,0 +1,41 @@
+package weatheraggregation.aggregationserver;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * How an AggregationServer runs its HTTP exchanges.
+ */
+public enum ExecutorMode {
+    // Run every exchange on the HTTP server's single dispatcher thread
+    DISPATCHER,
+    // Run exchanges on a fixed-size pool of platform threads
+    PLATFORM,
+    // Run every exchange on its own virtual thread
+    VIRTUAL;
+
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors() * 2;
+
+    /**
+     * Create the executor for this mode.
+     * @param threads The number of threads, only used by the PLATFORM mode.
+     * @return The created executor, or null to use the dispatcher thread.
+     */
+    public ExecutorService createExecutor(int threads) {
+        return switch (this) {
+            case DISPATCHER -> null;
+            case PLATFORM -> Executors.newFixedThreadPool(threads);
+            case VIRTUAL -> Executors.newVirtualThreadPerTaskExecutor();
+        };
+    }
+
+    /**
+     * Get an executor mode by its name.
+     * @param name The name of the mode, in any case.
+     * @return The executor mode.
+     * @throws IllegalArgumentException The executor mode may not exist.
+     */
+    public static ExecutorMode fromName(String name) throws IllegalArgumentException {
+        return ExecutorMode.valueOf(name.toUpperCase());
+    }
+}
@@ -0,0 +1,84 @@
+package weatheraggregation.aggregationserver;
+
+import weatheraggregation.core.WeatherRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A timing wheel of weather records, keyed by the second each record expires.
+ * Each tick only visits the records expiring in that second, rather than every stored record.
+ * A record that has been replaced stays in the wheel until its tick, where the index ignores it.
+ */
+public class ExpiryWheel {
+
+    // The wheel must span more seconds than a record lives for, so a slot holds one second's records
+    public static final int WHEEL_SLOTS = 64;
+
+    private final int expirySeconds;
+    private final List<Queue<WeatherRecord>> slots;
+
+    // The last second the wheel has been advanced past
+    private volatile long lastTick;
+
+    public ExpiryWheel(int expirySeconds, long startTime) {
+        if (expirySeconds >= WHEEL_SLOTS) throw new IllegalArgumentException("Expiry must be shorter than the wheel");
+
+        this.expirySeconds = expirySeconds;
+        this.slots = new ArrayList<>(WHEEL_SLOTS);
+        for (int i = 0; i < WHEEL_SLOTS; i++) this.slots.add(new ConcurrentLinkedQueue<>());
+        this.lastTick = startTime - 1;
+    }
+
+    /**
+     * Schedule a record to expire expirySeconds after it was committed.
+     * A record that has already expired is scheduled for the next tick.
+     * @param record The record to schedule.
+     */
+    public void schedule(WeatherRecord record) {
+        long deadline = Math.max(record.realTime + this.expirySeconds, this.lastTick + 1);
+        this.slotFor(deadline).add(record);
+    }
+
+    /**
+     * Advance the wheel to the current time, collecting every record that has expired.
+     * Only one thread may advance the wheel at a time.
+     * @param currentTime The current real timestamp.
+     * @return The expired records. Some may have been replaced since they were scheduled.
+     */
+    public List<WeatherRecord> advance(long currentTime) {
+        List<WeatherRecord> expired = new ArrayList<>();
+
+        // After a long pause, one lap of the wheel visits every slot
+        long fromTick = Math.max(this.lastTick + 1, currentTime - WHEEL_SLOTS + 1);
+        for (long tick = fromTick; tick <= currentTime; tick++) {
+            Queue<WeatherRecord> slot = this.slotFor(tick);
+            List<WeatherRecord> deferred = new ArrayList<>();
+
+            WeatherRecord record;
+            while ((record = slot.poll()) != null) {
+                // Records due on a later lap go back in their slot
+                if (record.realTime + this.expirySeconds <= currentTime) {
+                    expired.add(record);
+                } else {
+                    deferred.add(record);
+                }
+            }
+            slot.addAll(deferred);
+        }
+
+        this.lastTick = Math.max(this.lastTick, currentTime);
+        return expired;
+    }
+
+    /**
+     * Get the slot for a second.
+     * @param tick The second, as a real timestamp.
+     * @return The slot holding the records that expire in that second.
+     */
+    private Queue<WeatherRecord> slotFor(long tick) {
+        return this.slots.get((int) Math.floorMod(tick, (long) WHEEL_SLOTS));
+    }
+}
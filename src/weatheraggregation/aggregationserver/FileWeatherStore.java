@@ -0,0 +1,166 @@
+package weatheraggregation.aggregationserver;
+
+import weatheraggregation.core.FileHelpers;
+import weatheraggregation.core.WeatherRecord;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A weather store that keeps every record in a single weather file.
+ * Each rewrite of the file is serialised, but concurrent commits are grouped: while one rewrite runs, the commits that
+ * arrive queue up, and the next rewrite writes them all at once. So commits to different stations, which the
+ * AggregationServer makes concurrently, share rewrites rather than waiting for one each.
+ */
+public class FileWeatherStore implements WeatherStore {
+    private final String filename;
+
+    // Serialises rewrites of the weather file
+    private final ReentrantLock rewriteLock = new ReentrantLock();
+
+    // Commits waiting for the next rewrite, guarded by the queue itself
+    private final List<PendingCommit> queue = new ArrayList<>();
+
+    /**
+     * A commit waiting for a rewrite, and its outcome once one has written it.
+     */
+    private static class PendingCommit {
+        final List<WeatherRecord> records;
+        boolean done = false;
+        RuntimeException error;
+        IOException ioError;
+
+        PendingCommit(List<WeatherRecord> records) {
+            this.records = records;
+        }
+    }
+
+    public FileWeatherStore(String filename) {
+        this.filename = filename;
+
+        // Try creating the file if it doesn't exist
+        FileHelpers.tryCreateFile(filename);
+    }
+
+    /**
+     * Load every record held by the weather file.
+     * @return The records, ordered from most to least recent.
+     * @throws IOException The file may not exist.
+     */
+    @Override
+    public List<WeatherRecord> load() throws IOException {
+        this.rewriteLock.lock();
+        try {
+            return FileHelpers.readWeatherFileRecords(this.filename);
+        } finally {
+            this.rewriteLock.unlock();
+        }
+    }
+
+    /**
+     * Commit a record by rewriting the weather file, together with any other commits waiting.
+     * @param record The record to commit.
+     * @throws IOException The file may not exist.
+     * @throws IllegalStateException The file may contain a newer version of the record.
+     */
+    @Override
+    public void commit(WeatherRecord record) throws IOException, IllegalStateException {
+        this.commitAll(List.of(record));
+    }
+
+    /**
+     * Commit a batch of records with a single rewrite of the weather file, together with any other commits waiting.
+     * The batch's stations must not be committed concurrently by anyone else, as the AggregationServer's station locks
+     * ensure, so every record in a rewrite is for a distinct station.
+     * @param records The records to commit, ordered from least to most recent.
+     * @throws IOException The file may not exist.
+     * @throws IllegalStateException The file may contain a newer version of a record.
+     */
+    @Override
+    public void commitAll(List<WeatherRecord> records) throws IOException, IllegalStateException {
+        PendingCommit commit = new PendingCommit(records);
+        synchronized (this.queue) {
+            this.queue.add(commit);
+        }
+
+        this.rewriteLock.lock();
+        try {
+            // Unless the last rewrite wrote our commit, write every commit waiting, ours included
+            if (!commit.done) this.rewriteQueued();
+        } finally {
+            this.rewriteLock.unlock();
+        }
+
+        if (commit.ioError != null) throw commit.ioError;
+        if (commit.error != null) throw commit.error;
+    }
+
+    /**
+     * Write every queued commit with one rewrite, and record each commit's outcome.
+     * If the rewrite is rejected, each commit is retried with its own rewrite, so one commit's out of date record only
+     * fails that commit. Must be called while holding the rewrite lock.
+     */
+    private void rewriteQueued() {
+        List<PendingCommit> group;
+        synchronized (this.queue) {
+            group = new ArrayList<>(this.queue);
+            this.queue.clear();
+        }
+
+        List<WeatherRecord> records = new ArrayList<>();
+        for (PendingCommit pending : group) records.addAll(pending.records);
+        try {
+            FileHelpers.writeAndSwapWeatherFileRecords(this.filename, records);
+        } catch (IllegalStateException e) {
+            if (group.size() > 1) {
+                for (PendingCommit pending : group) this.rewrite(pending);
+                return;
+            }
+            group.getFirst().error = e;
+        } catch (IOException e) {
+            for (PendingCommit pending : group) pending.ioError = e;
+        } catch (RuntimeException e) {
+            for (PendingCommit pending : group) pending.error = e;
+        }
+        for (PendingCommit pending : group) pending.done = true;
+    }
+
+    /**
+     * Write one commit with its own rewrite, and record its outcome.
+     * @param pending The commit to write.
+     */
+    private void rewrite(PendingCommit pending) {
+        try {
+            FileHelpers.writeAndSwapWeatherFileRecords(this.filename, pending.records);
+        } catch (IOException e) {
+            pending.ioError = e;
+        } catch (RuntimeException e) {
+            pending.error = e;
+        }
+        pending.done = true;
+    }
+
+    /**
+     * Remove records by rewriting the weather file.
+     * @param records The records to remove.
+     * @throws IOException The file may not exist.
+     */
+    @Override
+    public void remove(List<WeatherRecord> records) throws IOException {
+        this.rewriteLock.lock();
+        try {
+            FileHelpers.removeAndSwapWeatherFile(this.filename, records);
+        } finally {
+            this.rewriteLock.unlock();
+        }
+    }
+
+    /**
+     * The weather file holds no open resources, so there is nothing to close.
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,379 @@
+package weatheraggregation.aggregationserver;
+
+import weatheraggregation.core.FileHelpers;
+import weatheraggregation.core.Log;
+import weatheraggregation.core.WeatherRecord;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * A weather store that appends each commit to a segmented write-ahead log.
+ * Once a segment fills up, it is sealed and a background compactor folds it into the snapshot.
+ * The snapshot is the weather file itself, so it keeps the same format as a FileWeatherStore.
+ * On startup, the snapshot is loaded and any remaining segments are replayed on top of it.
+ * <p>
+ * Every commit forces its frames to the storage device before it returns, so a commit that has been acknowledged
+ * survives an OS crash or power loss, not just a crash of the server. Compaction likewise forces the new snapshot
+ * before it replaces the old one and the folded segments are deleted.
+ */
+public class LogWeatherStore implements WeatherStore {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 4L * 1024 * 1024;
+    public static final int COMPACT_SECONDS = 10;
+
+    // Each frame is a length, a checksum and a type, followed by a weather file entry
+    private static final int FRAME_HEADER_BYTES = Integer.BYTES + Integer.BYTES;
+    private static final byte PUT_FRAME = 1;
+    private static final byte REMOVE_FRAME = 2;
+    private static final String SEGMENT_INFIX = ".seg.";
+
+    private final Path snapshotPath;
+    private final long segmentBytes;
+
+    // Guards the active segment, which every commit appends to
+    private final Object writeLock = new Object();
+    private FileChannel activeSegment;
+    private long activeSegmentIndex;
+    private long activeSegmentSize;
+    private ScheduledExecutorService compactor;
+
+    public LogWeatherStore(String filename) {
+        this(filename, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public LogWeatherStore(String filename, long segmentBytes) {
+        this.snapshotPath = Paths.get(filename);
+        this.segmentBytes = segmentBytes;
+
+        // Try creating the snapshot if it doesn't exist
+        FileHelpers.tryCreateFile(filename);
+    }
+
+    /**
+     * Recover every record by loading the snapshot and replaying the log.
+     * Afterwards, open a new active segment and start the background compactor.
+     * @return The records, ordered from most to least recent.
+     * @throws IOException The snapshot or log may fail to be read.
+     */
+    @Override
+    public List<WeatherRecord> load() throws IOException {
+        List<Long> segments = this.listSegments();
+        LinkedHashMap<String, WeatherRecord> records = this.readSnapshot();
+        for (long segment : segments) this.replaySegment(segment, records);
+
+        // Never append to a recovered segment, its tail may be torn
+        synchronized (this.writeLock) {
+            this.activeSegmentIndex = segments.isEmpty() ? 0 : segments.getLast() + 1;
+            this.openActiveSegment();
+        }
+
+        if (this.compactor == null) {
+            this.compactor = Executors.newSingleThreadScheduledExecutor();
+            this.compactor.scheduleWithFixedDelay(() -> {
+                try {
+                    this.compact();
+                } catch (IOException e) {
+                    Log.error("IO exception when compacting log: " + e.getMessage());
+                }
+            }, COMPACT_SECONDS, COMPACT_SECONDS, TimeUnit.SECONDS);
+        }
+
+        List<WeatherRecord> entries = new ArrayList<>(records.values());
+        Collections.reverse(entries);
+        return entries;
+    }
+
+    /**
+     * Commit a record by appending one frame to the active segment.
+     * @param record The record to commit.
+     * @throws IOException The segment may fail to be written.
+     */
+    @Override
+    public void commit(WeatherRecord record) throws IOException {
+        this.appendFrames(PUT_FRAME, List.of(record));
+    }
+
+    /**
+     * Commit a batch of records by appending all of their frames with one write.
+     * @param records The records to commit, ordered from least to most recent.
+     * @throws IOException The segment may fail to be written.
+     */
+    @Override
+    public void commitAll(List<WeatherRecord> records) throws IOException {
+        this.appendFrames(PUT_FRAME, records);
+    }
+
+    /**
+     * Remove records by appending one tombstone frame per record to the active segment, with one write.
+     * @param records The records to remove.
+     * @throws IOException The segment may fail to be written.
+     */
+    @Override
+    public void remove(List<WeatherRecord> records) throws IOException {
+        this.appendFrames(REMOVE_FRAME, records);
+    }
+
+    /**
+     * Stop the compactor and close the active segment.
+     * @throws IOException The segment may fail to be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.compactor != null) this.compactor.shutdownNow();
+        synchronized (this.writeLock) {
+            if (this.activeSegment != null) this.activeSegment.close();
+        }
+    }
+
+    /**
+     * Fold every sealed segment into the snapshot, then delete those segments.
+     * The snapshot is rewritten to a temporary file and swapped, so a crash never loses it.
+     * Replaying a segment twice is harmless, so a crash before the deletes is also safe.
+     * @throws IOException The snapshot or log may fail to be read or written.
+     */
+    public void compact() throws IOException {
+        long sealedBefore;
+        synchronized (this.writeLock) {
+            sealedBefore = this.activeSegmentIndex;
+        }
+
+        List<Long> sealed = new ArrayList<>();
+        for (long segment : this.listSegments()) {
+            if (segment < sealedBefore) sealed.add(segment);
+        }
+        if (sealed.isEmpty()) return;
+
+        LinkedHashMap<String, WeatherRecord> records = this.readSnapshot();
+        for (long segment : sealed) this.replaySegment(segment, records);
+
+        // Write the snapshot from most to least recent, the same as a weather file
+        List<WeatherRecord> entries = new ArrayList<>(records.values());
+        Collections.reverse(entries);
+
+        Path tempPath = Paths.get(this.snapshotPath + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             BufferedWriter writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8))) {
+            for (WeatherRecord entry : entries) {
+                writer.write(entry.toEntry());
+                writer.newLine();
+            }
+
+            // The segments are deleted once the snapshot is swapped, so it must be durable first
+            writer.flush();
+            channel.force(false);
+        }
+
+        // Swap files, then drop the folded segments
+        Files.move(tempPath, this.snapshotPath, StandardCopyOption.REPLACE_EXISTING);
+        for (long segment : sealed) Files.deleteIfExists(this.segmentPath(segment));
+    }
+
+    /**
+     * Append one frame per record to the active segment with a single gathering write, sealing it if it has filled up.
+     * The frames are forced to the storage device before this returns, so the commit is durable once acknowledged.
+     * A batch is never split across segments.
+     * If the write or force fails, the segment is cut back to where the frames began, so a torn frame never hides
+     * later commits from replay. If it can't be cut back, it is sealed with the torn frame as its tail instead.
+     * @param type The type of frame to append.
+     * @param records The records the frames hold.
+     * @throws IOException The segment may fail to be written.
+     */
+    private void appendFrames(byte type, List<WeatherRecord> records) throws IOException {
+        ByteBuffer[] frames = new ByteBuffer[records.size()];
+        long framesSize = 0;
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = this.createFrame(type, records.get(i));
+            framesSize += frames[i].limit();
+        }
+
+        synchronized (this.writeLock) {
+            if (this.activeSegment == null) throw new IOException("Log has not been loaded");
+            try {
+                this.writeFrames(this.activeSegment, frames, framesSize);
+                this.activeSegment.force(false);
+            } catch (IOException e) {
+                this.discardTornFrames();
+                throw e;
+            }
+
+            this.activeSegmentSize += framesSize;
+            if (this.activeSegmentSize >= this.segmentBytes) {
+                this.activeSegment.close();
+                this.activeSegmentIndex++;
+                this.openActiveSegment();
+            }
+        }
+    }
+
+    /**
+     * Write frames to a segment, at its current position.
+     * @param segment The segment to write to.
+     * @param frames The frames to write.
+     * @param framesSize The total size of the frames in bytes.
+     * @throws IOException The segment may fail to be written, possibly after only part of the frames.
+     */
+    protected void writeFrames(FileChannel segment, ByteBuffer[] frames, long framesSize) throws IOException {
+        long written = 0;
+        while (written < framesSize) written += segment.write(frames);
+    }
+
+    /**
+     * Cut the active segment back to the end of its last complete frame, after a failed append.
+     * If the segment can't be cut back, it is sealed and a new one opened, since replay stops at its torn tail anyway.
+     * Must be called under the write lock.
+     */
+    private void discardTornFrames() {
+        try {
+            this.activeSegment.truncate(this.activeSegmentSize);
+            this.activeSegment.position(this.activeSegmentSize);
+            this.activeSegment.force(false);
+            return;
+        } catch (IOException e) {
+            Log.warn("Failed to discard a torn log frame, sealing segment " + this.activeSegmentIndex + ": " + e.getMessage());
+        }
+
+        try {
+            this.activeSegment.close();
+        } catch (IOException e) {
+            // The segment is abandoned either way
+        }
+        try {
+            this.activeSegmentIndex++;
+            this.openActiveSegment();
+        } catch (IOException e) {
+            // Every later append fails on the closed segment, and retries opening a new one
+            Log.error("IO exception when opening a new log segment: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Create a frame holding a record.
+     * @param type The type of frame to create.
+     * @param record The record the frame holds.
+     * @return The frame, ready to be written.
+     */
+    private ByteBuffer createFrame(byte type, WeatherRecord record) {
+        byte[] payload = record.toEntry().getBytes(StandardCharsets.UTF_8);
+
+        CRC32 checksum = new CRC32();
+        checksum.update(type);
+        checksum.update(payload);
+
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_BYTES + 1 + payload.length);
+        frame.putInt(1 + payload.length);
+        frame.putInt((int) checksum.getValue());
+        frame.put(type);
+        frame.put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Open a new, empty active segment.
+     * @throws IOException The segment may fail to be created.
+     */
+    private void openActiveSegment() throws IOException {
+        this.activeSegment = FileChannel.open(this.segmentPath(this.activeSegmentIndex),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.activeSegmentSize = 0;
+    }
+
+    /**
+     * Read the snapshot into a map of records.
+     * @return The records, ordered from least to most recent.
+     * @throws IOException The snapshot may not exist.
+     */
+    private LinkedHashMap<String, WeatherRecord> readSnapshot() throws IOException {
+        List<WeatherRecord> entries = FileHelpers.readWeatherFileRecords(this.snapshotPath.toString());
+        LinkedHashMap<String, WeatherRecord> records = new LinkedHashMap<>();
+        for (WeatherRecord record : entries.reversed()) records.put(record.stationId, record);
+        return records;
+    }
+
+    /**
+     * Replay the frames of a segment onto a map of records.
+     * Replay stops at the first torn or corrupt frame, since nothing after it was acknowledged.
+     * @param segment The index of the segment.
+     * @param records The records to replay onto, ordered from least to most recent.
+     * @throws IOException The segment may fail to be read.
+     */
+    private void replaySegment(long segment, LinkedHashMap<String, WeatherRecord> records) throws IOException {
+        Path path = this.segmentPath(segment);
+        long remaining = Files.size(path);
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                int length = input.readInt();
+                int expectedChecksum = input.readInt();
+                remaining -= FRAME_HEADER_BYTES;
+
+                // A length that runs past the end of the segment is a torn or corrupt header, like a bad checksum
+                if (length < 1 || length > remaining) break;
+                remaining -= length;
+
+                byte[] body = new byte[length];
+                input.readFully(body);
+
+                CRC32 checksum = new CRC32();
+                checksum.update(body);
+                if ((int) checksum.getValue() != expectedChecksum) break;
+
+                String[] entry = new String(body, 1, length - 1, StandardCharsets.UTF_8).split(FileHelpers.ITEM_DELIMITER, 4);
+                if (entry.length != 4) break;
+                WeatherRecord record = WeatherRecord.fromEntry(entry);
+
+                if (body[0] == PUT_FRAME) {
+                    // Move the station to the most recent position
+                    records.remove(record.stationId);
+                    records.put(record.stationId, record);
+                } else if (body[0] == REMOVE_FRAME) {
+                    WeatherRecord current = records.get(record.stationId);
+                    if (current != null && current.lamportTime == record.lamportTime) records.remove(record.stationId);
+                }
+            }
+        } catch (EOFException e) {
+            // The end of the segment, or a torn frame at its tail
+        }
+    }
+
+    /**
+     * List the indices of every segment on disk.
+     * @return The segment indices, in ascending order.
+     * @throws IOException The directory may fail to be read.
+     */
+    private List<Long> listSegments() throws IOException {
+        Path directory = this.snapshotPath.toAbsolutePath().getParent();
+        String prefix = this.snapshotPath.getFileName() + SEGMENT_INFIX;
+
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path path : stream) {
+                try {
+                    segments.add(Long.parseLong(path.getFileName().toString().substring(prefix.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of our segments
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Get the path of a segment.
+     * @param segment The index of the segment.
+     * @return The path of the segment.
+     */
+    private Path segmentPath(long segment) {
+        return Paths.get(this.snapshotPath + SEGMENT_INFIX + segment);
+    }
+}
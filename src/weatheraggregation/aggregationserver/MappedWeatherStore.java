@@ -0,0 +1,279 @@
+package weatheraggregation.aggregationserver;
+
+import weatheraggregation.core.FileHelpers;
+import weatheraggregation.core.WeatherRecord;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+
+/**
+ * A weather store that memory-maps a file of fixed-size slots, one slot per station.
+ * A commit overwrites its station's slot in place, so there is no copy, rewrite or rename.
+ * On startup, the slots are scanned straight from the page cache to rebuild the station directory.
+ * This suits deployments with a bounded number of stations, as the slot count is fixed when the file is created.
+ */
+public class MappedWeatherStore implements WeatherStore {
+
+    public static final int DEFAULT_SLOTS = 4096;
+    public static final int DEFAULT_SLOT_BYTES = 1024;
+
+    // The header holds a magic number, the slot size and the slot count
+    private static final int MAGIC = 0x5741474D;
+    private static final int HEADER_BYTES = 64;
+
+    // Each slot is a payload length and checksum, followed by a weather file entry
+    private static final int SLOT_HEADER_BYTES = Integer.BYTES + Integer.BYTES;
+
+    /**
+     * The slot a station owns, and the lamport time of the record it holds.
+     */
+    private record SlotEntry(int slot, long lamportTime) {}
+
+    private final String filename;
+    private final int requestedSlots;
+    private final int requestedSlotBytes;
+
+    private final Map<String, SlotEntry> directory = new ConcurrentHashMap<>();
+    private final Queue<Integer> freeSlots = new ConcurrentLinkedQueue<>();
+    private FileChannel channel;
+    private MappedByteBuffer mapping;
+    private int slotBytes;
+
+    public MappedWeatherStore(String filename) {
+        this(filename, DEFAULT_SLOTS, DEFAULT_SLOT_BYTES);
+    }
+
+    public MappedWeatherStore(String filename, int slots, int slotBytes) {
+        if ((long) slots * slotBytes + HEADER_BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Mapped weather store must be smaller than 2 GiB");
+        }
+        this.filename = filename;
+        this.requestedSlots = slots;
+        this.requestedSlotBytes = slotBytes;
+    }
+
+    /**
+     * Map the file, creating it if it is empty, and rebuild the station directory from its slots.
+     * An existing file keeps the slot layout it was created with.
+     * @return The records, ordered from most to least recent.
+     * @throws IOException The file may not be a mapped weather store.
+     */
+    @Override
+    public synchronized List<WeatherRecord> load() throws IOException {
+        this.channel = FileChannel.open(Paths.get(this.filename),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        int slots;
+        if (this.channel.size() == 0) {
+            slots = this.requestedSlots;
+            this.slotBytes = this.requestedSlotBytes;
+            this.mapping = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) slots * this.slotBytes);
+            this.mapping.putInt(0, MAGIC);
+            this.mapping.putInt(Integer.BYTES, this.slotBytes);
+            this.mapping.putInt(2 * Integer.BYTES, slots);
+        } else {
+            this.mapping = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, this.channel.size());
+            if (this.mapping.getInt(0) != MAGIC) throw new IOException("File is not a mapped weather store");
+            this.slotBytes = this.mapping.getInt(Integer.BYTES);
+            slots = this.mapping.getInt(2 * Integer.BYTES);
+        }
+
+        // Rebuild the directory, freeing any empty or torn slots
+        List<WeatherRecord> records = new ArrayList<>();
+        this.directory.clear();
+        this.freeSlots.clear();
+        for (int slot = 0; slot < slots; slot++) {
+            WeatherRecord record = this.readSlot(slot);
+            if (record == null || this.directory.containsKey(record.stationId)) {
+                this.freeSlots.add(slot);
+            } else {
+                this.directory.put(record.stationId, new SlotEntry(slot, record.lamportTime));
+                records.add(record);
+            }
+        }
+
+        // Slots hold no commit order, so the most recent record is the one committed last
+        records.sort(Comparator.comparingInt((WeatherRecord record) -> record.realTime)
+                .thenComparingLong(record -> record.lamportTime).reversed());
+        return records;
+    }
+
+    /**
+     * Commit a record by overwriting its station's slot in place, claiming a free slot for a new station.
+     * @param record The record to commit.
+     * @throws IOException The record may not fit in a slot, or every slot may be taken.
+     */
+    @Override
+    public void commit(WeatherRecord record) throws IOException {
+        if (this.mapping == null) throw new IOException("Mapped weather store has not been loaded");
+        byte[] payload = this.encodePayload(record);
+
+        // Commits and removes for a station are serialised by the directory's entry for it
+        try {
+            this.directory.compute(record.stationId, (stationId, existing) -> {
+                int slot = (existing != null) ? existing.slot() : this.claimSlot();
+                this.writeSlot(slot, payload);
+                return new SlotEntry(slot, record.lamportTime);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Commit a batch of records, checking that every record fits in a slot and that there is a slot for every new
+     * station before any are written, so a rejected batch leaves the store unchanged.
+     * The caller holds the lock of every station in the batch, so the stations found to be new stay new.
+     * @param records The records to commit, for distinct stations.
+     * @throws IOException A record may not fit in a slot, or there may not be enough free slots.
+     */
+    @Override
+    public void commitAll(List<WeatherRecord> records) throws IOException {
+        if (this.mapping == null) throw new IOException("Mapped weather store has not been loaded");
+
+        List<byte[]> payloads = new ArrayList<>(records.size());
+        int newStations = 0;
+        for (WeatherRecord record : records) {
+            payloads.add(this.encodePayload(record));
+            if (!this.directory.containsKey(record.stationId)) newStations++;
+        }
+
+        // Claim every slot the batch needs up front, handing them back if there aren't enough
+        Queue<Integer> claimed = new ArrayDeque<>(newStations);
+        for (int i = 0; i < newStations; i++) {
+            Integer slot = this.freeSlots.poll();
+            if (slot == null) {
+                this.freeSlots.addAll(claimed);
+                throw new IOException("Mapped weather store is full");
+            }
+            claimed.add(slot);
+        }
+
+        try {
+            for (int i = 0; i < records.size(); i++) {
+                WeatherRecord record = records.get(i);
+                byte[] payload = payloads.get(i);
+                this.directory.compute(record.stationId, (stationId, existing) -> {
+                    Integer claimedSlot = (existing != null) ? null : claimed.poll();
+                    int slot = (existing != null) ? existing.slot() : (claimedSlot != null) ? claimedSlot : this.claimSlot();
+                    this.writeSlot(slot, payload);
+                    return new SlotEntry(slot, record.lamportTime);
+                });
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            this.freeSlots.addAll(claimed);
+        }
+    }
+
+    /**
+     * Remove records by clearing their slots, unless they have been replaced since.
+     * @param records The records to remove.
+     */
+    @Override
+    public void remove(List<WeatherRecord> records) {
+        for (WeatherRecord record : records) {
+            this.directory.computeIfPresent(record.stationId, (stationId, existing) -> {
+                if (existing.lamportTime() != record.lamportTime) return existing;
+                this.mapping.putInt(this.slotOffset(existing.slot()), 0);
+                this.freeSlots.add(existing.slot());
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Flush the mapping to disk and close the file.
+     * @throws IOException The file may fail to be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.mapping != null) this.mapping.force();
+        if (this.channel != null) this.channel.close();
+    }
+
+    /**
+     * Encode a record as the payload of a slot.
+     * @param record The record to encode.
+     * @return The weather file entry, as UTF-8 bytes.
+     * @throws IOException The record may be too large for a slot.
+     */
+    private byte[] encodePayload(WeatherRecord record) throws IOException {
+        byte[] payload = record.toEntry().getBytes(StandardCharsets.UTF_8);
+        if (payload.length > this.slotBytes - SLOT_HEADER_BYTES) throw new IOException("Record for " + record.stationId + " is too large for a slot");
+        return payload;
+    }
+
+    /**
+     * Claim a free slot for a new station.
+     * @return The index of the claimed slot.
+     * @throws UncheckedIOException Every slot may be taken.
+     */
+    private int claimSlot() {
+        Integer slot = this.freeSlots.poll();
+        if (slot == null) throw new UncheckedIOException(new IOException("Mapped weather store is full"));
+        return slot;
+    }
+
+    /**
+     * Write a payload into a slot. The length is written last, so a reader never sees a new length with an old payload.
+     * A torn payload still fails its checksum, and the slot is freed on the next load.
+     * @param slot The index of the slot.
+     * @param payload The weather file entry to write.
+     */
+    private void writeSlot(int slot, byte[] payload) {
+        CRC32 checksum = new CRC32();
+        checksum.update(payload);
+
+        int offset = this.slotOffset(slot);
+        this.mapping.putInt(offset, 0);
+        this.mapping.put(offset + SLOT_HEADER_BYTES, payload, 0, payload.length);
+        this.mapping.putInt(offset + Integer.BYTES, (int) checksum.getValue());
+        this.mapping.putInt(offset, payload.length);
+    }
+
+    /**
+     * Read the record held by a slot.
+     * @param slot The index of the slot.
+     * @return The record, or null if the slot is empty or torn.
+     */
+    private WeatherRecord readSlot(int slot) {
+        int offset = this.slotOffset(slot);
+        int length = this.mapping.getInt(offset);
+        if (length <= 0 || length > this.slotBytes - SLOT_HEADER_BYTES) return null;
+
+        byte[] payload = new byte[length];
+        this.mapping.get(offset + SLOT_HEADER_BYTES, payload, 0, length);
+
+        CRC32 checksum = new CRC32();
+        checksum.update(payload);
+        if ((int) checksum.getValue() != this.mapping.getInt(offset + Integer.BYTES)) return null;
+
+        String[] entry = new String(payload, StandardCharsets.UTF_8).split(FileHelpers.ITEM_DELIMITER, 4);
+        return (entry.length == 4) ? WeatherRecord.fromEntry(entry) : null;
+    }
+
+    /**
+     * Get the byte offset of a slot in the file.
+     * @param slot The index of the slot.
+     * @return The byte offset of the slot.
+     */
+    private int slotOffset(int slot) {
+        return HEADER_BYTES + slot * this.slotBytes;
+    }
+}
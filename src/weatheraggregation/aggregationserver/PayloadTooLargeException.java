@@ -0,0 +1,18 @@
+package weatheraggregation.aggregationserver;
+
+import java.io.IOException;
+
+/**
+ * An exception for request bodies that are larger than the server allows.
+ */
+public class PayloadTooLargeException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Raise a PayloadTooLargeException with a message.
+     * @param message The message to raise.
+     */
+    public PayloadTooLargeException(String message) {
+        super(message);
+    }
+}
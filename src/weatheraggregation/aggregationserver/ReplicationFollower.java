@@ -0,0 +1,200 @@
+package weatheraggregation.aggregationserver;
+
+import weatheraggregation.core.ConversionHelpers;
+import weatheraggregation.core.Log;
+import weatheraggregation.core.WeatherRecord;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a follower AggregationServer up to date with its primary, by long-polling the primary's replication log.
+ * The follower's epoch and offset are saved after every applied batch, so a restarted follower resumes from its offset
+ * rather than copying the whole index, as long as the primary is still in the same epoch.
+ * <p>
+ * A follower never promotes itself, since it can't tell a failed primary from a network partition, and a primary that
+ * is still up would keep accepting PUTs alongside it. If the primary can't be reached MAX_FAILURES times in a row,
+ * the follower warns and keeps retrying. It is only promoted explicitly, once the old primary is known to be down.
+ * <p>
+ * Replication is asynchronous, so a promoted follower lacks any commits the primary had not yet shipped. The old primary
+ * is never told it was replaced, so it must be restarted as a follower of the new primary, not as a primary.
+ */
+public class ReplicationFollower {
+
+    public static final int POLL_SECONDS = 10;
+    public static final int MAX_FAILURES = 3;
+    public static final int RETRY_SECONDS = 2;
+
+    /**
+     * Applies replicated records to the follower's own store and index.
+     */
+    public interface Applier {
+        /**
+         * Apply a batch of replicated records.
+         * @param records The records, in commit order.
+         * @param snapshot Whether the records are a snapshot of every station, replacing the follower's records.
+         * @throws IOException The store may fail to be written.
+         */
+        void apply(List<WeatherRecord> records, boolean snapshot) throws IOException;
+    }
+
+    // The hostname of the primary (in the form ip:port)
+    public final String primaryHostname;
+
+    private final URI primaryURI;
+    private final Path offsetPath;
+    private final HttpClient httpClient;
+    private volatile long epoch = 0;
+    private volatile long offset = 0;
+    private volatile boolean following = false;
+    private Thread thread;
+
+    public ReplicationFollower(String primaryHostname, String offsetFilename) {
+        this.primaryHostname = primaryHostname;
+        this.primaryURI = URI.create("http://" + ConversionHelpers.canonicalHostnameToHostname(primaryHostname));
+        this.offsetPath = Paths.get(offsetFilename);
+        this.httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(RETRY_SECONDS)).build();
+    }
+
+    /**
+     * Load the saved epoch and offset, then start following the primary.
+     * @param applier Applies replicated records to the follower.
+     */
+    public void start(Applier applier) {
+        this.loadOffset();
+        this.following = true;
+        this.thread = Thread.ofPlatform().name("replication-follower").daemon().start(() -> this.follow(applier));
+        Log.info("Following " + this.primaryHostname + " from offset " + this.offset + ".");
+    }
+
+    /**
+     * Stop following the primary.
+     */
+    public void stop() {
+        this.following = false;
+        if (this.thread != null) this.thread.interrupt();
+    }
+
+    /**
+     * Stop following the primary for good, so the server accepts PUTs itself.
+     * The saved offset is deleted, as this server's own commits make it meaningless, so following again copies a snapshot.
+     * @throws IOException The saved offset may fail to be deleted.
+     */
+    public void promote() throws IOException {
+        if (!this.following) return;
+        this.stop();
+        Files.deleteIfExists(this.offsetPath);
+        Log.warn("Promoted this server to primary, it no longer follows " + this.primaryHostname + ".");
+    }
+
+    /**
+     * Check whether the server is still following its primary, and so refuses PUTs.
+     * @return Whether the server is following.
+     */
+    public boolean isFollowing() {
+        return this.following;
+    }
+
+    /**
+     * Get the offset of the next entry to read from the primary.
+     * @return The offset.
+     */
+    public long getOffset() {
+        return this.offset;
+    }
+
+    /**
+     * Long-poll the primary for new entries and apply them, until stopped or promoted.
+     * An unreachable primary is retried indefinitely, since only an explicit promotion ends following.
+     * @param applier Applies replicated records to the follower.
+     */
+    private void follow(Applier applier) {
+        int failures = 0;
+        while (this.following) {
+            try {
+                this.pollOnce(applier);
+                failures = 0;
+            } catch (IOException | IllegalArgumentException e) {
+                if (!this.following) return;
+                if (++failures == MAX_FAILURES) {
+                    Log.warn("Primary " + this.primaryHostname + " is unreachable. Still following, promote this server if the primary is down.");
+                }
+                Log.warn("Replication from " + this.primaryHostname + " failed: " + e.getMessage() + ". Retrying...");
+                try {
+                    TimeUnit.SECONDS.sleep(RETRY_SECONDS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Request and apply the next entries from the primary, waiting up to POLL_SECONDS for new ones.
+     * @param applier Applies replicated records to the follower.
+     * @throws IOException The request may fail, or the store may fail to be written.
+     * @throws InterruptedException The request may be interrupted.
+     * @throws IllegalArgumentException The primary may send invalid entries.
+     */
+    private void pollOnce(Applier applier) throws IOException, InterruptedException, IllegalArgumentException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(this.primaryURI.resolve("/replication?offset=" + this.offset + "&wait=" + POLL_SECONDS))
+                .header("Replication-epoch", Long.toString(this.epoch))
+                .timeout(Duration.ofSeconds(POLL_SECONDS * 2))
+                .GET()
+                .build();
+        HttpResponse<byte[]> response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) throw new IOException("Primary responded with status code " + response.statusCode());
+
+        long nextEpoch = Long.parseLong(response.headers().firstValue("Replication-epoch").orElseThrow(() -> new IOException("Missing epoch")));
+        long nextOffset = Long.parseLong(response.headers().firstValue("Replication-offset").orElseThrow(() -> new IOException("Missing offset")));
+        boolean snapshot = response.headers().firstValue("Replication-snapshot").isPresent();
+
+        List<WeatherRecord> records = ReplicationLog.decodeEntries(response.body());
+        if (!records.isEmpty() || snapshot) applier.apply(records, snapshot);
+        if (snapshot) Log.info("Copied a snapshot of " + records.size() + " stations from " + this.primaryHostname + ".");
+
+        if (nextEpoch != this.epoch || nextOffset != this.offset) {
+            this.epoch = nextEpoch;
+            this.offset = nextOffset;
+            this.saveOffset();
+        }
+    }
+
+    /**
+     * Load the saved epoch and offset, starting from scratch if there are none.
+     */
+    private void loadOffset() {
+        try {
+            String[] parts = Files.readString(this.offsetPath, StandardCharsets.UTF_8).trim().split(" ");
+            this.epoch = Long.parseLong(parts[0]);
+            this.offset = Long.parseLong(parts[1]);
+        } catch (IOException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            this.epoch = 0;
+            this.offset = 0;
+        }
+    }
+
+    /**
+     * Save the epoch and offset, swapping in a temporary file so a crash never leaves a torn one.
+     * @throws IOException The file may fail to be written.
+     */
+    private void saveOffset() throws IOException {
+        Path tempPath = Paths.get(this.offsetPath + ".tmp");
+        Files.writeString(tempPath, this.epoch + " " + this.offset + "\n", StandardCharsets.UTF_8);
+        Files.move(tempPath, this.offsetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,153 @@
+package weatheraggregation.aggregationserver;
+
+import weatheraggregation.core.FileHelpers;
+import weatheraggregation.core.WeatherRecord;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory, ordered log of every record an AggregationServer commits, shipped to its followers.
+ * Each record gets the next offset, in commit order, so a follower resumes by asking for the entries from its offset.
+ * Only the most recent entries are retained. A follower that falls behind them, or whose offset is from
+ * another epoch, must copy a snapshot of the index instead.
+ * <p>
+ * The log lives in memory, so every time a server starts it begins a new epoch, and offsets restart from zero.
+ */
+public class ReplicationLog {
+
+    public static final int DEFAULT_RETAINED_ENTRIES = 65536;
+
+    // Identifies this run of the log, offsets from another epoch are meaningless
+    public final long epoch;
+
+    private final WeatherRecord[] entries;
+    private long nextOffset = 0;
+    private boolean closed = false;
+
+    public ReplicationLog() {
+        this(DEFAULT_RETAINED_ENTRIES);
+    }
+
+    public ReplicationLog(int retainedEntries) {
+        this.epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+        this.entries = new WeatherRecord[retainedEntries];
+    }
+
+    /**
+     * Append a committed record, waking any followers waiting for it.
+     * Records for the same station must be appended in commit order, so this is called under the station's lock.
+     * @param record The committed record.
+     */
+    public synchronized void append(WeatherRecord record) {
+        this.entries[(int) (this.nextOffset % this.entries.length)] = record;
+        this.nextOffset++;
+        this.notifyAll();
+    }
+
+    /**
+     * Get the offset the next appended record will have.
+     * @return The next offset.
+     */
+    public synchronized long getNextOffset() {
+        return this.nextOffset;
+    }
+
+    /**
+     * Read the entries from an offset, waiting for one to be appended if there are none yet.
+     * @param fromOffset The offset of the first entry to read.
+     * @param maxEntries The most entries to read.
+     * @param timeoutMillis How long to wait for an entry, if there are none yet.
+     * @return The entries, which are empty if none arrived in time, or null if the offset is no longer retained.
+     * @throws InterruptedException The wait may be interrupted.
+     */
+    public synchronized List<WeatherRecord> read(long fromOffset, int maxEntries, long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long remaining;
+        while (fromOffset >= this.nextOffset && !this.closed && (remaining = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+
+        long firstRetained = Math.max(0, this.nextOffset - this.entries.length);
+        if (fromOffset < firstRetained || fromOffset > this.nextOffset) return null;
+
+        List<WeatherRecord> records = new ArrayList<>();
+        for (long offset = fromOffset; offset < this.nextOffset && records.size() < maxEntries; offset++) {
+            records.add(this.entries[(int) (offset % this.entries.length)]);
+        }
+        return records;
+    }
+
+    /**
+     * Wake every waiting follower, so the server can shut down.
+     */
+    public synchronized void close() {
+        this.closed = true;
+        this.notifyAll();
+    }
+
+    /**
+     * Encode records for shipping, each as its byte length, a space, its weather file entry and a newline.
+     * Entries are length-prefixed, so JSON with line breaks survives.
+     * @param records The records to encode.
+     * @return The encoded records.
+     */
+    public static byte[] encodeEntries(Iterable<WeatherRecord> records) {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        for (WeatherRecord record : records) {
+            byte[] entry = record.toEntry().getBytes(StandardCharsets.UTF_8);
+            encoded.writeBytes(Integer.toString(entry.length).getBytes(StandardCharsets.US_ASCII));
+            encoded.write(' ');
+            encoded.writeBytes(entry);
+            encoded.write('\n');
+        }
+        return encoded.toByteArray();
+    }
+
+    /**
+     * Decode records encoded by encodeEntries.
+     * @param bytes The encoded records.
+     * @return The records, in order.
+     * @throws IllegalArgumentException The bytes may not hold valid entries.
+     */
+    public static List<WeatherRecord> decodeEntries(byte[] bytes) throws IllegalArgumentException {
+        return decodeEntries(bytes, bytes.length);
+    }
+
+    /**
+     * Decode records encoded by encodeEntries, from the start of a buffer that may be longer than them.
+     * @param bytes The buffer holding the encoded records.
+     * @param length The length of the encoded records in bytes.
+     * @return The records, in order.
+     * @throws IllegalArgumentException The bytes may not hold valid entries.
+     */
+    public static List<WeatherRecord> decodeEntries(byte[] bytes, int length) throws IllegalArgumentException {
+        List<WeatherRecord> records = new ArrayList<>();
+        int position = 0;
+        while (position < length) {
+            int space = position;
+            while (space < length && bytes[space] != ' ') space++;
+            if (space == length) throw new IllegalArgumentException("Truncated entry at byte " + position);
+
+            int entryLength;
+            try {
+                entryLength = Integer.parseInt(new String(bytes, position, space - position, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid entry length at byte " + position);
+            }
+            if (entryLength < 0 || entryLength >= length - space - 1) throw new IllegalArgumentException("Truncated entry at byte " + position);
+            int end = space + 1 + entryLength;
+            if (bytes[end] != '\n') throw new IllegalArgumentException("Truncated entry at byte " + position);
+
+            String[] entry = new String(bytes, space + 1, entryLength, StandardCharsets.UTF_8).split(FileHelpers.ITEM_DELIMITER, 4);
+            if (entry.length != 4) throw new IllegalArgumentException("Invalid entry at byte " + position);
+            records.add(WeatherRecord.fromEntry(entry));
+            position = end + 1;
+        }
+        return records;
+    }
+}
@@ -0,0 +1,224 @@
+package weatheraggregation.aggregationserver;
+
+import weatheraggregation.core.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for an AggregationServer, exposed in the Prometheus text format.
+ * Recording is a few striped or atomic increments, with no allocation once a status code has been seen,
+ * so metrics are always on.
+ */
+public class ServerMetrics {
+
+    /**
+     * The endpoints requests are counted under.
+     */
+    public enum Endpoint {
+        GET("get"),
+        PUT("put"),
+        BATCH("batch"),
+        SUBSCRIBE("subscribe"),
+        EXPORT("export"),
+        METRICS("metrics"),
+        REPLICATION("replication"),
+        OTHER("other");
+
+        public final String label;
+
+        Endpoint(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * The weather store operations that are timed.
+     */
+    public enum StoreOperation {
+        COMMIT("commit"),
+        REMOVE("remove");
+
+        public final String label;
+
+        StoreOperation(String label) {
+            this.label = label;
+        }
+    }
+
+    // Status codes run from 100 to 599
+    private static final int STATUS_CODES = 600;
+
+    // The bucket bounds exported for each histogram, in seconds
+    private static final String[] BUCKET_SECONDS = {
+            "0.00005", "0.0001", "0.00025", "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10"
+    };
+
+    /**
+     * The request counts and durations of one endpoint.
+     */
+    private static class EndpointMetrics {
+        // Request counts, indexed by status code and created when a code is first seen
+        private final AtomicReferenceArray<LongAdder> statusCounts = new AtomicReferenceArray<>(STATUS_CODES);
+        private final LatencyHistogram durations = new LatencyHistogram();
+    }
+
+    private final EndpointMetrics[] requests;
+
+    private final LatencyHistogram lockWait = new LatencyHistogram();
+    private final LatencyHistogram[] storeDurations;
+    private final LatencyHistogram parseDurations = new LatencyHistogram();
+    private final LatencyHistogram purgeDurations = new LatencyHistogram();
+    private final LongAdder recordsExpired = new LongAdder();
+
+    public ServerMetrics() {
+        this.requests = new EndpointMetrics[Endpoint.values().length];
+        for (int i = 0; i < this.requests.length; i++) this.requests[i] = new EndpointMetrics();
+
+        this.storeDurations = new LatencyHistogram[StoreOperation.values().length];
+        for (int i = 0; i < this.storeDurations.length; i++) this.storeDurations[i] = new LatencyHistogram();
+    }
+
+    /**
+     * Record a handled request, once its response has been sent.
+     * @param endpoint The endpoint that handled the request.
+     * @param statusCode The status code of the response (requests that failed before responding are only timed).
+     * @param nanos How long the request took to handle.
+     */
+    public void recordRequest(Endpoint endpoint, int statusCode, long nanos) {
+        this.requests[endpoint.ordinal()].durations.record(nanos);
+        this.countRequest(endpoint, statusCode);
+    }
+
+    /**
+     * Count a request without timing it, such as a subscription, whose stream stays open until the subscriber leaves.
+     * @param endpoint The endpoint that handled the request.
+     * @param statusCode The status code of the response (requests that failed before responding are not counted).
+     */
+    public void countRequest(Endpoint endpoint, int statusCode) {
+        if (statusCode < 0 || statusCode >= STATUS_CODES) return;
+
+        AtomicReferenceArray<LongAdder> counts = this.requests[endpoint.ordinal()].statusCounts;
+        LongAdder count = counts.get(statusCode);
+        if (count == null) {
+            counts.compareAndSet(statusCode, null, new LongAdder());
+            count = counts.get(statusCode);
+        }
+        count.increment();
+    }
+
+    /**
+     * Record time spent waiting for station locks.
+     * @param nanos How long the wait took.
+     */
+    public void recordLockWait(long nanos) {
+        this.lockWait.record(nanos);
+    }
+
+    /**
+     * Record time spent in a weather store operation.
+     * @param operation The store operation.
+     * @param nanos How long the operation took.
+     */
+    public void recordStore(StoreOperation operation, long nanos) {
+        this.storeDurations[operation.ordinal()].record(nanos);
+    }
+
+    /**
+     * Record time spent parsing a request body's JSON.
+     * @param nanos How long the parse took.
+     */
+    public void recordParse(long nanos) {
+        this.parseDurations.record(nanos);
+    }
+
+    /**
+     * Record a purge of expired records.
+     * @param nanos How long the purge took.
+     * @param expired How many records were expired.
+     */
+    public void recordPurge(long nanos, int expired) {
+        this.purgeDurations.record(nanos);
+        this.recordsExpired.add(expired);
+    }
+
+    /**
+     * Write every metric in the Prometheus text format.
+     * @param stations The number of stations currently held.
+     * @return The metrics, as text.
+     */
+    public String toPrometheus(int stations) {
+        StringBuilder text = new StringBuilder(16 * 1024);
+
+        text.append("# HELP weather_requests_total Requests handled, by endpoint and status code.\n");
+        text.append("# TYPE weather_requests_total counter\n");
+        for (Endpoint endpoint : Endpoint.values()) {
+            AtomicReferenceArray<LongAdder> counts = this.requests[endpoint.ordinal()].statusCounts;
+            for (int statusCode = 0; statusCode < STATUS_CODES; statusCode++) {
+                LongAdder count = counts.get(statusCode);
+                if (count == null) continue;
+                text.append("weather_requests_total{endpoint=\"").append(endpoint.label)
+                        .append("\",code=\"").append(statusCode).append("\"} ").append(count.sum()).append('\n');
+            }
+        }
+
+        appendHeader(text, "weather_request_duration_seconds", "Time to send a response, by endpoint. Subscriptions are not timed.");
+        for (Endpoint endpoint : Endpoint.values()) {
+            if (endpoint == Endpoint.SUBSCRIBE) continue;
+            appendHistogram(text, "weather_request_duration_seconds", "endpoint=\"" + endpoint.label + "\"",
+                    this.requests[endpoint.ordinal()].durations);
+        }
+
+        appendHeader(text, "weather_lock_wait_seconds", "Time spent waiting for station locks.");
+        appendHistogram(text, "weather_lock_wait_seconds", null, this.lockWait);
+
+        appendHeader(text, "weather_store_seconds", "Time spent in weather store IO, by operation.");
+        for (StoreOperation operation : StoreOperation.values()) {
+            appendHistogram(text, "weather_store_seconds", "operation=\"" + operation.label + "\"",
+                    this.storeDurations[operation.ordinal()]);
+        }
+
+        appendHeader(text, "weather_json_parse_seconds", "Time spent parsing request bodies.");
+        appendHistogram(text, "weather_json_parse_seconds", null, this.parseDurations);
+
+        appendHeader(text, "weather_purge_duration_seconds", "Time spent purging expired records.");
+        appendHistogram(text, "weather_purge_duration_seconds", null, this.purgeDurations);
+
+        text.append("# HELP weather_records_expired_total Records removed because they expired.\n");
+        text.append("# TYPE weather_records_expired_total counter\n");
+        text.append("weather_records_expired_total ").append(this.recordsExpired.sum()).append('\n');
+
+        text.append("# HELP weather_stations Stations with a current record.\n");
+        text.append("# TYPE weather_stations gauge\n");
+        text.append("weather_stations ").append(stations).append('\n');
+
+        return text.toString();
+    }
+
+    private static void appendHeader(StringBuilder text, String name, String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" histogram\n");
+    }
+
+    /**
+     * Write a histogram's cumulative buckets, sum and count.
+     * Bucket counts are approximate, as a bucket bound that falls inside a histogram bucket is interpolated.
+     * @param text The text to append to.
+     * @param name The name of the metric.
+     * @param labels The labels shared by every line (optionally null).
+     * @param histogram The histogram, in nanoseconds.
+     */
+    private static void appendHistogram(StringBuilder text, String name, String labels, LatencyHistogram histogram) {
+        String prefix = (labels == null) ? "{" : "{" + labels + ",";
+        long count = histogram.getCount();
+        for (String bound : BUCKET_SECONDS) {
+            long bucketCount = Math.min(count, histogram.getCountAtOrBelow((long) (Double.parseDouble(bound) * 1e9)));
+            text.append(name).append("_bucket").append(prefix).append("le=\"").append(bound).append("\"} ").append(bucketCount).append('\n');
+        }
+        text.append(name).append("_bucket").append(prefix).append("le=\"+Inf\"} ").append(count).append('\n');
+
+        String suffix = (labels == null) ? " " : "{" + labels + "} ";
+        text.append(name).append("_sum").append(suffix).append(histogram.getSum() / 1e9).append('\n');
+        text.append(name).append("_count").append(suffix).append(count).append('\n');
+    }
+}
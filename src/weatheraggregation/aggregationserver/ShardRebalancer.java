@@ -0,0 +1,179 @@
+package weatheraggregation.aggregationserver;
+
+import weatheraggregation.core.ConversionHelpers;
+import weatheraggregation.core.EncodingHelpers;
+import weatheraggregation.core.HashRing;
+import weatheraggregation.core.Log;
+import weatheraggregation.core.WeatherRecord;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves stations between sharded AggregationServers when the ring changes, such as when a server joins.
+ * Servers are rebalanced one at a time: each server's records are copied from a replication snapshot, and only
+ * the stations whose owner changed are PUT on their new owner as replication log entries, in batches per owner.
+ * Every other station stays where it is.
+ * <p>
+ * Moved records keep their original Lamport time and commit time, so they are still ordered against later PUTs,
+ * and expire on their new owner when they would have on their old one. Each record's status is checked, and any
+ * station its new owner did not accept is reported once every server has been rebalanced.
+ * <p>
+ * Moved records are not removed from their old owner. Clients route past them, and they expire as usual.
+ * <p>
+ * Usage: java ShardRebalancer <old_ring_filename> <new_ring_filename>
+ */
+public class ShardRebalancer {
+
+    // Keeps each batch well under a server's default maximum body size
+    public static final int BATCH_BYTES = 256 * 1024;
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    /**
+     * Copy every station whose owner differs between two rings to its new owner.
+     * @param before The ring the servers were sharded by.
+     * @param after The ring the servers are now sharded by.
+     * @return The number of stations moved.
+     * @throws IOException A server may fail to export records, or a new owner may not accept some of them.
+     * @throws InterruptedException The requests can be interrupted.
+     * @throws IllegalArgumentException A server may export invalid entries.
+     */
+    public int rebalance(HashRing before, HashRing after) throws IOException, InterruptedException, IllegalArgumentException {
+        int moved = 0;
+        List<String> rejected = new ArrayList<>();
+        for (String node : before.getNodes()) {
+            // Group the moving records by their new owner, holding only this server's records at once
+            Map<String, List<WeatherRecord>> movingByOwner = new LinkedHashMap<>();
+            for (WeatherRecord record : this.snapshot(node)) {
+                // Skip records the server no longer owns, and stations that stay put
+                if (!before.getOwner(record.stationId).equals(node)) continue;
+                String owner = after.getOwner(record.stationId);
+                if (owner.equals(node)) continue;
+
+                movingByOwner.computeIfAbsent(owner, key -> new ArrayList<>()).add(record);
+            }
+
+            for (Map.Entry<String, List<WeatherRecord>> moving : movingByOwner.entrySet()) {
+                moved += this.putRecords(moving.getKey(), moving.getValue(), rejected);
+            }
+        }
+
+        Log.info("Moved " + moved + " stations.");
+        if (!rejected.isEmpty()) throw new IOException(rejected.size() + " stations were not accepted by their new owner: " + String.join(", ", rejected));
+        return moved;
+    }
+
+    /**
+     * Copy every record held by a server, with its Lamport time and commit time, from a replication snapshot.
+     * @param node The hostname of the server.
+     * @return The records.
+     * @throws IOException The server may fail to send the snapshot.
+     * @throws InterruptedException The request can be interrupted.
+     * @throws IllegalArgumentException The server may send invalid entries.
+     */
+    private List<WeatherRecord> snapshot(String node) throws IOException, InterruptedException, IllegalArgumentException {
+        // Asking without an epoch always gets a snapshot
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://" + node + "/replication"))
+                .header("User-agent", "ATOMClient/1/0")
+                .GET()
+                .build();
+        HttpResponse<byte[]> response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) throw new IOException("Snapshot from " + node + " failed with status code " + response.statusCode());
+        return ReplicationLog.decodeEntries(response.body());
+    }
+
+    /**
+     * PUT records on their new owner as replication log entries, in batches of up to BATCH_BYTES.
+     * @param node The hostname of the new owner.
+     * @param records The records to move.
+     * @param rejected Collects each station the owner did not accept, with its status code.
+     * @return The number of records the owner accepted.
+     * @throws IOException The server may fail to accept a batch.
+     * @throws InterruptedException The requests can be interrupted.
+     */
+    private int putRecords(String node, List<WeatherRecord> records, List<String> rejected) throws IOException, InterruptedException {
+        int accepted = 0;
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        List<WeatherRecord> batched = new ArrayList<>();
+        for (WeatherRecord record : records) {
+            byte[] entry = ReplicationLog.encodeEntries(List.of(record));
+            if (!batched.isEmpty() && batch.size() + entry.length > BATCH_BYTES) {
+                accepted += this.putBatch(node, batch.toByteArray(), batched, rejected);
+                batch.reset();
+                batched.clear();
+            }
+            batch.writeBytes(entry);
+            batched.add(record);
+        }
+        if (!batched.isEmpty()) accepted += this.putBatch(node, batch.toByteArray(), batched, rejected);
+        return accepted;
+    }
+
+    /**
+     * PUT a batch of replication log entries on a server, checking the status of every record.
+     * A record is accepted if it was committed, or the server already holds it or a newer record for its station.
+     * @param node The hostname of the server.
+     * @param entries The encoded entries.
+     * @param records The records in the batch, in order.
+     * @param rejected Collects each station the server did not accept, with its status code.
+     * @return The number of records the server accepted.
+     * @throws IOException The server may fail to accept the batch.
+     * @throws InterruptedException The request can be interrupted.
+     */
+    private int putBatch(String node, byte[] entries, List<WeatherRecord> records, List<String> rejected) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://" + node + "/replication"))
+                .headers(
+                        "User-agent", "ATOMClient/1/0",
+                        "Lamport-time", "0"
+                )
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(entries))
+                .build();
+        HttpResponse<String> response = this.httpClient.send(request, EncodingHelpers.decodingBodyHandler());
+        if (response.statusCode() != 200) throw new IOException("Batch PUT to " + node + " failed with status code " + response.statusCode());
+
+        List<String> lines = response.body().lines().toList();
+        if (lines.size() != records.size()) throw new IOException("Batch PUT to " + node + " sent " + lines.size() + " statuses for " + records.size() + " records");
+
+        int accepted = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String status = lines.get(i).split(" ", 2)[0];
+            if (status.equals("200") || status.equals("201") || status.equals("304")) {
+                accepted++;
+            } else {
+                rejected.add(records.get(i).stationId + " (" + status + ")");
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * The entry point for the rebalancer.
+     * @param args Command-line arguments.
+     */
+    public static void main(String[] args) {
+        List<String> arguments = ConversionHelpers.argsToPositionals(args);
+        if (arguments.size() < 2) {
+            Log.error("Usage: java ShardRebalancer <old_ring_filename> <new_ring_filename>");
+            return;
+        }
+
+        try {
+            new ShardRebalancer().rebalance(HashRing.fromFile(arguments.get(0)), HashRing.fromFile(arguments.get(1)));
+        } catch (IOException | IllegalArgumentException e) {
+            Log.error("Failed to rebalance: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Log.error("Rebalance was interrupted.");
+        }
+    }
+}
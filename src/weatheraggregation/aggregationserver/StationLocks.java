@@ -0,0 +1,65 @@
+package weatheraggregation.aggregationserver;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks, striped by station ID.
+ * Commits to the same station are serialised, while commits to different stations rarely share a stripe.
+ */
+public class StationLocks {
+
+    public static final int DEFAULT_STRIPES = 64;
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    public StationLocks() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public StationLocks(int stripeCount) {
+        // Round up to a power of two, so a stripe can be found with a mask
+        int size = (stripeCount <= 1) ? 1 : Integer.highestOneBit(stripeCount - 1) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) this.stripes[i] = new ReentrantLock();
+        this.mask = size - 1;
+    }
+
+    /**
+     * Get the lock guarding a station.
+     * @param stationId The ID of the station.
+     * @return The lock for the station's stripe.
+     */
+    public ReentrantLock lockFor(String stationId) {
+        return this.stripes[this.stripeFor(stationId)];
+    }
+
+    /**
+     * Get the locks guarding several stations, without duplicates.
+     * The locks are always in stripe order, so threads locking them in turn can never deadlock.
+     * @param stationIds The IDs of the stations.
+     * @return The locks for the stations' stripes, in stripe order.
+     */
+    public List<ReentrantLock> locksFor(Collection<String> stationIds) {
+        BitSet stripeIndices = new BitSet(this.stripes.length);
+        for (String stationId : stationIds) stripeIndices.set(this.stripeFor(stationId));
+
+        List<ReentrantLock> locks = new ArrayList<>(stripeIndices.cardinality());
+        for (int i = stripeIndices.nextSetBit(0); i >= 0; i = stripeIndices.nextSetBit(i + 1)) locks.add(this.stripes[i]);
+        return locks;
+    }
+
+    /**
+     * Get the stripe index of a station.
+     * @param stationId The ID of the station.
+     * @return The index of the station's stripe.
+     */
+    private int stripeFor(String stationId) {
+        int hash = stationId.hashCode();
+        return (hash ^ (hash >>> 16)) & this.mask;
+    }
+}
@@ -0,0 +1,197 @@
+package weatheraggregation.aggregationserver;
+
+import weatheraggregation.core.WeatherRecord;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fans committed weather records out to subscribers, as server-sent events.
+ * Each record is encoded as an event once, however many subscribers receive it.
+ * Publishing never blocks: each subscriber has a bounded buffer, and a slow subscriber loses its oldest events.
+ */
+public class SubscriptionHub {
+
+    public static final int DEFAULT_BUFFER_EVENTS = 64;
+
+    /**
+     * A committed record, with its event encoded once for every subscriber.
+     */
+    private static class Event {
+        private final WeatherRecord record;
+        private final byte[] bytes;
+
+        private Event(WeatherRecord record) {
+            this.record = record;
+            this.bytes = encodeEvent(record);
+        }
+    }
+
+    /**
+     * A single subscriber's buffer of encoded events.
+     */
+    public static class Subscription {
+        // The station ID subscribed to (optionally null, for every station)
+        public final String stationId;
+
+        private final BlockingQueue<Event> events;
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile boolean closed = false;
+
+        // The record already sent to the subscriber, whose station's events up to its Lamport time are skipped
+        private volatile WeatherRecord sent;
+
+        private Subscription(String stationId, int bufferEvents) {
+            this.stationId = stationId;
+            this.events = new ArrayBlockingQueue<>(bufferEvents);
+        }
+
+        /**
+         * Buffer an event, dropping the oldest buffered events to make room.
+         * @param event The encoded event.
+         */
+        private void offer(Event event) {
+            while (!this.events.offer(event)) {
+                if (this.events.poll() != null) this.dropped.incrementAndGet();
+            }
+        }
+
+        /**
+         * Skip the events for a record already sent to the subscriber, and any older commits to its station.
+         * A subscription starts before its current record is read, so a commit in between would otherwise arrive twice.
+         * @param record The record sent to the subscriber (optionally null).
+         */
+        public void skipThrough(WeatherRecord record) {
+            this.sent = record;
+        }
+
+        /**
+         * Wait for the next event, skipping any already sent.
+         * @param timeout How long to wait.
+         * @param unit The unit of the timeout.
+         * @return The encoded event, or null if none arrived in time or the subscription is closed.
+         * @throws InterruptedException The wait may be interrupted.
+         */
+        public byte[] poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!this.closed) {
+                Event event = this.events.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (event == null) return null;
+
+                WeatherRecord sent = this.sent;
+                if (sent == null || !event.record.stationId.equals(sent.stationId) || event.record.lamportTime > sent.lamportTime) {
+                    return event.bytes;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Get how many events were dropped because the subscriber fell behind.
+         * @return The number of dropped events.
+         */
+        public long getDropped() {
+            return this.dropped.get();
+        }
+
+        /**
+         * Check whether the subscription has been closed by the hub.
+         * @return Whether the subscription is closed.
+         */
+        public boolean isClosed() {
+            return this.closed;
+        }
+    }
+
+    private final int bufferEvents;
+
+    // Subscribers to a single station, keyed by station ID, and subscribers to every station
+    private final Map<String, Set<Subscription>> stationSubscriptions = new ConcurrentHashMap<>();
+    private final Set<Subscription> allSubscriptions = ConcurrentHashMap.newKeySet();
+
+    public SubscriptionHub() {
+        this(DEFAULT_BUFFER_EVENTS);
+    }
+
+    public SubscriptionHub(int bufferEvents) {
+        this.bufferEvents = bufferEvents;
+    }
+
+    /**
+     * Subscribe to the records committed for one station, or for every station.
+     * @param stationId The station ID to subscribe to (optionally null, for every station).
+     * @return The new subscription.
+     */
+    public Subscription subscribe(String stationId) {
+        Subscription subscription = new Subscription(stationId, this.bufferEvents);
+        if (stationId == null) {
+            this.allSubscriptions.add(subscription);
+        } else {
+            this.stationSubscriptions.computeIfAbsent(stationId, key -> ConcurrentHashMap.newKeySet()).add(subscription);
+        }
+        return subscription;
+    }
+
+    /**
+     * Remove a subscription, so it receives no more events.
+     * @param subscription The subscription to remove.
+     */
+    public void unsubscribe(Subscription subscription) {
+        if (subscription.stationId == null) {
+            this.allSubscriptions.remove(subscription);
+        } else {
+            this.stationSubscriptions.computeIfPresent(subscription.stationId, (key, subscriptions) -> {
+                subscriptions.remove(subscription);
+                return subscriptions.isEmpty() ? null : subscriptions;
+            });
+        }
+    }
+
+    /**
+     * Publish a committed record to every subscriber of its station, and every subscriber to all stations.
+     * @param record The committed record.
+     */
+    public void publish(WeatherRecord record) {
+        Set<Subscription> subscriptions = this.stationSubscriptions.get(record.stationId);
+        if (this.allSubscriptions.isEmpty() && subscriptions == null) return;
+
+        Event event = new Event(record);
+        for (Subscription subscription : this.allSubscriptions) subscription.offer(event);
+        if (subscriptions != null) {
+            for (Subscription subscription : subscriptions) subscription.offer(event);
+        }
+    }
+
+    /**
+     * Close every subscription, so their writers finish.
+     */
+    public void close() {
+        for (Subscription subscription : this.allSubscriptions) subscription.closed = true;
+        for (Set<Subscription> subscriptions : this.stationSubscriptions.values()) {
+            for (Subscription subscription : subscriptions) subscription.closed = true;
+        }
+        this.allSubscriptions.clear();
+        this.stationSubscriptions.clear();
+    }
+
+    /**
+     * Encode a record as a server-sent event, with its lamport time as the event ID.
+     * Every line of the JSON gets its own data field, so multi-line bodies survive.
+     * @param record The record to encode.
+     * @return The encoded event.
+     */
+    public static byte[] encodeEvent(WeatherRecord record) {
+        StringBuilder event = new StringBuilder(record.jsonString.length() + 32);
+        event.append("id: ").append(record.lamportTime).append('\n');
+        event.append("event: weather\n");
+        for (String line : record.jsonString.split("\r?\n")) event.append("data: ").append(line).append('\n');
+        event.append('\n');
+        return event.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,113 @@
+package weatheraggregation.aggregationserver;
+
+import weatheraggregation.core.WeatherRecord;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An in-memory index of the latest weather record for each station.
+ * The index is loaded from the weather store once, and serves all reads afterwards.
+ */
+public class WeatherIndex {
+    private final Map<String, WeatherRecord> records = new ConcurrentHashMap<>();
+
+    // The most recently committed record, across all stations
+    private final AtomicReference<WeatherRecord> latest = new AtomicReference<>();
+
+    /**
+     * Load records into the index, replacing any records it already holds.
+     * @param entries The records to load, ordered from most to least recent.
+     */
+    public void load(List<WeatherRecord> entries) {
+        this.records.clear();
+        for (WeatherRecord record : entries) {
+            this.records.putIfAbsent(record.stationId, record);
+        }
+        this.latest.set(entries.isEmpty() ? null : entries.getFirst());
+    }
+
+    /**
+     * Get the latest record for a station.
+     * @param stationId The ID of the station.
+     * @return The latest record, or null if the station has no record.
+     */
+    public WeatherRecord get(String stationId) {
+        return this.records.get(stationId);
+    }
+
+    /**
+     * Get the most recently committed record, across all stations.
+     * @return The most recent record, or null if the index is empty.
+     */
+    public WeatherRecord getLatest() {
+        return this.latest.get();
+    }
+
+    /**
+     * Store a newly committed record, replacing the station's previous record.
+     * Records for different stations may be stored concurrently, so the most recent one always wins.
+     * @param record The committed record.
+     */
+    public void put(WeatherRecord record) {
+        this.records.put(record.stationId, record);
+        this.latest.accumulateAndGet(record, WeatherIndex::newer);
+    }
+
+    /**
+     * Remove a record, unless it has been replaced since.
+     * Removing the most recent record makes the most recent of the remaining records the latest. Records are
+     * removed out of age order too, such as when a follower drops the stations missing from its primary's snapshot.
+     * @param record The record to remove.
+     * @return Whether the record was removed.
+     */
+    public boolean remove(WeatherRecord record) {
+        if (!this.records.remove(record.stationId, record)) return false;
+
+        // Removals rescan one at a time, so one can't restore a record another has just removed
+        synchronized (this.latest) {
+            if (this.latest.get() != record) return true;
+
+            // Find the new latest record, then fold every record in again, so a put racing the scan still wins
+            WeatherRecord newest = null;
+            for (WeatherRecord remaining : this.records.values()) newest = newer(newest, remaining);
+            if (this.latest.compareAndSet(record, newest)) {
+                for (WeatherRecord remaining : this.records.values()) this.latest.accumulateAndGet(remaining, WeatherIndex::newer);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get a live, read-only view of every station's latest record.
+     * Iterating the view copies nothing, and sees commits made during the iteration at most once per station.
+     * @return The records, in no particular order.
+     */
+    public Collection<WeatherRecord> records() {
+        return Collections.unmodifiableCollection(this.records.values());
+    }
+
+    /**
+     * Pick the more recently committed of two records, preferring the second if they tie.
+     * @param current The current record (optionally null).
+     * @param next The next record (optionally null).
+     * @return The more recent record.
+     */
+    private static WeatherRecord newer(WeatherRecord current, WeatherRecord next) {
+        if (current == null) return next;
+        if (next == null) return current;
+        return (next.realTime >= current.realTime) ? next : current;
+    }
+
+    /**
+     * Get the number of stations with a record.
+     * @return The number of stations.
+     */
+    public int size() {
+        return this.records.size();
+    }
+}
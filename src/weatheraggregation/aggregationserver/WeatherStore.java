@@ -0,0 +1,71 @@
+package weatheraggregation.aggregationserver;
+
+import weatheraggregation.core.WeatherRecord;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The durable backing store for an AggregationServer's weather records.
+ * Reads are served from the WeatherIndex, so a store is only read once, on startup.
+ */
+public interface WeatherStore {
+    /**
+     * Load every record held by the store.
+     * @return The records, ordered from most to least recent.
+     * @throws IOException The store may fail to be read.
+     */
+    List<WeatherRecord> load() throws IOException;
+
+    /**
+     * Durably commit a record, replacing the station's previous record.
+     * @param record The record to commit.
+     * @throws IOException The store may fail to be written.
+     * @throws IllegalStateException The store may contain a newer version of the record.
+     */
+    void commit(WeatherRecord record) throws IOException, IllegalStateException;
+
+    /**
+     * Durably commit a batch of records, for distinct stations, in one storage operation.
+     * Stores that can't batch commit each record in turn.
+     * @param records The records to commit, ordered from least to most recent.
+     * @throws IOException The store may fail to be written.
+     * @throws IllegalStateException The store may contain a newer version of a record.
+     */
+    default void commitAll(List<WeatherRecord> records) throws IOException, IllegalStateException {
+        for (WeatherRecord record : records) this.commit(record);
+    }
+
+    /**
+     * Remove records from the store, if they have not been replaced since.
+     * @param records The records to remove.
+     * @throws IOException The store may fail to be written.
+     */
+    void remove(List<WeatherRecord> records) throws IOException;
+
+    /**
+     * Release any resources held by the store.
+     * @throws IOException The store may fail to be closed.
+     */
+    void close() throws IOException;
+
+    /**
+     * Create a store by its storage mode name.
+     * @param storageMode The storage mode, either "file", "log" or "mapped".
+     * @param filename The filename of the weather data file.
+     * @param options Store options, such as the slot count of a mapped store.
+     * @return The created store.
+     * @throws IllegalArgumentException The storage mode may not exist.
+     */
+    static WeatherStore create(String storageMode, String filename, Map<String, String> options) throws IllegalArgumentException {
+        return switch (storageMode) {
+            case "file" -> new FileWeatherStore(filename);
+            case "log" -> new LogWeatherStore(filename);
+            case "mapped" -> new MappedWeatherStore(filename,
+                    Integer.parseInt(options.getOrDefault("slots", String.valueOf(MappedWeatherStore.DEFAULT_SLOTS))),
+                    Integer.parseInt(options.getOrDefault("slot-bytes", String.valueOf(MappedWeatherStore.DEFAULT_SLOT_BYTES))));
+            default -> throw new IllegalArgumentException("Unknown storage mode: " + storageMode);
+        };
+    }
+}
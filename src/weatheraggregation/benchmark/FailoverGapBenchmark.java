@@ -0,0 +1,132 @@
+package weatheraggregation.benchmark;
+
+import weatheraggregation.aggregationserver.AggregationServer;
+import weatheraggregation.core.Log;
+import weatheraggregation.getclient.GETClient;
+import weatheraggregation.replicatedcontentserver.ReplicatedContentServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measure the data gap a ReplicatedContentServer leaves when its primary AggregationServer is killed,
+ * comparing serial failover against fan-out publishing.
+ * The gap is the time from the kill until the surviving AggregationServer holds an update committed after it.
+ * Each trial kills the primary at a random point in the publishing interval.
+ * Usage: java FailoverGapBenchmark <trials>?
+ */
+public class FailoverGapBenchmark {
+
+    public static final int DEFAULT_PORT = 4590;
+    private static final String CONTENT_FILENAME = "src/weatheraggregation/test/testdata/content_data_1.tst";
+    private static final String STATION_ID = "IDS00001";
+
+    // How long to publish before the kill, and the longest gap to wait for
+    private static final long WARMUP_MILLIS = 3000;
+    private static final long GIVE_UP_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final long POLL_MILLIS = 10;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int trials = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+        String ip = InetAddress.getLocalHost().toString().split("/", 2)[1];
+
+        // The servers and clients log every request, which would swamp the report, so silence them
+        Log.flush();
+        Log.Level logLevel = Log.getSharedLevel();
+        Log.setSharedLevel(Log.Level.OFF);
+
+        System.out.println("Trials: " + trials);
+        try {
+            run("failover", ip, trials);
+            run("fan-out", ip, trials);
+        } finally {
+            Log.setSharedLevel(logLevel);
+        }
+    }
+
+    /**
+     * Run every trial of one publishing mode and print its data gaps.
+     * @param mode Either "failover" or "fan-out".
+     * @param ip The IP of the local machine.
+     * @param trials The number of trials to run.
+     */
+    private static void run(String mode, String ip, int trials) throws IOException, InterruptedException {
+        long totalNanos = 0;
+        long maxNanos = 0;
+        for (int trial = 0; trial < trials; trial++) {
+            long gapNanos = measureGap(mode, ip);
+            totalNanos += gapNanos;
+            maxNanos = Math.max(maxNanos, gapNanos);
+        }
+        System.out.printf("%-8s  mean gap: %7.3f s   max gap: %7.3f s%n", mode, totalNanos / 1e9 / trials, maxNanos / 1e9);
+    }
+
+    /**
+     * Publish to a primary and a backup AggregationServer, kill the primary, and time how long the backup goes
+     * without a fresh update.
+     * @param mode Either "failover" or "fan-out".
+     * @param ip The IP of the local machine.
+     * @return The data gap, in nanoseconds, or the give-up time if no fresh update arrived.
+     */
+    private static long measureGap(String mode, String ip) throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("failover-gap");
+        AggregationServer primary = new AggregationServer(directory.resolve("primary.txt").toString(), DEFAULT_PORT, true);
+        AggregationServer backup = new AggregationServer(directory.resolve("backup.txt").toString(), DEFAULT_PORT + 1, true);
+        String primaryHostname = ip + ":" + DEFAULT_PORT;
+        String backupHostname = ip + ":" + (DEFAULT_PORT + 1);
+        primary.startServer();
+        backup.startServer();
+
+        ReplicatedContentServer contentServer = new ReplicatedContentServer(List.of(primaryHostname, backupHostname), CONTENT_FILENAME);
+        if (mode.equals("fan-out")) {
+            contentServer.startFanOut(1);
+        } else {
+            contentServer.startPrimary();
+        }
+
+        // Kill the primary at a random point in the publishing interval
+        TimeUnit.MILLISECONDS.sleep(WARMUP_MILLIS + ThreadLocalRandom.current().nextLong(2000));
+        GETClient reader = new GETClient(backupHostname, STATION_ID);
+        String staleETag = readETag(reader);
+        long killNanos = System.nanoTime();
+        primary.shutdownServer();
+
+        // Wait for the backup to hold an update committed after the kill
+        long gapNanos = GIVE_UP_NANOS;
+        while (System.nanoTime() - killNanos < GIVE_UP_NANOS) {
+            String etag = readETag(reader);
+            if (etag != null && !Objects.equals(etag, staleETag)) {
+                gapNanos = System.nanoTime() - killNanos;
+                break;
+            }
+            TimeUnit.MILLISECONDS.sleep(POLL_MILLIS);
+        }
+
+        contentServer.shutdownClient();
+        backup.shutdownServer();
+        reader.shutdownClient();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(path);
+        }
+        return gapNanos;
+    }
+
+    /**
+     * Read the ETag of the station's current record, which changes with every commit.
+     * @param reader The client to read with.
+     * @return The ETag, or null if the station has no record.
+     */
+    private static String readETag(GETClient reader) throws IOException, InterruptedException {
+        HttpResponse<String> response = reader.sendRequest(reader.createRequest());
+        return (response.statusCode() == 200) ? response.headers().firstValue("ETag").orElse(null) : null;
+    }
+}
@@ -0,0 +1,106 @@
+package weatheraggregation.benchmark;
+
+import weatheraggregation.core.FileHelpers;
+import weatheraggregation.jsonparser.CustomJsonParser;
+import weatheraggregation.jsonparser.CustomParseException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compare the single-pass byte parser against the previous split-and-regex parser.
+ * Payloads are built from the test data, the same way ContentServers and the weather file produce them.
+ * Usage: java JsonParserBenchmark <iterations>?
+ */
+public class JsonParserBenchmark {
+
+    private static final String TESTDATA_DIRECTORY = "src/weatheraggregation/test/testdata/";
+    private static final String[] CONTENT_FILES = { "content_data_1.tst", "content_data_2.tst", "content_data_mixed.tst" };
+
+    // Prevents the JIT from discarding unused results
+    private static int blackhole;
+
+    public static void main(String[] args) throws IOException, CustomParseException {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 200_000;
+
+        List<String> payloads = new ArrayList<>();
+        for (String filename : CONTENT_FILES) payloads.add(FileHelpers.readContentFile(TESTDATA_DIRECTORY + filename));
+        for (String[] entry : FileHelpers.readWeatherFileAll(TESTDATA_DIRECTORY + "3_entry.tst")) payloads.add(entry[3]);
+
+        List<byte[]> payloadBytes = new ArrayList<>();
+        for (String payload : payloads) payloadBytes.add(payload.getBytes(StandardCharsets.UTF_8));
+
+        System.out.println("Payloads: " + payloads.size() + ", iterations: " + iterations);
+
+        // Warm up both parsers, then measure
+        for (int round = 0; round < 2; round++) {
+            boolean measure = round == 1;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                blackhole += legacyStringToJson(payloads.get(i % payloads.size())).size();
+            }
+            report(measure, "split/regex (String)", start, iterations);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                blackhole += CustomJsonParser.stringToJson(payloads.get(i % payloads.size())).size();
+            }
+            report(measure, "single-pass (String)", start, iterations);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                blackhole += CustomJsonParser.bytesToJson(payloadBytes.get(i % payloadBytes.size())).size();
+            }
+            report(measure, "single-pass (byte[])", start, iterations);
+        }
+        System.out.println("(" + blackhole + ")");
+    }
+
+    /**
+     * Print the average time per parse, if this round is being measured.
+     * @param measure Whether this round is being measured.
+     * @param name The name of the parser.
+     * @param start The start of the round, in nanoseconds.
+     * @param iterations The number of parses in the round.
+     */
+    private static void report(boolean measure, String name, long start, int iterations) {
+        if (!measure) return;
+        double nanosPerParse = (System.nanoTime() - start) / (double) iterations;
+        System.out.printf("%-22s %,10.1f ns/parse%n", name, nanosPerParse);
+    }
+
+    /**
+     * The previous implementation of CustomJsonParser.stringToJson, kept as a baseline.
+     * @param jsonString The JSON string.
+     * @return The returned JSON object.
+     * @throws CustomParseException The JSON string may be invalid and raise an exception.
+     */
+    private static Map<String, String> legacyStringToJson(String jsonString) throws CustomParseException {
+        Map<String, String> jsonObject = new HashMap<>();
+        jsonString = jsonString.trim();
+
+        if (jsonString.startsWith("{") && jsonString.endsWith("}")) {
+            jsonString = jsonString.substring(1, jsonString.length() - 1).trim();
+            if (jsonString.isEmpty()) return jsonObject;
+
+            for (String pair : jsonString.split(",")) {
+                String[] keyValue = pair.split(":", 2);
+                if (keyValue.length == 2) {
+                    String key = keyValue[0].trim().replaceAll("\"", "");
+                    String value = keyValue[1].trim().replaceAll("\"", "");
+                    jsonObject.put(key, value);
+                } else {
+                    throw new CustomParseException("Field is not in the form \"key:value\"");
+                }
+            }
+        } else {
+            throw new CustomParseException("String is not a JSON object");
+        }
+        return jsonObject;
+    }
+}
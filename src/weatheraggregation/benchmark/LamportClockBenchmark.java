@@ -0,0 +1,91 @@
+package weatheraggregation.benchmark;
+
+import weatheraggregation.core.AtomicLamportClock;
+import weatheraggregation.core.LamportClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compare the AtomicLamportClock against a synchronized clock under contention.
+ * Every thread merges external times into one shared clock, as concurrent request handlers do.
+ * Usage: java LamportClockBenchmark <threads>? <seconds>?
+ */
+public class LamportClockBenchmark {
+
+    /**
+     * A lamport clock that guards every event with the clock's monitor.
+     */
+    private static class SynchronizedLamportClock implements LamportClock {
+        private long lamportTime = 0;
+
+        @Override
+        public synchronized long processEvent() {
+            return ++this.lamportTime;
+        }
+
+        @Override
+        public synchronized long processEvent(long otherTime) {
+            this.lamportTime = Math.max(this.lamportTime, otherTime) + 1;
+            return this.lamportTime;
+        }
+
+        @Override
+        public synchronized long getLamportTime() {
+            return this.lamportTime;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+        System.out.println("Threads: " + threads + ", seconds: " + seconds);
+        for (int i = 1; i <= threads; i *= 2) {
+            run("synchronized", new SynchronizedLamportClock(), i, seconds);
+            run("atomic", new AtomicLamportClock(), i, seconds);
+        }
+    }
+
+    /**
+     * Run one configuration of the benchmark and print its throughput.
+     * @param name The name of the clock implementation.
+     * @param clock The shared clock to benchmark.
+     * @param threads The number of threads sharing the clock.
+     * @param seconds The number of seconds to run for.
+     */
+    private static void run(String name, LamportClock clock, int threads, int seconds) throws InterruptedException {
+        LongAdder events = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch finished = new CountDownLatch(threads);
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                long count = 0;
+                long lastTime = 0;
+                while (running.get()) {
+                    // Merge a slightly stale external time, like a client's request would carry
+                    long time = clock.processEvent(lastTime - 1);
+                    if (time <= lastTime) throw new IllegalStateException("Lamport time went backwards");
+                    lastTime = time;
+                    count++;
+                }
+                events.add(count);
+                finished.countDown();
+            }));
+        }
+
+        workers.forEach(Thread::start);
+        TimeUnit.SECONDS.sleep(seconds);
+        running.set(false);
+        finished.await();
+
+        System.out.printf("%-12s threads: %3d   events/s: %,14.0f   final time: %,d%n",
+                name, threads, events.sum() / (double) seconds, clock.getLamportTime());
+    }
+}
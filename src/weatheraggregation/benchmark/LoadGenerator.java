@@ -0,0 +1,249 @@
+package weatheraggregation.benchmark;
+
+import weatheraggregation.aggregationserver.AggregationServer;
+import weatheraggregation.aggregationserver.ExecutorMode;
+import weatheraggregation.aggregationserver.WeatherStore;
+import weatheraggregation.contentserver.ContentServer;
+import weatheraggregation.core.AggregationClient;
+import weatheraggregation.core.ConversionHelpers;
+import weatheraggregation.core.FileHelpers;
+import weatheraggregation.core.LatencyHistogram;
+import weatheraggregation.core.Log;
+import weatheraggregation.getclient.GETClient;
+import weatheraggregation.jsonparser.CustomJsonParser;
+import weatheraggregation.jsonparser.CustomParseException;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Drive a local AggregationServer with simulated ContentServers and GETClients, and report end-to-end latency.
+ * Every request is built and processed by a real client, so the traffic matches what the clients send.
+ * <p>
+ * In closed-loop mode, each client waits for its response before sending its next request, at most at its share of the rate.
+ * In open-loop mode, requests are sent on a fixed schedule whether or not earlier ones have returned.
+ * Open-loop latency is measured from when each request was due to be sent, so a stalled server is not hidden
+ * by the requests it held back (coordinated omission).
+ * <p>
+ * Usage: java LoadGenerator <writers>? <readers>? <requests_per_second>? <seconds>? --mode=<closed|open>? --port=<port>?
+ *        --storage=<file|log|mapped>? --executor=<dispatcher|platform|virtual>? --threads=<count>?
+ */
+public class LoadGenerator {
+
+    public static final int DEFAULT_PORT = 4570;
+    private static final String CONTENT_FILENAME = "src/weatheraggregation/test/testdata/content_data_1.tst";
+
+    /**
+     * The results of one kind of client, recorded from many threads.
+     */
+    private static class Results {
+        public final String name;
+        public final LatencyHistogram latencies = new LatencyHistogram();
+        public final Map<Integer, LongAdder> statusCodes = new ConcurrentHashMap<>();
+        public final LongAdder failures = new LongAdder();
+
+        private Results(String name) {
+            this.name = name;
+        }
+
+        private void record(long latencyNanos, int statusCode) {
+            this.latencies.record(latencyNanos);
+            this.statusCodes.computeIfAbsent(statusCode, key -> new LongAdder()).increment();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, CustomParseException {
+        List<String> arguments = ConversionHelpers.argsToPositionals(args);
+        Map<String, String> options = ConversionHelpers.argsToOptions(args);
+
+        int writers = (arguments.size() > 0) ? Integer.parseInt(arguments.get(0)) : 4;
+        int readers = (arguments.size() > 1) ? Integer.parseInt(arguments.get(1)) : 16;
+        double rate = (arguments.size() > 2) ? Double.parseDouble(arguments.get(2)) : 1000;
+        int seconds = (arguments.size() > 3) ? Integer.parseInt(arguments.get(3)) : 10;
+        boolean openLoop = options.getOrDefault("mode", "open").equals("open");
+        int port = Integer.parseInt(options.getOrDefault("port", String.valueOf(DEFAULT_PORT)));
+        if (writers < 1) throw new IllegalArgumentException("At least one writer is needed");
+
+        // Every writer publishes its own station, from its own content file
+        Path directory = Files.createTempDirectory("load-generator");
+        String contentText = Files.readString(Path.of(CONTENT_FILENAME));
+        String stationId = CustomJsonParser.stringToJson(FileHelpers.readContentFile(CONTENT_FILENAME)).get("id");
+
+        String hostname = InetAddress.getLocalHost().toString().split("/", 2)[1] + ":" + port;
+        List<AggregationClient> clients = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            Path contentPath = directory.resolve("content_" + i + ".tst");
+            Files.writeString(contentPath, contentText.replace(stationId, stationId + "-" + i));
+            clients.add(new ContentServer(hostname, contentPath.toString()));
+        }
+        for (int i = 0; i < readers; i++) {
+            clients.add(new GETClient(hostname, stationId + "-" + (i % writers)));
+        }
+
+        WeatherStore weatherStore = WeatherStore.create(options.getOrDefault("storage", "file"), directory.resolve("weather_data.txt").toString(), options);
+        ExecutorMode executorMode = ExecutorMode.fromName(options.getOrDefault("executor", "dispatcher"));
+        int executorThreads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(ExecutorMode.DEFAULT_THREADS)));
+        AggregationServer server = new AggregationServer(weatherStore, port, true, executorMode, executorThreads);
+        server.startServer();
+
+        System.out.printf("Mode: %s, writers: %d, readers: %d, rate: %.0f/s, seconds: %d, executor: %s%n",
+                openLoop ? "open" : "closed", writers, readers, rate, seconds, executorMode);
+
+        Results writeResults = new Results("PUT");
+        Results readResults = new Results("GET");
+
+        // The server and clients log every request, which would swamp the report, so silence them under load
+        Log.flush();
+        Log.Level logLevel = Log.getSharedLevel();
+        Log.setSharedLevel(Log.Level.OFF);
+
+        // Each client sends an equal share of the rate, with its first request spread across one interval
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) * clients.size() / rate);
+        long startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long endNanos = startNanos + TimeUnit.SECONDS.toNanos(seconds);
+
+        List<Thread> drivers = new ArrayList<>();
+        try (ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients.size(); i++) {
+                AggregationClient client = clients.get(i);
+                Results results = (i < writers) ? writeResults : readResults;
+                long firstNanos = startNanos + (intervalNanos * i / clients.size());
+
+                drivers.add(Thread.ofPlatform().start(() -> {
+                    if (openLoop) {
+                        driveOpenLoop(client, results, senders, firstNanos, intervalNanos, endNanos);
+                    } else {
+                        driveClosedLoop(client, results, firstNanos, intervalNanos, endNanos);
+                    }
+                }));
+            }
+            for (Thread driver : drivers) driver.join();
+            // Closing the senders waits for every request still in flight
+        } finally {
+            server.shutdownServer();
+            for (AggregationClient client : clients) client.shutdownClient();
+            Log.setSharedLevel(logLevel);
+        }
+
+        report(writeResults, seconds);
+        report(readResults, seconds);
+
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Send a client's requests one at a time, waiting for each response before the next request.
+     * A request that is overdue is sent immediately, and its latency is measured from when it was actually sent.
+     * @param client The client to send requests from.
+     * @param results The results to record into.
+     * @param firstNanos When the first request is due.
+     * @param intervalNanos The time between requests.
+     * @param endNanos When to stop sending requests.
+     */
+    private static void driveClosedLoop(AggregationClient client, Results results, long firstNanos, long intervalNanos, long endNanos) {
+        for (long dueNanos = firstNanos; dueNanos < endNanos; dueNanos += intervalNanos) {
+            parkUntil(dueNanos);
+            long sentNanos = System.nanoTime();
+            if (sentNanos >= endNanos) return;
+            send(client, results, sentNanos);
+
+            // Skip the slots that passed while we waited, as a real client would
+            long now = System.nanoTime();
+            if (now > dueNanos + intervalNanos) dueNanos += ((now - dueNanos) / intervalNanos) * intervalNanos;
+        }
+    }
+
+    /**
+     * Send a client's requests on a fixed schedule, without waiting for earlier responses.
+     * Each request's latency is measured from when it was due, however late it was actually sent.
+     * @param client The client to send requests from.
+     * @param results The results to record into.
+     * @param senders The executor to send each request on.
+     * @param firstNanos When the first request is due.
+     * @param intervalNanos The time between requests.
+     * @param endNanos When to stop sending requests.
+     */
+    private static void driveOpenLoop(AggregationClient client, Results results, ExecutorService senders, long firstNanos, long intervalNanos, long endNanos) {
+        for (long dueNanos = firstNanos; dueNanos < endNanos; dueNanos += intervalNanos) {
+            parkUntil(dueNanos);
+            long intendedNanos = dueNanos;
+            senders.execute(() -> send(client, results, intendedNanos));
+        }
+    }
+
+    /**
+     * Send one request from a client, and let the client process its response.
+     * @param client The client to send the request from.
+     * @param results The results to record into.
+     * @param fromNanos The time to measure the latency from.
+     */
+    private static void send(AggregationClient client, Results results, long fromNanos) {
+        try {
+            HttpRequest request;
+            synchronized (client) {
+                request = client.createRequest();
+            }
+            HttpResponse<String> response = client.sendRequest(request);
+            results.record(System.nanoTime() - fromNanos, response.statusCode());
+
+            // Keep the client's lamport clock and caches up to date, so later requests aren't stale
+            synchronized (client) {
+                client.processResponse(response);
+            }
+        } catch (IOException | RuntimeException e) {
+            results.failures.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait until a point in time.
+     * @param deadlineNanos The time to wait until, from System.nanoTime.
+     */
+    private static void parkUntil(long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) LockSupport.parkNanos(remaining);
+    }
+
+    /**
+     * Print the throughput, latency percentiles and status codes of one kind of client.
+     * @param results The results to print.
+     * @param seconds The number of seconds the load ran for.
+     */
+    private static void report(Results results, int seconds) {
+        LatencyHistogram latencies = results.latencies;
+        System.out.printf("%-4s requests: %,9d   throughput: %,10.1f/s   p50: %8.3f ms   p99: %8.3f ms   p999: %8.3f ms%n",
+                results.name, latencies.getCount(), latencies.getCount() / (double) seconds,
+                toMillis(latencies.getValueAtQuantile(0.5)), toMillis(latencies.getValueAtQuantile(0.99)),
+                toMillis(latencies.getValueAtQuantile(0.999)));
+
+        StringBuilder statusCodes = new StringBuilder();
+        for (Map.Entry<Integer, LongAdder> entry : new TreeMap<>(results.statusCodes).entrySet()) {
+            statusCodes.append("  ").append(entry.getKey()).append(": ").append(entry.getValue().sum());
+        }
+        System.out.println("     status codes:" + statusCodes + "   failed: " + results.failures.sum());
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
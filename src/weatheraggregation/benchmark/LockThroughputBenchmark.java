@@ -0,0 +1,149 @@
+package weatheraggregation.benchmark;
+
+import weatheraggregation.aggregationserver.StationLocks;
+import weatheraggregation.aggregationserver.WeatherIndex;
+import weatheraggregation.aggregationserver.WeatherStore;
+import weatheraggregation.core.WeatherRecord;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compare request throughput under one global request lock against per-station striped locks.
+ * Writers commit to their own stations through a weather store (by default, the file store), while readers read the
+ * WeatherIndex at a fixed rate. Readers that fall short of their rate were held up by the writers' locks.
+ * Usage: java LockThroughputBenchmark <writers>? <readers>? <seconds>? <storage_mode>?
+ */
+public class LockThroughputBenchmark {
+
+    private static final int STATIONS_PER_WRITER = 100;
+
+    // Readers are paced like real GET traffic, since unpaced readers measure CPU share rather than lock contention:
+    // on a machine with fewer cores than threads, readers that never block starve the writers of CPU time
+    private static final long READS_PER_SECOND_PER_READER = 50000;
+    private static final int READ_BATCH = 50;
+    private static final String WEATHER_JSON = "{\"id\":\"%s\",\"name\":\"Benchmark\",\"air_temp\":\"10.0\"}";
+
+    public static void main(String[] args) throws Exception {
+        int writers = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int readers = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+        int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+        String storageMode = (args.length > 3) ? args[3] : "file";
+
+        System.out.println("Writers: " + writers + ", readers: " + readers + ", seconds: " + seconds + ", store: " + storageMode);
+        run("global", writers, readers, seconds, storageMode);
+        run("striped", writers, readers, seconds, storageMode);
+    }
+
+    /**
+     * Run one configuration of the benchmark and print its throughput.
+     * @param mode Either "global", where every request takes one shared lock, or "striped".
+     * @param writers The number of writer threads.
+     * @param readers The number of reader threads.
+     * @param seconds The number of seconds to run for.
+     * @param storageMode The storage mode of the weather store, either "file", "log" or "mapped".
+     */
+    private static void run(String mode, int writers, int readers, int seconds, String storageMode) throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("lock-benchmark");
+        WeatherStore store = WeatherStore.create(storageMode, directory.resolve("weather_data.txt").toString(), Map.of());
+        WeatherIndex index = new WeatherIndex();
+        index.load(store.load());
+
+        Lock globalLock = new ReentrantLock();
+        StationLocks stationLocks = new StationLocks();
+        boolean global = mode.equals("global");
+
+        LongAdder puts = new LongAdder();
+        LongAdder gets = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch finished = new CountDownLatch(writers + readers);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            threads.add(new Thread(() -> {
+                int lamportTime = 0;
+                while (running.get()) {
+                    lamportTime++;
+                    for (int s = 0; s < STATIONS_PER_WRITER && running.get(); s++) {
+                        String stationId = "W" + writer + "S" + s;
+                        WeatherRecord record = new WeatherRecord(stationId, (int) (System.currentTimeMillis() / 1000), lamportTime, WEATHER_JSON.formatted(stationId));
+                        Lock lock = global ? globalLock : stationLocks.lockFor(stationId);
+                        lock.lock();
+                        try {
+                            WeatherRecord existing = index.get(stationId);
+                            if (existing == null || existing.lamportTime < record.lamportTime) {
+                                store.commit(record);
+                                index.put(record);
+                            }
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        } finally {
+                            lock.unlock();
+                        }
+                        puts.increment();
+                    }
+                }
+                finished.countDown();
+            }));
+        }
+
+        for (int r = 0; r < readers; r++) {
+            int reader = r;
+            threads.add(new Thread(() -> {
+                int s = 0;
+                long startNanos = System.nanoTime();
+                long reads = 0;
+                while (running.get()) {
+                    // Wait until the next batch of reads is due, unless the reader has fallen behind
+                    if (reads % READ_BATCH == 0) {
+                        long dueNanos = startNanos + reads * 1_000_000_000L / READS_PER_SECOND_PER_READER;
+                        long waitNanos = dueNanos - System.nanoTime();
+                        if (waitNanos > 0) LockSupport.parkNanos(waitNanos);
+                    }
+                    reads++;
+
+                    String stationId = "W" + (reader % Math.max(1, writers)) + "S" + (s++ % STATIONS_PER_WRITER);
+                    if (global) {
+                        globalLock.lock();
+                        try {
+                            index.get(stationId);
+                        } finally {
+                            globalLock.unlock();
+                        }
+                    } else {
+                        index.get(stationId);
+                    }
+                    gets.increment();
+                }
+                finished.countDown();
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        TimeUnit.SECONDS.sleep(seconds);
+        running.set(false);
+        finished.await();
+        store.close();
+
+        // Clean up the store's files
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) Files.delete(path);
+        }
+        Files.delete(directory);
+
+        System.out.printf("%-8s PUT/s: %,12.0f   GET/s: %,14.0f%n", mode, puts.sum() / (double) seconds, gets.sum() / (double) seconds);
+    }
+}
@@ -0,0 +1,104 @@
+package weatheraggregation.benchmark.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import weatheraggregation.aggregationserver.AggregationServer;
+import weatheraggregation.aggregationserver.WeatherStore;
+import weatheraggregation.core.FileHelpers;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Measure a full GET and PUT round trip through an AggregationServer running in the same process.
+ * Requests travel over loopback, so the results cover HTTP handling, parsing, locking and the weather store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandlerRoundTripJmh {
+
+    private static final int PORT = 4599;
+    private static final String CONTENT_FILENAME = "src/weatheraggregation/test/testdata/content_data_1.tst";
+    private static final String STATION_ID = "IDS00001";
+
+    @Param({ "file", "log", "mapped" })
+    public String storage;
+
+    private Path storeDirectory;
+    private AggregationServer server;
+    private HttpClient httpClient;
+    private URI serverURI;
+    private String contentString;
+
+    // Every PUT needs a newer lamport time than the last one for its station
+    private final AtomicLong lamportTime = new AtomicLong();
+
+    /**
+     * Start a server on an empty store, and commit the station once so GETs find it.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException {
+        this.storeDirectory = Files.createTempDirectory("jmh-weather");
+        WeatherStore weatherStore = WeatherStore.create(this.storage, this.storeDirectory.resolve("weather_data.txt").toString(), Map.of());
+        this.server = new AggregationServer(weatherStore, PORT, true);
+        this.server.startServer();
+
+        String ip = InetAddress.getLocalHost().toString().split("/", 2)[1];
+        this.serverURI = URI.create("http://" + ip + ":" + PORT);
+        this.httpClient = HttpClient.newHttpClient();
+        this.contentString = FileHelpers.readContentFile(CONTENT_FILENAME);
+
+        int status = this.put();
+        if (status != 201) throw new IllegalStateException("Setup PUT failed with status code: " + status);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.server.shutdownServer();
+        try (Stream<Path> paths = Files.walk(this.storeDirectory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(path);
+        }
+    }
+
+    @Benchmark
+    public int handleGET() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(this.serverURI)
+                .headers("Station-id", STATION_ID, "Lamport-time", "0")
+                .GET()
+                .build();
+        return this.httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray()).statusCode();
+    }
+
+    @Benchmark
+    public int handlePUT() throws IOException, InterruptedException {
+        return this.put();
+    }
+
+    /**
+     * PUT the content file with a newer lamport time than any before it.
+     * @return The status code of the response.
+     */
+    private int put() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(this.serverURI)
+                .headers("Content-type", "text/plain", "Lamport-time", Long.toString(this.lamportTime.incrementAndGet()))
+                .PUT(HttpRequest.BodyPublishers.ofString(this.contentString))
+                .build();
+        return this.httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
@@ -0,0 +1,31 @@
+package weatheraggregation.benchmark.jmh;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the JMH benchmark suite, writing the results as JSON so runs can be compared.
+ * Must be run from the project root.
+ * Usage: java JmhRunner <results_filename>? <benchmark_regex>?
+ */
+public class JmhRunner {
+
+    public static final String DEFAULT_RESULTS_FILENAME = "jmh-results.json";
+
+    public static void main(String[] args) throws RunnerException {
+        String resultsFilename = (args.length > 0) ? args[0] : DEFAULT_RESULTS_FILENAME;
+        String include = (args.length > 1) ? args[1] : JmhRunner.class.getPackageName() + ".*";
+
+        Options options = new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultsFilename)
+                .build();
+        new Runner(options).run();
+
+        System.out.println("Results written to " + resultsFilename);
+    }
+}
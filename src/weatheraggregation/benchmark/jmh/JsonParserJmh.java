@@ -0,0 +1,46 @@
+package weatheraggregation.benchmark.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import weatheraggregation.core.FileHelpers;
+import weatheraggregation.jsonparser.CustomJsonParser;
+import weatheraggregation.jsonparser.CustomParseException;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure CustomJsonParser in both directions, on the payloads ContentServers send.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonParserJmh {
+
+    private static final String TESTDATA_DIRECTORY = "src/weatheraggregation/test/testdata/";
+
+    @Param({ "content_data_1.tst", "content_data_mixed.tst" })
+    public String contentFile;
+
+    private String jsonString;
+    private Map<String, String> jsonObject;
+
+    @Setup
+    public void setup() throws IOException, CustomParseException {
+        this.jsonString = FileHelpers.readContentFile(TESTDATA_DIRECTORY + this.contentFile);
+        this.jsonObject = CustomJsonParser.stringToJson(this.jsonString);
+    }
+
+    @Benchmark
+    public Map<String, String> stringToJson() throws CustomParseException {
+        return CustomJsonParser.stringToJson(this.jsonString);
+    }
+
+    @Benchmark
+    public String jsonToString() {
+        return CustomJsonParser.jsonToString(this.jsonObject);
+    }
+}
@@ -0,0 +1,45 @@
+package weatheraggregation.benchmark.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import weatheraggregation.core.AtomicLamportClock;
+import weatheraggregation.core.LamportClockImpl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure a single lamport clock shared by many threads, as concurrent request handlers share one.
+ * LamportClockImpl is not thread-safe, so its result shows the cost of contention alone;
+ * AtomicLamportClock is measured alongside as the server's correct equivalent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class LamportClockJmh {
+
+    private final LamportClockImpl lamportClockImpl = new LamportClockImpl();
+    private final AtomicLamportClock atomicLamportClock = new AtomicLamportClock();
+
+    /**
+     * Each thread merges times from its own stale copy of the clock, like a client's request would carry.
+     */
+    @State(Scope.Thread)
+    public static class ThreadTime {
+        public long lastTime = 0;
+    }
+
+    @Benchmark
+    public long lamportClockImpl(ThreadTime threadTime) {
+        threadTime.lastTime = this.lamportClockImpl.processEvent(threadTime.lastTime - 1);
+        return threadTime.lastTime;
+    }
+
+    @Benchmark
+    public long atomicLamportClock(ThreadTime threadTime) {
+        threadTime.lastTime = this.atomicLamportClock.processEvent(threadTime.lastTime - 1);
+        return threadTime.lastTime;
+    }
+}
@@ -0,0 +1,93 @@
+package weatheraggregation.benchmark.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import weatheraggregation.core.FileHelpers;
+import weatheraggregation.jsonparser.CustomParseException;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the weather file operations behind a FileWeatherStore, as the number of stations grows.
+ * Every operation rewrites or scans the whole file, so each is expected to grow linearly.
+ * Must be run from the project root, since the benchmark weather file is given relative to it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WeatherFileJmh {
+
+    private static final String WEATHER_FILENAME = "src/weatheraggregation/benchmark/jmh/jmh_weather_data.txt";
+    private static final String JSON_STRING = "{\"id\": \"%s\", \"air_temp\": 13.3, \"wind_spd_kmh\": 15}";
+
+    // Every entry shares this real time, so an expunge at the same time keeps them all
+    private static final int REAL_TIME = 1_700_000_000;
+
+    @Param({ "10", "1000", "100000" })
+    public int stations;
+
+    private long nextLamportTime;
+    private int nextStation;
+
+    /**
+     * Write a weather file with one entry per station, each with its own lamport time.
+     * @throws IOException The file may fail to be written.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(WEATHER_FILENAME), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < this.stations; i++) {
+                String stationId = stationId(i);
+                writer.write(stationId + FileHelpers.ITEM_DELIMITER + REAL_TIME + FileHelpers.ITEM_DELIMITER + (i + 1)
+                        + FileHelpers.ITEM_DELIMITER + String.format(JSON_STRING, stationId));
+                writer.newLine();
+            }
+        }
+        this.nextLamportTime = this.stations + 1;
+        this.nextStation = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(Path.of(WEATHER_FILENAME));
+    }
+
+    /**
+     * Replace one station's entry, cycling through the stations so the file keeps its size.
+     */
+    @Benchmark
+    public boolean writeAndSwapWeatherFile() throws IOException {
+        String stationId = stationId(this.nextStation);
+        this.nextStation = (this.nextStation + 1) % this.stations;
+        return FileHelpers.writeAndSwapWeatherFile(WEATHER_FILENAME, stationId, REAL_TIME,
+                this.nextLamportTime++, String.format(JSON_STRING, stationId));
+    }
+
+    /**
+     * Search for a station that is never first in the file, so the scan covers most of it.
+     */
+    @Benchmark
+    public String readWeatherFile() throws IOException, CustomParseException {
+        return FileHelpers.readWeatherFile(WEATHER_FILENAME, stationId(this.stations / 2));
+    }
+
+    /**
+     * Expunge with nothing outdated, the common case, which still reads and rewrites the whole file.
+     */
+    @Benchmark
+    public void expungeAndSwapWeatherFile() throws IOException {
+        FileHelpers.expungeAndSwapWeatherFile(WEATHER_FILENAME, REAL_TIME);
+    }
+
+    private static String stationId(int station) {
+        return "IDS" + station;
+    }
+}
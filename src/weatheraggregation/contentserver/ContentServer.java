@@ -1,32 +1,77 @@
 package weatheraggregation.contentserver;
 
 import weatheraggregation.core.AggregationClient;
+import weatheraggregation.core.AtomicLamportClock;
 import weatheraggregation.core.ConversionHelpers;
+import weatheraggregation.core.EncodingHelpers;
 import weatheraggregation.core.FileHelpers;
-import weatheraggregation.core.LamportClockImpl;
+import weatheraggregation.core.HashRing;
+import weatheraggregation.core.Log;
+import weatheraggregation.jsonparser.CustomJsonParser;
+import weatheraggregation.jsonparser.CustomParseException;
 
 import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * A client that can publish weather data to an AggregationServer.
  * Weather data is published on a regular schedule.
+ * Given several content files, every station is published in one batch request.
+ * Given a ring of sharded servers, each station is published to the server that owns it.
  */
 public class ContentServer extends AggregationClient {
     // The filename containing the content data to copy
     public final String contentFilename;
 
+    // Every content filename, one per station
+    public final List<String> contentFilenames;
+
+    // Whether the server has advertised that it accepts gzip bodies
+    private volatile boolean compressBodies = false;
+
     public ContentServer(String serverHostname, String contentFilename) {
+        this(serverHostname, List.of(contentFilename));
+    }
+
+    public ContentServer(String serverHostname, List<String> contentFilenames) {
         this.serverHostname = serverHostname;
-        this.contentFilename = contentFilename;
+        this.contentFilename = contentFilenames.getFirst();
+        this.contentFilenames = contentFilenames;
 
         this.serverURI = URI.create("http://" + ConversionHelpers.canonicalHostnameToHostname(this.serverHostname));
         this.httpClient = HttpClient.newHttpClient();
 
-        this.lamportClock = new LamportClockImpl();
+        this.lamportClock = new AtomicLamportClock();
+    }
+
+    /**
+     * Create a ContentServer for each server on a ring that owns any of the stations, publishing only those stations.
+     * @param ring The ring of sharded servers.
+     * @param contentFilenames Every content filename, one per station.
+     * @return The ContentServers, one per owning server.
+     * @throws IOException A content file may not exist.
+     * @throws CustomParseException A content file may not be valid.
+     */
+    public static List<ContentServer> forRing(HashRing ring, List<String> contentFilenames) throws IOException, CustomParseException {
+        // Group the content files by the server that owns their station
+        Map<String, List<String>> filenamesByOwner = new LinkedHashMap<>();
+        for (String filename : contentFilenames) {
+            String stationId = CustomJsonParser.stringToJson(FileHelpers.readContentFile(filename)).get("id");
+            if (stationId == null) throw new CustomParseException("Content file " + filename + " has no station ID");
+            filenamesByOwner.computeIfAbsent(ring.getOwner(stationId), owner -> new ArrayList<>()).add(filename);
+        }
+
+        List<ContentServer> contentServers = new ArrayList<>();
+        filenamesByOwner.forEach((owner, filenames) -> contentServers.add(new ContentServer(owner, filenames)));
+        return contentServers;
     }
 
     /**
@@ -35,37 +80,89 @@ public class ContentServer extends AggregationClient {
      */
     @Override
     public HttpRequest createRequest() {
+        if (this.contentFilenames.size() > 1) return this.createBatchRequest();
+
         try {
             // Convert file to JSON string
             String jsonString = FileHelpers.readContentFile(this.contentFilename);
 
             // Create request
-            return HttpRequest.newBuilder()
+            HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
                     .uri(this.serverURI)
-                    .PUT(HttpRequest.BodyPublishers.ofString(jsonString))
                     .headers(
                             "User-agent", "ATOMClient/1/0",
                             "Content-type", "text/plain",
-                            "Lamport-time", Integer.toString(this.lamportClock.getLamportTime())
-                    )
-                    .build();
+                            "Lamport-time", Long.toString(this.lamportClock.getLamportTime())
+                    );
+            return this.withBody(requestBuilder, jsonString).build();
+
+        } catch (IOException e) {
+            Log.error("Failed to create PUT request: " + e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Create an HTTP request to PUT every content file's weather data on the server at once.
+     * Each file becomes one line of newline-delimited JSON.
+     * @return The created HTTP request.
+     */
+    public HttpRequest createBatchRequest() {
+        try {
+            // Convert each file to a JSON line
+            StringBuilder jsonLines = new StringBuilder();
+            for (String filename : this.contentFilenames) {
+                jsonLines.append(FileHelpers.readContentFile(filename)).append('\n');
+            }
+
+            // Create request
+            HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                    .uri(this.serverURI.resolve("/batch"))
+                    .headers(
+                            "User-agent", "ATOMClient/1/0",
+                            "Content-type", "application/x-ndjson",
+                            "Lamport-time", Long.toString(this.lamportClock.getLamportTime())
+                    );
+            return this.withBody(requestBuilder, jsonLines.toString()).build();
 
         } catch (IOException e) {
-            System.err.println("Failed to create PUT request: " + e.getMessage());
+            Log.error("Failed to create batch PUT request: " + e.getMessage());
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Attach a PUT body to a request, gzipping it once the server has advertised support.
+     * Bodies below the compression threshold are always sent as-is.
+     * @param requestBuilder The builder of the request.
+     * @param body The uncompressed body.
+     * @return The builder, with its body attached.
+     */
+    private HttpRequest.Builder withBody(HttpRequest.Builder requestBuilder, String body) {
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        if (this.compressBodies && bodyBytes.length >= EncodingHelpers.COMPRESSION_THRESHOLD_BYTES) {
+            bodyBytes = EncodingHelpers.encode(bodyBytes, EncodingHelpers.GZIP);
+            requestBuilder.header("Content-Encoding", EncodingHelpers.GZIP);
+        }
+        return requestBuilder.PUT(HttpRequest.BodyPublishers.ofByteArray(bodyBytes));
+    }
+
     /**
      * Process an HTTP response to PUT weather data on the server.
+     * Batch responses also list the status of each station.
      * @param response The HTTP response to process.
      */
     @Override
     public void processResponse(HttpResponse<String> response) {
-        int eventTime = Integer.parseInt(response.headers().firstValue("Lamport-time").orElse("0"));
+        long eventTime = Long.parseLong(response.headers().firstValue("Lamport-time").orElse("0"));
         this.lamportClock.processEvent(eventTime);
 
-        System.out.println("Received response with status code: " + response.statusCode());
+        // Compress later bodies if the server accepts gzip
+        String acceptEncoding = response.headers().firstValue("Accept-Encoding").orElse("");
+        this.compressBodies = acceptEncoding.contains(EncodingHelpers.GZIP);
+
+        Log.info("Received response with status code: " + response.statusCode());
+        if (!response.body().isEmpty()) Log.info(response.body().stripTrailing());
     }
 
     /**
@@ -73,15 +170,34 @@ public class ContentServer extends AggregationClient {
      * @param args Command-line arguments.
      */
     public static void main(String[] args) {
-        if (args.length == 0) {
-            System.err.println("Usage: java ContentServer <hostname> <content_filename>");
+        List<String> arguments = ConversionHelpers.argsToPositionals(args);
+        Map<String, String> options = ConversionHelpers.argsToOptions(args);
+
+        if (options.containsKey("ring")) {
+            if (arguments.isEmpty()) {
+                Log.error("Usage: java ContentServer --ring=<ring_filename> <content_filename>... --rate=<requests_per_second>? --max-in-flight=<count>? --timeout=<seconds>? --backoff? --max-retries=<count>?");
+                return;
+            }
+
+            // Publish each station to the server that owns it
+            try {
+                HashRing ring = HashRing.fromFile(options.get("ring"));
+                for (ContentServer contentServer : forRing(ring, arguments)) contentServer.startFromOptions(options);
+            } catch (IOException | IllegalArgumentException | CustomParseException e) {
+                Log.error("Failed to route content to the ring: " + e.getMessage());
+            }
+            return;
+        }
+
+        if (arguments.size() < 2) {
+            Log.error("Usage: java ContentServer <hostname> <content_filename>... --rate=<requests_per_second>? --max-in-flight=<count>? --timeout=<seconds>? --backoff? --max-retries=<count>?");
             return;
         }
 
-        String hostname = args[0];
-        String contentFilename = args[1];
+        String hostname = arguments.get(0);
+        List<String> contentFilenames = arguments.subList(1, arguments.size());
 
-        ContentServer contentServer = new ContentServer(hostname, contentFilename);
-        contentServer.startClient();
+        ContentServer contentServer = new ContentServer(hostname, contentFilenames);
+        contentServer.startFromOptions(options);
     }
 }
@@ -1,14 +1,21 @@
 package weatheraggregation.core;
 
 import java.io.IOException;
-import java.net.ConnectException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 public abstract class AggregationClient {
     public String serverHostname;
@@ -20,51 +27,284 @@ public abstract class AggregationClient {
     // Attempts to send a message
     private int attempts = 0;
 
+    // Decides when to retry a failed request, and whether to send at all
+    private volatile RetryPolicy retryPolicy = new FixedRetryPolicy();
+    // How long the server asked us to wait after the last request, from its Retry-After header (or -1)
+    private long retryAfterMillis = -1;
+
     // Message sending parameters
     public static final int MAX_RETRIES = 3;
     public static final int SLEEP_SECONDS = 2;
 
+    // Pipelined sending parameters
+    public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+    public static final int DEFAULT_TIMEOUT_SECONDS = SLEEP_SECONDS;
+
+    // The permits for requests in flight, in pipelined mode
+    private Semaphore inFlight;
+    private int maxInFlight;
+    private final LongAdder skippedTicks = new LongAdder();
+
+    // Responses that completed ahead of an earlier request, by sequence number (empty if the request failed)
+    private final Object pipelineLock = new Object();
+    private final Map<Long, Optional<HttpResponse<String>>> completed = new HashMap<>();
+    private long nextSequence = 0;
+    private long nextToProcess = 0;
+    private long failingSinceNanos = -1;
+    private int pipelinedFailures = 0;
+    private volatile long pausedUntilNanos = 0;
+
     /**
      * Start the client, sending requests on a regular schedule.
      * Requests are sent every SLEEP_SECONDS seconds.
-     * If a request fails, we retry at most MAX_RETRIES times.
+     * If a request fails, the retry policy decides when to retry, and when to give up and shut down the client.
+     * By default we retry every SLEEP_SECONDS seconds, at most MAX_RETRIES times.
      */
     public final void startClient() {
+        this.attempts = 0;
         this.scheduler = Executors.newScheduledThreadPool(1);
-        this.scheduler.scheduleAtFixedRate(() -> {
-            System.out.println("Sending request to " + this.serverURI + "...");
-            try {
-                // Try to connect
-                if (sendRequestWithRetry()) {
-                    this.attempts = 0;
+        this.scheduler.schedule(this::sendScheduled, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send one scheduled request, then schedule the next one.
+     * The next request is due SLEEP_SECONDS seconds after this one started, or after the retry policy's delay if this
+     * one failed. If the retry policy refuses the request, such as while a circuit is open, the tick is skipped.
+     */
+    private void sendScheduled() {
+        long startNanos = System.nanoTime();
+        long delayMillis = SLEEP_SECONDS * 1000L;
+        long retryAfterNanos = 0;
+        if (!this.retryPolicy.allowRequest(this.serverHostname)) {
+            Log.debug("Skipping request to " + this.serverURI + " while its circuit is open.");
+        } else {
+            Log.debug("Sending request to " + this.serverURI + "...");
+            if (sendRequestWithRetry()) {
+                this.attempts = 0;
+                this.retryPolicy.recordSuccess(this.serverHostname);
+            } else {
+                this.attempts++;
+                delayMillis = this.retryPolicy.recordFailure(this.serverHostname, this.attempts, this.retryAfterMillis);
+                retryAfterNanos = TimeUnit.MILLISECONDS.toNanos(this.retryAfterMillis);
+                if (delayMillis == RetryPolicy.GIVE_UP) {
+                    // If we failed to connect, shut down the client
+                    Log.error("Could not connect to server.");
+                    this.shutdownClient();
+                    return;
+                }
+            }
+        }
+
+        // Count the delay from the start of this request, so requests keep a fixed rate,
+        // but count a Retry-After from when the server sent it
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis) - (System.nanoTime() - startNanos);
+        remainingNanos = Math.max(remainingNanos, retryAfterNanos);
+        try {
+            this.scheduler.schedule(this::sendScheduled, Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // The client was shut down during the request
+        }
+    }
+
+    /**
+     * Set the retry policy, which decides when to retry failed requests and whether to send at all.
+     * A policy may be shared by several clients, since it keeps its state per server.
+     * @param retryPolicy The retry policy.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Get the retry policy.
+     * @return The retry policy.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return this.retryPolicy;
+    }
+
+    /**
+     * Start the client in pipelined mode, sending requests without waiting for earlier responses.
+     * Each tick sends a request asynchronously, unless maxInFlight requests are already in flight, in which case the tick
+     * is skipped rather than queued, so a stalled server never delays later ticks or piles up requests.
+     * Every request is a Lamport send event, and responses are processed in the order their requests were sent,
+     * whatever order they complete in. Everything runs on the scheduler thread and the HTTP client's own threads.
+     * <p>
+     * Requests always go to the client's own server. Each outcome is reported to the retry policy, and after a failure
+     * the pipeline pauses for the policy's delay, or skips ticks while the policy refuses requests. If requests fail
+     * for MAX_RETRIES * SLEEP_SECONDS seconds, the client shuts down, like a client that has run out of retries.
+     * @param periodMillis The time between requests, in milliseconds.
+     * @param maxInFlight The most requests to have in flight at once.
+     * @param requestTimeout How long to wait for each response before failing the request.
+     */
+    public final void startPipelinedClient(long periodMillis, int maxInFlight, Duration requestTimeout) {
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.scheduler = Executors.newScheduledThreadPool(1);
+        this.scheduler.scheduleAtFixedRate(() -> this.sendPipelined(requestTimeout), 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start the client in the mode chosen by command-line options.
+     * Given "--rate=<requests_per_second>", the client is pipelined, optionally with "--max-in-flight=<count>"
+     * and "--timeout=<seconds>". Otherwise it sends a request every SLEEP_SECONDS seconds.
+     * The retry policy is also chosen by the options, as described by RetryPolicy.fromOptions.
+     * @param options The command-line options.
+     */
+    public final void startFromOptions(Map<String, String> options) {
+        this.setRetryPolicy(RetryPolicy.fromOptions(options));
+        if (!options.containsKey("rate")) {
+            this.startClient();
+            return;
+        }
+
+        double rate = Double.parseDouble(options.get("rate"));
+        int maxInFlight = Integer.parseInt(options.getOrDefault("max-in-flight", String.valueOf(DEFAULT_MAX_IN_FLIGHT)));
+        double timeoutSeconds = Double.parseDouble(options.getOrDefault("timeout", String.valueOf(DEFAULT_TIMEOUT_SECONDS)));
+        this.startPipelinedClient(Math.max(1, (long) (1000 / rate)), maxInFlight, Duration.ofMillis((long) (timeoutSeconds * 1000)));
+    }
+
+    /**
+     * Send one pipelined request, if there is room in the pipeline.
+     * @param requestTimeout How long to wait for the response.
+     */
+    private void sendPipelined(Duration requestTimeout) {
+        if (System.nanoTime() - this.pausedUntilNanos < 0) return;
+        if (!this.inFlight.tryAcquire()) {
+            this.skippedTicks.increment();
+            return;
+        }
+        if (!this.retryPolicy.allowRequest(this.serverHostname)) {
+            this.inFlight.release();
+            return;
+        }
+
+        HttpRequest request;
+        try {
+            // Each pipelined request is its own send event, so concurrent requests carry increasing Lamport times
+            this.lamportClock.processEvent();
+            request = HttpRequest.newBuilder(this.createRequest(), (name, value) -> true).timeout(requestTimeout).build();
+        } catch (RuntimeException e) {
+            this.inFlight.release();
+            Log.error("Failed to create request: " + e.getMessage());
+            return;
+        }
+
+        Log.debug("Sending request to " + this.serverURI + "...");
+        long sequence = this.nextSequence++;
+        this.sendRequestAsync(request).whenComplete((response, e) -> {
+            this.inFlight.release();
+            this.completePipelined(sequence, Optional.ofNullable((e == null) ? response : null));
+        });
+    }
+
+    /**
+     * Record a pipelined request's outcome, then process every outcome that is next in send order.
+     * @param sequence The sequence number of the request.
+     * @param response The response, or empty if the request failed or timed out.
+     */
+    private void completePipelined(long sequence, Optional<HttpResponse<String>> response) {
+        synchronized (this.pipelineLock) {
+            this.completed.put(sequence, response);
+
+            Optional<HttpResponse<String>> next;
+            while ((next = this.completed.remove(this.nextToProcess)) != null) {
+                this.nextToProcess++;
+                if (next.isPresent()) {
+                    this.processResponse(next.get());
+                }
+                if (next.isPresent() && !RetryPolicy.isRefusal(next.get())) {
+                    this.failingSinceNanos = -1;
+                    this.pipelinedFailures = 0;
+                    this.retryPolicy.recordSuccess(this.serverHostname);
                 } else {
-                    this.attempts++;
-                    if (attempts == MAX_RETRIES) throw new ConnectException("Could not connect to server.");
+                    this.recordPipelinedFailure(next.map(AggregationClient::getRetryAfterMillis).orElse(-1L));
                 }
-            } catch (ConnectException e) {
-                // If we failed to connect, shut down the client
-                System.err.println("Could not connect to server.");
-                this.shutdownClient();
             }
-        }, 0, SLEEP_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Record a failed pipelined request, pausing the pipeline for the retry policy's delay, and shutting the client down
+     * once requests have failed for too long.
+     * @param retryAfterMillis How long the server asked us to wait, or -1.
+     */
+    private void recordPipelinedFailure(long retryAfterMillis) {
+        long now = System.nanoTime();
+        long delayMillis = this.retryPolicy.recordFailure(this.serverHostname, ++this.pipelinedFailures, retryAfterMillis);
+
+        // Giving up is decided by time rather than by the policy, since many requests fail together when pipelined
+        if (delayMillis == RetryPolicy.GIVE_UP) delayMillis = SLEEP_SECONDS * 1000L;
+        this.pausedUntilNanos = now + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+
+        if (this.failingSinceNanos < 0) {
+            this.failingSinceNanos = now;
+            Log.warn("Request failed. Retrying...");
+        } else if (now - this.failingSinceNanos >= TimeUnit.SECONDS.toNanos((long) MAX_RETRIES * SLEEP_SECONDS)) {
+            Log.error("Could not connect to server.");
+            this.failingSinceNanos = -1;
+            this.shutdownClient();
+        }
+    }
+
+    /**
+     * Get the number of pipelined requests currently in flight.
+     * @return The number of requests in flight, or 0 if the client isn't pipelined.
+     */
+    public int getInFlight() {
+        return (this.inFlight == null) ? 0 : this.maxInFlight - this.inFlight.availablePermits();
     }
 
     /**
-     * Try to send a request. If this fails, print a message.
-     * @return Whether the request was successfully sent.
+     * Get the number of pipelined ticks skipped because the pipeline was full.
+     * @return The number of skipped ticks.
+     */
+    public long getSkippedTicks() {
+        return this.skippedTicks.sum();
+    }
+
+    /**
+     * Try to send a request. If this fails, or the server refuses it, print a message.
+     * @return Whether the request was successfully sent and accepted.
      */
     public final boolean sendRequestWithRetry() {
+        this.retryAfterMillis = -1;
         try {
-            HttpRequest request = this.createRequest();
-            HttpResponse<String> response = this.sendRequest(request);
-            processResponse(response);
+            HttpResponse<String> response = this.sendAndProcess();
+            if (RetryPolicy.isRefusal(response)) {
+                this.retryAfterMillis = getRetryAfterMillis(response);
+                Log.warn("Request refused with status " + response.statusCode() + ". Retrying...");
+                return false;
+            }
             return true;
         } catch (IOException | InterruptedException e) {
-            System.err.println("Request failed. Retrying...");
+            Log.warn("Request failed. Retrying...");
             return false;
         }
     }
 
+    /**
+     * Get how long a response asks clients to wait before retrying.
+     * @param response The response.
+     * @return The Retry-After delay, in milliseconds, or -1 if the response has none.
+     */
+    private static long getRetryAfterMillis(HttpResponse<String> response) {
+        return RetryPolicy.parseRetryAfter(response.headers().firstValue("Retry-After").orElse(null));
+    }
+
+    /**
+     * Create, send and process one request. Clients that spread a request over several servers override this.
+     * @return The processed response.
+     * @throws IOException The request can raise an IO exception.
+     * @throws InterruptedException The request can be interrupted.
+     */
+    protected HttpResponse<String> sendAndProcess() throws IOException, InterruptedException {
+        HttpRequest request = this.createRequest();
+        HttpResponse<String> response = this.sendRequest(request);
+        processResponse(response);
+        return response;
+    }
+
     /**
      * Create an HTTP request. Implemented based on the clients' needs.
      * @return The created HTTP request.
@@ -72,14 +312,23 @@ public abstract class AggregationClient {
     public abstract HttpRequest createRequest();
 
     /**
-     * Send an HTTP request.
+     * Send an HTTP request. Compressed response bodies are decoded before they are returned.
      * @param request The HTTP request to send.
      * @return The response from the HTTP request.
      * @throws IOException The request can raise an IO exception.
      * @throws InterruptedException The request can be interrupted.
      */
     public final HttpResponse<String> sendRequest(HttpRequest request) throws IOException, InterruptedException {
-        return this.httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        return this.httpClient.send(request, EncodingHelpers.decodingBodyHandler());
+    }
+
+    /**
+     * Send an HTTP request without blocking. Compressed response bodies are decoded before the response completes.
+     * @param request The HTTP request to send.
+     * @return The pending response from the HTTP request.
+     */
+    public final CompletableFuture<HttpResponse<String>> sendRequestAsync(HttpRequest request) {
+        return this.httpClient.sendAsync(request, EncodingHelpers.decodingBodyHandler());
     }
 
     /**
@@ -95,6 +344,6 @@ public abstract class AggregationClient {
         if (this.scheduler != null && !this.scheduler.isShutdown()) {
             this.scheduler.shutdownNow();
         }
-        System.out.println("Client has been shut down.");
+        Log.info("Client has been shut down.");
     }
 }
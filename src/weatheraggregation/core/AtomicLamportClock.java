@@ -0,0 +1,44 @@
+package weatheraggregation.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free lamport clock, safe to share between concurrent request handlers.
+ * Every event is a single compare-and-set, so no update is lost and no two events share a time.
+ */
+public class AtomicLamportClock implements LamportClock {
+
+    private final AtomicLong lamportTime;
+
+    public AtomicLamportClock() {
+        this.lamportTime = new AtomicLong(0);
+    }
+
+    /**
+     * Process an internal event.
+     * @return The lamport time after the event.
+     */
+    @Override
+    public long processEvent() {
+        return this.lamportTime.incrementAndGet();
+    }
+
+    /**
+     * Process an external event, merging its time into the clock.
+     * @param otherTime The lamport time from the external event.
+     * @return The lamport time after the event.
+     */
+    @Override
+    public long processEvent(long otherTime) {
+        return this.lamportTime.updateAndGet(currentTime -> Math.max(currentTime, otherTime) + 1);
+    }
+
+    /**
+     * Return the current lamport time.
+     * @return The current lamport time.
+     */
+    @Override
+    public long getLamportTime() {
+        return this.lamportTime.get();
+    }
+}
@@ -0,0 +1,84 @@
+package weatheraggregation.core;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A retry policy with exponential backoff, full jitter and a circuit breaker for each endpoint.
+ * After each failure the client waits a random time between zero and an exponentially growing cap, so clients that
+ * lost the same server spread their reconnects out instead of returning in lockstep when it restarts.
+ * A Retry-After header from the endpoint is treated as the shortest wait.
+ */
+public class BackoffRetryPolicy implements RetryPolicy {
+
+    public static final long DEFAULT_BASE_MILLIS = 500;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 30000;
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 10000;
+
+    // The cap on the first retry's delay, doubled by each later failure
+    public final long baseMillis;
+    // The cap on any retry's delay
+    public final long maxDelayMillis;
+    // The failures in a row before giving up, or 0 to retry forever
+    public final int maxRetries;
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public BackoffRetryPolicy() {
+        this(DEFAULT_BASE_MILLIS, DEFAULT_MAX_DELAY_MILLIS, 0);
+    }
+
+    public BackoffRetryPolicy(long baseMillis, long maxDelayMillis, int maxRetries) {
+        this(baseMillis, maxDelayMillis, maxRetries, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    public BackoffRetryPolicy(long baseMillis, long maxDelayMillis, int maxRetries, int failureThreshold, long openMillis) {
+        this.baseMillis = baseMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxRetries = maxRetries;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Get the circuit breaker for an endpoint, creating a closed one on first use.
+     * @param endpoint The hostname of the endpoint.
+     * @return The endpoint's circuit breaker.
+     */
+    public CircuitBreaker getBreaker(String endpoint) {
+        return this.breakers.computeIfAbsent(endpoint, key -> new CircuitBreaker(this.failureThreshold, this.openMillis));
+    }
+
+    @Override
+    public boolean allowRequest(String endpoint) {
+        return this.getBreaker(endpoint).allowRequest();
+    }
+
+    @Override
+    public void recordSuccess(String endpoint) {
+        this.getBreaker(endpoint).recordSuccess();
+    }
+
+    /**
+     * Wait a random time up to min(maxDelayMillis, baseMillis * 2^(failures - 1)), or the Retry-After if it is later.
+     * @param endpoint The hostname of the endpoint.
+     * @param consecutiveFailures The number of requests in a row that have failed, including this one.
+     * @param retryAfterMillis How long the endpoint asked clients to wait, or -1.
+     * @return The delay before the next attempt, in milliseconds, or GIVE_UP after maxRetries failures.
+     */
+    @Override
+    public long recordFailure(String endpoint, int consecutiveFailures, long retryAfterMillis) {
+        this.getBreaker(endpoint).recordFailure();
+        if (this.maxRetries > 0 && consecutiveFailures >= this.maxRetries) return GIVE_UP;
+
+        // Full jitter: anywhere from zero up to the exponential cap
+        int doublings = Math.min(Math.max(consecutiveFailures - 1, 0), 30);
+        long capMillis = Math.min(this.maxDelayMillis, this.baseMillis << doublings);
+        long delayMillis = ThreadLocalRandom.current().nextLong(capMillis + 1);
+        return Math.max(delayMillis, retryAfterMillis);
+    }
+}
@@ -0,0 +1,84 @@
+package weatheraggregation.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A circuit breaker for one endpoint.
+ * While closed, every request is allowed. After enough failures in a row the circuit opens, and requests are refused
+ * without being sent. Once it has been open for a while it becomes half-open, and lets a single probe through:
+ * if the probe succeeds the circuit closes, and if it fails the circuit opens again.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The states of a circuit.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    // The failures in a row that open the circuit
+    public final int failureThreshold;
+    // How long the circuit stays open before letting a probe through
+    public final long openMillis;
+
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openedAtNanos = 0;
+    private long probeStartedNanos = 0;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Check whether a request may be sent. A half-open circuit lets one probe through at a time.
+     * @return Whether to send the request.
+     */
+    public synchronized boolean allowRequest() {
+        long now = System.nanoTime();
+        long openNanos = TimeUnit.MILLISECONDS.toNanos(this.openMillis);
+        switch (this.state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (now - this.openedAtNanos < openNanos) return false;
+                this.state = State.HALF_OPEN;
+                this.probeStartedNanos = now;
+                return true;
+            default:
+                // Let another probe through if the last one never reported back
+                if (now - this.probeStartedNanos < openNanos) return false;
+                this.probeStartedNanos = now;
+                return true;
+        }
+    }
+
+    /**
+     * Record a successful request, closing the circuit.
+     */
+    public synchronized void recordSuccess() {
+        this.state = State.CLOSED;
+        this.failures = 0;
+    }
+
+    /**
+     * Record a failed request, opening the circuit if it was probing or has failed too often.
+     */
+    public synchronized void recordFailure() {
+        this.failures++;
+        if (this.state == State.HALF_OPEN || this.failures >= this.failureThreshold) {
+            this.state = State.OPEN;
+            this.openedAtNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Get the state of the circuit.
+     * @return The state.
+     */
+    public synchronized State getState() {
+        return this.state;
+    }
+}
@@ -2,7 +2,12 @@ package weatheraggregation.core;
 
 import com.sun.net.httpserver.Headers;
 
-import java.io.*;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
 import java.util.*;
 
 public class ConversionHelpers {
@@ -22,31 +27,58 @@ public class ConversionHelpers {
     }
 
     /**
-     * Convert an InputStream object to a String of its contents.
-     * @param inputStream The InputStream object.
-     * @return The returned String of its contents.
-     * @throws IOException The InputStream might throw an exception.
+     * Convert a Headers object to a map of headers.
+     * @param canonicalHostname The raw hostname string.
+     * @return The hostname without a protocol.
+     */
+    public static String canonicalHostnameToHostname(String canonicalHostname) {   // Extract headers
+        return canonicalHostname.replaceFirst("^https?://", "");
+    }
+
+    /**
+     * Extract the positional arguments from command-line arguments, skipping any options.
+     * @param args The command-line arguments.
+     * @return The positional arguments, in order.
      */
-    public static String inputStreamToString(InputStream inputStream) throws IOException {
-        StringBuilder stringBuilder = new StringBuilder();
-        String line;
-
-        // Read stream into string
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(inputStream))) {
-            while ((line = br.readLine()) != null) {
-                stringBuilder.append(line).append('\n');
-            }
+    public static List<String> argsToPositionals(String[] args) {
+        List<String> positionals = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) positionals.add(arg);
         }
+        return positionals;
+    }
 
-        return stringBuilder.toString();
+    /**
+     * Extract the options from command-line arguments, in the form "--key=value" or "--key".
+     * @param args The command-line arguments.
+     * @return A map of option keys to values. Options without a value map to "true".
+     */
+    public static Map<String, String> argsToOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) continue;
+            String[] keyValue = arg.substring(2).split("=", 2);
+            options.put(keyValue[0], (keyValue.length == 2) ? keyValue[1] : "true");
+        }
+        return options;
     }
 
     /**
-     * Convert a Headers object to a map of headers.
-     * @param canonicalHostname The raw hostname string.
-     * @return The hostname without a protocol.
+     * Format a time as an HTTP date, such as a Last-Modified header.
+     * @param epochSeconds The time, in epoch seconds.
+     * @return The HTTP date.
      */
-    public static String canonicalHostnameToHostname(String canonicalHostname) {   // Extract headers
-        return canonicalHostname.replaceFirst("^https?://", "");
+    public static String epochSecondsToHttpDate(long epochSeconds) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochSecond(epochSeconds).atZone(ZoneOffset.UTC));
+    }
+
+    /**
+     * Parse an HTTP date, such as a Last-Modified header.
+     * @param httpDate The HTTP date.
+     * @return The time, in epoch seconds.
+     * @throws DateTimeParseException The date may not be valid.
+     */
+    public static long httpDateToEpochSeconds(String httpDate) throws DateTimeParseException {
+        return ZonedDateTime.parse(httpDate, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
     }
 }
@@ -0,0 +1,129 @@
+package weatheraggregation.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+public class EncodingHelpers {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    // Every content encoding we can send and receive, as an Accept-Encoding header
+    public static final String SUPPORTED_ENCODINGS = GZIP + ", " + DEFLATE;
+
+    // Bodies smaller than this gain little from compression, so they are sent as-is
+    public static final int COMPRESSION_THRESHOLD_BYTES = 256;
+
+    /**
+     * Pick the content encoding to compress a body with, from an Accept-Encoding header.
+     * Gzip is preferred over deflate, and encodings with a quality of zero are refused.
+     * @param acceptEncoding The Accept-Encoding header (optionally null).
+     * @param bodyLength The length of the uncompressed body.
+     * @return The content encoding to use, or null if the body should be sent as-is.
+     */
+    public static String negotiateEncoding(String acceptEncoding, int bodyLength) {
+        if (acceptEncoding == null || bodyLength < COMPRESSION_THRESHOLD_BYTES) return null;
+
+        boolean acceptsDeflate = false;
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.split(";", 2);
+            String encoding = parts[0].trim().toLowerCase();
+            if (parts.length == 2 && parts[1].replace(" ", "").matches("q=0(\\.0*)?")) continue;
+
+            if (encoding.equals(GZIP) || encoding.equals("*")) return GZIP;
+            if (encoding.equals(DEFLATE)) acceptsDeflate = true;
+        }
+        return acceptsDeflate ? DEFLATE : null;
+    }
+
+    /**
+     * Check whether a Content-Encoding header names an encoding we can decode.
+     * @param contentEncoding The Content-Encoding header (optionally null).
+     * @return Whether the body can be decoded.
+     */
+    public static boolean isSupportedEncoding(String contentEncoding) {
+        return contentEncoding == null || contentEncoding.equalsIgnoreCase("identity")
+                || contentEncoding.equalsIgnoreCase(GZIP) || contentEncoding.equalsIgnoreCase(DEFLATE);
+    }
+
+    /**
+     * Compress bytes with a content encoding, streaming them through the compressor.
+     * @param bytes The uncompressed bytes.
+     * @param contentEncoding The content encoding, either "gzip" or "deflate".
+     * @return The compressed bytes.
+     * @throws IllegalArgumentException The content encoding may not be supported.
+     */
+    public static byte[] encode(byte[] bytes, String contentEncoding) throws IllegalArgumentException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(bytes.length / 2);
+        try (OutputStream outputStream = encodingStream(encoded, contentEncoding)) {
+            outputStream.write(bytes);
+        } catch (IOException e) {
+            // Writing to memory never fails
+            throw new UncheckedIOException(e);
+        }
+        return encoded.toByteArray();
+    }
+
+    /**
+     * Wrap an output stream with a compressor for a content encoding.
+     * @param outputStream The stream to write compressed bytes to.
+     * @param contentEncoding The content encoding, either "gzip" or "deflate".
+     * @return The compressing stream.
+     * @throws IOException The stream may fail to be written.
+     * @throws IllegalArgumentException The content encoding may not be supported.
+     */
+    public static OutputStream encodingStream(OutputStream outputStream, String contentEncoding) throws IOException, IllegalArgumentException {
+        return switch (contentEncoding.toLowerCase()) {
+            case GZIP -> new GZIPOutputStream(outputStream);
+            case DEFLATE -> new DeflaterOutputStream(outputStream);
+            default -> throw new IllegalArgumentException("Unknown content encoding: " + contentEncoding);
+        };
+    }
+
+    /**
+     * Wrap an input stream with a decompressor for a content encoding.
+     * @param inputStream The stream to read compressed bytes from.
+     * @param contentEncoding The Content-Encoding header (optionally null).
+     * @return The decompressing stream, or the stream itself if it is not compressed.
+     * @throws IOException The stream may not hold valid compressed data.
+     * @throws IllegalArgumentException The content encoding may not be supported.
+     */
+    public static InputStream decodingStream(InputStream inputStream, String contentEncoding) throws IOException, IllegalArgumentException {
+        if (contentEncoding == null) return inputStream;
+        return switch (contentEncoding.toLowerCase()) {
+            case "identity" -> inputStream;
+            case GZIP -> new GZIPInputStream(inputStream);
+            case DEFLATE -> new InflaterInputStream(inputStream);
+            default -> throw new IllegalArgumentException("Unknown content encoding: " + contentEncoding);
+        };
+    }
+
+    /**
+     * Create a body handler that decodes a response body by its Content-Encoding, as a UTF-8 string.
+     * The body is collected first, since blocking on a streamed body inside the handler can deadlock the client.
+     * @return The created body handler.
+     */
+    public static HttpResponse.BodyHandler<String> decodingBodyHandler() {
+        return responseInfo -> {
+            String contentEncoding = responseInfo.headers().firstValue("Content-Encoding").orElse(null);
+            return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(), bytes -> {
+                if (bytes.length == 0) return "";
+                try (InputStream decoded = decodingStream(new ByteArrayInputStream(bytes), contentEncoding)) {
+                    return new String(decoded.readAllBytes(), StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        };
+    }
+}
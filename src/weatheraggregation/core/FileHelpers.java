@@ -13,7 +13,8 @@ import java.nio.file.StandardCopyOption;
 public class FileHelpers {
 
     public static final String ITEM_DELIMITER = ":";
-    public static final String TMP_FILENAME = "src/weatheraggregation/aggregationserver/weather_data.tmp";
+    // Each weather file is rewritten through its own temporary file, so servers sharing a directory don't collide
+    public static final String TMP_SUFFIX = ".tmp";
 
     /**
      * Try to create a file with path filename.
@@ -25,7 +26,7 @@ public class FileHelpers {
             try {
                 Files.createFile(oldFilePath);
             } catch (IOException e) {
-                System.err.println("Couldn't create weather data file.");
+                Log.error("Couldn't create weather data file.");
             }
         }
     }
@@ -107,6 +108,20 @@ public class FileHelpers {
         return entries;
     }
 
+    /**
+     * Read all recent weather data from weather data file, as a list of records.
+     * @param filename The filename of the weather data file.
+     * @return A list of records contained by the file, ordered from most to least recent.
+     * @throws IOException The file may not exist.
+     */
+    public static List<WeatherRecord> readWeatherFileRecords(String filename) throws IOException {
+        List<WeatherRecord> records = new ArrayList<>();
+        for (String[] entry : readWeatherFileAll(filename)) {
+            if (entry.length == 4) records.add(WeatherRecord.fromEntry(entry));
+        }
+        return records;
+    }
+
     /**
      * Write a new entry to a weather file.
      * @param filename The path of the weather file.
@@ -118,10 +133,10 @@ public class FileHelpers {
      * @throws IOException The file may not exist.
      * @throws IllegalStateException The file may contain a newer version of the data we want to write.
      */
-    public static boolean writeAndSwapWeatherFile(String filename, String stationId, int realTime, int lamportTime, String jsonString) throws IOException, IllegalStateException {
+    public static boolean writeAndSwapWeatherFile(String filename, String stationId, int realTime, long lamportTime, String jsonString) throws IOException, IllegalStateException {
         // Clone file
         Path originalFilePath = Paths.get(filename);
-        Path tempFilePath = Paths.get(TMP_FILENAME);
+        Path tempFilePath = Paths.get(filename + TMP_SUFFIX);
         Files.copy(originalFilePath, tempFilePath, StandardCopyOption.REPLACE_EXISTING);
 
         List<String> entries = new ArrayList<>();
@@ -140,7 +155,7 @@ public class FileHelpers {
                     entries.add(entry.trim());
                 } else {
                     // Reject the new entry if it is out of date
-                    int otherTime = Integer.parseInt(entry.split(ITEM_DELIMITER, 4)[2]);
+                    long otherTime = Long.parseLong(entry.split(ITEM_DELIMITER, 4)[2]);
                     if (lamportTime <= otherTime) throw new IllegalStateException("Record is out of date");
                     replaced = true;
                 }
@@ -161,6 +176,56 @@ public class FileHelpers {
         return replaced;
     }
 
+    /**
+     * Write a batch of weather records to a weather file, replacing each station's previous entry, with one swap.
+     * The file is unchanged if any record is out of date.
+     * @param filename The path of the weather file.
+     * @param records The records to write, for distinct stations, ordered from least to most recent.
+     * @throws IOException The file may not exist.
+     * @throws IllegalStateException The file may contain a newer version of a record we want to write.
+     */
+    public static void writeAndSwapWeatherFileRecords(String filename, List<WeatherRecord> records) throws IOException, IllegalStateException {
+        // Clone file
+        Path originalFilePath = Paths.get(filename);
+        Path tempFilePath = Paths.get(filename + TMP_SUFFIX);
+        Files.copy(originalFilePath, tempFilePath, StandardCopyOption.REPLACE_EXISTING);
+
+        // New entries go first, most recent first
+        Map<String, WeatherRecord> newRecords = new HashMap<>();
+        List<String> entries = new ArrayList<>();
+        for (WeatherRecord record : records.reversed()) {
+            newRecords.put(record.stationId, record);
+            entries.add(record.toEntry().trim());
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(tempFilePath.toFile()))) {
+            String entry;
+            while ((entry = reader.readLine()) != null) {
+                if (entry.trim().isEmpty()) continue;
+
+                String[] parts = entry.split(ITEM_DELIMITER, 4);
+                WeatherRecord record = newRecords.get(parts[0]);
+
+                if (record == null) {
+                    entries.add(entry.trim());
+                } else if (record.lamportTime <= Long.parseLong(parts[2])) {
+                    // Reject the batch if any entry is out of date
+                    throw new IllegalStateException("Record is out of date");
+                }
+            }
+        }
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tempFilePath.toFile()))) {
+            for (String entry : entries) {
+                writer.write(entry);
+                writer.newLine();
+            }
+        }
+
+        // Swap files
+        Files.move(tempFilePath, originalFilePath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
     /**
      * Expunge outdated data from a weather file.
      * @param filename The path of the weather file.
@@ -171,7 +236,7 @@ public class FileHelpers {
     public static void expungeAndSwapWeatherFile(String filename, int realTime) throws IOException, IllegalStateException {
         // Clone file
         Path originalFilePath = Paths.get(filename);
-        Path tempFilePath = Paths.get(TMP_FILENAME);
+        Path tempFilePath = Paths.get(filename + TMP_SUFFIX);
         Files.copy(originalFilePath, tempFilePath, StandardCopyOption.REPLACE_EXISTING);
 
         List<String> entries = new ArrayList<>();
@@ -197,4 +262,45 @@ public class FileHelpers {
         // Swap files
         Files.move(tempFilePath, originalFilePath, StandardCopyOption.REPLACE_EXISTING);
     }
+
+    /**
+     * Remove specific records from a weather file.
+     * An entry is only removed if it still holds the same lamport time as the record.
+     * @param filename The path of the weather file.
+     * @param records The records to remove.
+     * @throws IOException The file may not exist.
+     */
+    public static void removeAndSwapWeatherFile(String filename, List<WeatherRecord> records) throws IOException {
+        Map<String, Long> removedTimes = new HashMap<>();
+        for (WeatherRecord record : records) removedTimes.put(record.stationId, record.lamportTime);
+
+        // Clone file
+        Path originalFilePath = Paths.get(filename);
+        Path tempFilePath = Paths.get(filename + TMP_SUFFIX);
+        Files.copy(originalFilePath, tempFilePath, StandardCopyOption.REPLACE_EXISTING);
+
+        List<String> entries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(tempFilePath.toFile()))) {
+            String entry;
+            while ((entry = reader.readLine()) != null) {
+                if (entry.trim().isEmpty()) continue;
+
+                String[] parts = entry.split(ITEM_DELIMITER, 4);
+                Long removedTime = removedTimes.get(parts[0]);
+                if (removedTime == null || removedTime != Long.parseLong(parts[2])) {
+                    entries.add(entry.trim());
+                }
+            }
+        }
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tempFilePath.toFile()))) {
+            for (String entry : entries) {
+                writer.write(entry);
+                writer.newLine();
+            }
+        }
+
+        // Swap files
+        Files.move(tempFilePath, originalFilePath, StandardCopyOption.REPLACE_EXISTING);
+    }
 }
@@ -0,0 +1,30 @@
+package weatheraggregation.core;
+
+/**
+ * The default retry policy: retry every SLEEP_SECONDS seconds, and give up after MAX_RETRIES failures in a row.
+ * Every endpoint is always allowed, so there is no circuit breaking.
+ */
+public class FixedRetryPolicy implements RetryPolicy {
+
+    @Override
+    public boolean allowRequest(String endpoint) {
+        return true;
+    }
+
+    @Override
+    public void recordSuccess(String endpoint) {
+    }
+
+    /**
+     * Retry after SLEEP_SECONDS seconds, or after the endpoint's Retry-After if it is later.
+     * @param endpoint The hostname of the endpoint.
+     * @param consecutiveFailures The number of requests in a row that have failed, including this one.
+     * @param retryAfterMillis How long the endpoint asked clients to wait, or -1.
+     * @return The delay before the next attempt, in milliseconds, or GIVE_UP after MAX_RETRIES failures.
+     */
+    @Override
+    public long recordFailure(String endpoint, int consecutiveFailures, long retryAfterMillis) {
+        if (consecutiveFailures >= AggregationClient.MAX_RETRIES) return GIVE_UP;
+        return Math.max(AggregationClient.SLEEP_SECONDS * 1000L, retryAfterMillis);
+    }
+}
@@ -0,0 +1,164 @@
+package weatheraggregation.core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * A consistent-hash ring, partitioning station IDs over several AggregationServers.
+ * Each server is placed on the ring at many virtual nodes, and a station is owned by the server at the first
+ * virtual node at or after the station's hash. Virtual nodes spread each server's share evenly around the ring,
+ * so when a server joins it only takes over the ranges just before its own virtual nodes, and every other
+ * station keeps its owner.
+ * <p>
+ * Rings are immutable, so clients can share one without locking.
+ */
+public final class HashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    // The ring config line setting the number of virtual nodes
+    private static final String VIRTUAL_NODES_PREFIX = "virtual-nodes=";
+
+    // The number of virtual nodes per server
+    public final int virtualNodes;
+
+    // The servers on the ring (in the form ip:port), in config order
+    private final List<String> nodes;
+
+    // The hash of each virtual node, sorted, and the server it belongs to
+    private final long[] points;
+    private final String[] owners;
+
+    public HashRing(Collection<String> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        if (virtualNodes < 1) throw new IllegalArgumentException("At least one virtual node is needed");
+        this.virtualNodes = virtualNodes;
+        this.nodes = List.copyOf(new LinkedHashSet<>(nodes));
+        if (this.nodes.isEmpty()) throw new IllegalArgumentException("At least one node is needed");
+
+        // Sort the virtual nodes by hash, keeping each one's owner alongside it
+        int size = this.nodes.size() * virtualNodes;
+        long[][] placed = new long[size][];
+        for (int node = 0; node < this.nodes.size(); node++) {
+            for (int replica = 0; replica < virtualNodes; replica++) {
+                placed[node * virtualNodes + replica] = new long[] { hash(this.nodes.get(node) + "#" + replica), node };
+            }
+        }
+        Arrays.sort(placed, (a, b) -> Long.compareUnsigned(a[0], b[0]));
+
+        this.points = new long[size];
+        this.owners = new String[size];
+        for (int i = 0; i < size; i++) {
+            this.points[i] = placed[i][0];
+            this.owners[i] = this.nodes.get((int) placed[i][1]);
+        }
+    }
+
+    /**
+     * Read a ring from a ring config file, shared by every client.
+     * Each line holds one server's hostname (in the form ip:port), blank lines and lines starting with # are ignored,
+     * and an optional "virtual-nodes=<count>" line sets the number of virtual nodes.
+     * @param filename The filename of the ring config.
+     * @return The ring.
+     * @throws IOException The file may not exist.
+     * @throws IllegalArgumentException The file may not list any servers.
+     */
+    public static HashRing fromFile(String filename) throws IOException, IllegalArgumentException {
+        List<String> nodes = new ArrayList<>();
+        int virtualNodes = DEFAULT_VIRTUAL_NODES;
+        for (String line : Files.readAllLines(Paths.get(filename), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            if (line.startsWith(VIRTUAL_NODES_PREFIX)) {
+                virtualNodes = Integer.parseInt(line.substring(VIRTUAL_NODES_PREFIX.length()).trim());
+            } else {
+                nodes.add(ConversionHelpers.canonicalHostnameToHostname(line));
+            }
+        }
+        return new HashRing(nodes, virtualNodes);
+    }
+
+    /**
+     * Get the server that owns a station.
+     * @param stationId The ID of the station.
+     * @return The hostname of the owning server.
+     */
+    public String getOwner(String stationId) {
+        long hash = hash(stationId);
+
+        // Find the first virtual node at or after the hash, wrapping around the ring
+        int low = 0;
+        int high = this.points.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Long.compareUnsigned(this.points[middle], hash) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return this.owners[(low == this.points.length) ? 0 : low];
+    }
+
+    /**
+     * Get every server on the ring.
+     * @return The hostnames of the servers, in config order.
+     */
+    public List<String> getNodes() {
+        return this.nodes;
+    }
+
+    /**
+     * Create a ring with a server added. Only stations in the ranges taken by its virtual nodes change owner.
+     * @param node The hostname of the server to add.
+     * @return The new ring.
+     */
+    public HashRing withNode(String node) {
+        List<String> nodes = new ArrayList<>(this.nodes);
+        nodes.add(node);
+        return new HashRing(nodes, this.virtualNodes);
+    }
+
+    /**
+     * Create a ring with a server removed. Only the removed server's stations change owner.
+     * @param node The hostname of the server to remove.
+     * @return The new ring.
+     */
+    public HashRing withoutNode(String node) {
+        List<String> nodes = new ArrayList<>(this.nodes);
+        nodes.remove(node);
+        return new HashRing(nodes, this.virtualNodes);
+    }
+
+    /**
+     * Hash a key onto the ring, with 64-bit FNV-1a followed by a murmur finaliser.
+     * The hash is fixed, unlike String.hashCode, so every client places keys identically.
+     * @param key The key to hash.
+     * @return The position of the key on the ring.
+     */
+    public static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+
+        // FNV-1a alone clusters similar keys, such as consecutive station IDs, so mix the bits
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -3,18 +3,21 @@ package weatheraggregation.core;
 public interface LamportClock {
     /**
      * Process an internal event.
+     * @return The lamport time after the event.
      */
-    void processEvent();
+    long processEvent();
 
     /**
-     * Process an external event
+     * Process an external event, merging its time into the clock.
+     * The merge and the read of the new time happen as one step.
      * @param otherTime The lamport time from the external event.
+     * @return The lamport time after the event.
      */
-    void processEvent(int otherTime);
+    long processEvent(long otherTime);
 
     /**
      * Return the current lamport time.
      * @return The current lamport time.
      */
-    int getLamportTime();
+    long getLamportTime();
 }
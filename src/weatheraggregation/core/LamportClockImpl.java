@@ -2,7 +2,7 @@ package weatheraggregation.core;
 
 public class LamportClockImpl implements LamportClock {
 
-    int lamportTime;
+    long lamportTime;
 
     public LamportClockImpl() {
         this.lamportTime = 0;
@@ -10,19 +10,22 @@ public class LamportClockImpl implements LamportClock {
 
     /**
      * Process an internal event.
+     * @return The lamport time after the event.
      */
     @Override
-    public void processEvent() {
-        this.lamportTime++;
+    public long processEvent() {
+        return ++this.lamportTime;
     }
 
     /**
      * Process an external event
      * @param otherTime The lamport time from the external event.
+     * @return The lamport time after the event.
      */
     @Override
-    public void processEvent(int otherTime) {
+    public long processEvent(long otherTime) {
         this.lamportTime = Math.max(this.lamportTime, otherTime) + 1;
+        return this.lamportTime;
     }
 
     /**
@@ -30,7 +33,7 @@ public class LamportClockImpl implements LamportClock {
      * @return The current lamport time.
      */
     @Override
-    public int getLamportTime() {
+    public long getLamportTime() {
         return this.lamportTime;
     }
 }
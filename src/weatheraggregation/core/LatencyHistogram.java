@@ -0,0 +1,116 @@
+package weatheraggregation.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size, log-linear histogram of latencies, safe to record into from many threads.
+ * Each power of two is split into SUB_BUCKETS linear buckets, so any recorded value is reported within 1/SUB_BUCKETS of itself.
+ * Recording is a single atomic increment, and the histogram never grows or allocates.
+ */
+public class LatencyHistogram {
+
+    // Values below SUB_BUCKETS get a bucket each, then every power of two gets SUB_BUCKETS buckets
+    private static final int SUB_BUCKET_BITS = 4;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Record one value.
+     * @param value The value to record, such as a latency in nanoseconds. Negative values are recorded as zero.
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+        this.counts.incrementAndGet(bucketFor(value));
+        this.count.increment();
+        this.sum.add(value);
+    }
+
+    /**
+     * Get the number of recorded values.
+     * @return The number of values.
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * Get the sum of every recorded value.
+     * @return The sum of the values.
+     */
+    public long getSum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * Get the value at a quantile, as the upper bound of the bucket it falls in.
+     * @param quantile The quantile, between 0 and 1 (e.g. 0.99 for the 99th percentile).
+     * @return The value at the quantile, or 0 if nothing has been recorded.
+     */
+    public long getValueAtQuantile(double quantile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = this.counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) return 0;
+
+        // The rank of the value, counting from one
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return upperBoundOf(i);
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    /**
+     * Get the approximate number of recorded values at or below a bound.
+     * Buckets below the bound are counted in full, and the bucket the bound falls in is interpolated linearly,
+     * assuming its values are spread evenly. The count is exact whenever the bound is a bucket's upper bound.
+     * @param bound The bound to count up to.
+     * @return The number of values.
+     */
+    public long getCountAtOrBelow(long bound) {
+        if (bound < 0) return 0;
+        int last = bucketFor(bound);
+        long seen = 0;
+        for (int i = 0; i < last; i++) seen += this.counts.get(i);
+
+        // Count the share of the partially covered bucket that lies at or below the bound
+        long lower = (last == 0) ? 0 : upperBoundOf(last - 1) + 1;
+        double covered = (double) (bound - lower + 1) / (upperBoundOf(last) - lower + 1);
+        return seen + (long) (this.counts.get(last) * covered);
+    }
+
+    /**
+     * Find the bucket a value falls in.
+     * @param value The value, which must not be negative.
+     * @return The index of the bucket.
+     */
+    private static int bucketFor(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Find the largest value that falls in a bucket.
+     * @param bucket The index of the bucket.
+     * @return The bucket's upper bound.
+     */
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) * width) + width - 1;
+    }
+}
@@ -0,0 +1,218 @@
+package weatheraggregation.core;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An asynchronous logger, so request threads never block on stdout or stderr.
+ * Lines are queued in a bounded, lock-free ring buffer and written by a background daemon thread.
+ * When the buffer is full, lines are dropped rather than blocking the caller, and the drops are counted and reported.
+ * <p>
+ * DEBUG and INFO lines are written to stdout, WARN and ERROR lines to stderr.
+ * The level defaults to INFO, and can be set with the weatheraggregation.log.level system property.
+ */
+public class Log {
+
+    /**
+     * The levels of log lines, from least to most severe.
+     */
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF;
+
+        /**
+         * Get a level from its name.
+         * @param name The name of the level, in any case.
+         * @return The level.
+         * @throws IllegalArgumentException The name may not match any level.
+         */
+        public static Level fromName(String name) throws IllegalArgumentException {
+            return Level.valueOf(name.toUpperCase());
+        }
+    }
+
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    // How long the writer sleeps when there is nothing to write
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    // The logger shared by the whole process, started on first use
+    private static final Log LOG = new Log(DEFAULT_CAPACITY);
+    static {
+        LOG.setLevel(Level.fromName(System.getProperty("weatheraggregation.log.level", "INFO")));
+        LOG.start();
+    }
+
+    private final int mask;
+    private final String[] lines;
+    private final Level[] levels;
+
+    // Each slot's sequence is its position when free to write, and its position + 1 once written
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;
+
+    // Only one thread may drain at a time, writers never take this lock
+    private final Object drainLock = new Object();
+    private final LongAdder dropped = new LongAdder();
+    private long reportedDropped = 0;
+    private volatile Level level = Level.INFO;
+
+    /**
+     * Create a logger without a writer thread, which must be drained by hand.
+     * @param capacity The number of lines the buffer can hold, rounded up to a power of two.
+     */
+    public Log(int capacity) {
+        int size = (capacity <= 2) ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.lines = new String[size];
+        this.levels = new Level[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) this.sequences.set(i, i);
+    }
+
+    public static void debug(String line) {
+        LOG.log(Level.DEBUG, line);
+    }
+
+    public static void info(String line) {
+        LOG.log(Level.INFO, line);
+    }
+
+    public static void warn(String line) {
+        LOG.log(Level.WARN, line);
+    }
+
+    public static void error(String line) {
+        LOG.log(Level.ERROR, line);
+    }
+
+    /**
+     * Check whether the shared logger writes lines of a level, so callers can skip building lines it would discard.
+     * @param level The level to check.
+     * @return Whether lines of the level are written.
+     */
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(LOG.level) >= 0;
+    }
+
+    /**
+     * Set the level of the shared logger. Lines below the level are discarded.
+     * @param level The new level.
+     */
+    public static void setSharedLevel(Level level) {
+        LOG.setLevel(level);
+    }
+
+    /**
+     * Get the level of the shared logger.
+     * @return The current level.
+     */
+    public static Level getSharedLevel() {
+        return LOG.level;
+    }
+
+    /**
+     * Write every queued line of the shared logger now.
+     */
+    public static void flush() {
+        LOG.drainTo(System.out, System.err);
+    }
+
+    /**
+     * Set the level of the logger. Lines below the level are discarded.
+     * @param level The new level.
+     */
+    public void setLevel(Level level) {
+        this.level = level;
+    }
+
+    /**
+     * Queue a line to be written, unless its level is disabled.
+     * Never blocks: if the buffer is full, the line is dropped and counted.
+     * @param level The level of the line.
+     * @param line The line to write.
+     * @return Whether the line was queued.
+     */
+    public boolean log(Level level, String line) {
+        if (level.compareTo(this.level) < 0) return false;
+
+        long position = this.tail.get();
+        while (true) {
+            int slot = (int) position & this.mask;
+            long difference = this.sequences.get(slot) - position;
+            if (difference == 0) {
+                if (this.tail.compareAndSet(position, position + 1)) {
+                    this.lines[slot] = line;
+                    this.levels[slot] = level;
+                    // Publish the slot, the release makes the line visible to the writer
+                    this.sequences.set(slot, position + 1);
+                    return true;
+                }
+                position = this.tail.get();
+            } else if (difference < 0) {
+                // The writer hasn't freed this slot yet, so the buffer is full
+                this.dropped.increment();
+                return false;
+            } else {
+                // Another thread claimed this slot first
+                position = this.tail.get();
+            }
+        }
+    }
+
+    /**
+     * Write every queued line, in order, then report any lines dropped since the last report.
+     * @param out The stream for DEBUG and INFO lines.
+     * @param err The stream for WARN and ERROR lines, and drop reports.
+     * @return The number of lines written.
+     */
+    public int drainTo(PrintStream out, PrintStream err) {
+        synchronized (this.drainLock) {
+            int written = 0;
+            while (true) {
+                int slot = (int) this.head & this.mask;
+                if (this.sequences.get(slot) != this.head + 1) break;
+
+                String line = this.lines[slot];
+                Level lineLevel = this.levels[slot];
+                this.lines[slot] = null;
+                this.sequences.set(slot, this.head + this.mask + 1);
+                this.head++;
+
+                ((lineLevel.compareTo(Level.WARN) >= 0) ? err : out).println(line);
+                written++;
+            }
+
+            long totalDropped = this.dropped.sum();
+            if (totalDropped > this.reportedDropped) {
+                err.println("Log buffer full, dropped " + (totalDropped - this.reportedDropped) + " lines.");
+                this.reportedDropped = totalDropped;
+            }
+            return written;
+        }
+    }
+
+    /**
+     * Get how many lines have been dropped because the buffer was full.
+     * @return The number of dropped lines.
+     */
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Start the background writer, and flush any remaining lines when the process exits.
+     */
+    private void start() {
+        Thread.ofPlatform().name("log-writer").daemon().start(() -> {
+            while (true) {
+                if (this.drainTo(System.out, System.err) == 0) LockSupport.parkNanos(IDLE_NANOS);
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> this.drainTo(System.out, System.err)));
+    }
+}
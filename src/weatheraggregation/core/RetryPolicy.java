@@ -0,0 +1,80 @@
+package weatheraggregation.core;
+
+import java.net.http.HttpResponse;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+
+/**
+ * Decides when an AggregationClient sends its next request after a failure, and whether it sends at all.
+ * Policies are keyed by endpoint hostname, so one policy can be shared by several clients, such as the ContentServers
+ * of a ReplicatedContentServer, and each endpoint keeps its own state.
+ */
+public interface RetryPolicy {
+
+    // Returned by recordFailure when the client should give up on the endpoint
+    long GIVE_UP = -1;
+
+    /**
+     * Check whether a request may be sent to an endpoint now, such as while its circuit is closed.
+     * @param endpoint The hostname of the endpoint.
+     * @return Whether to send the request.
+     */
+    boolean allowRequest(String endpoint);
+
+    /**
+     * Record that an endpoint responded.
+     * @param endpoint The hostname of the endpoint.
+     */
+    void recordSuccess(String endpoint);
+
+    /**
+     * Record that a request to an endpoint failed, and decide how long to wait before the next attempt.
+     * @param endpoint The hostname of the endpoint.
+     * @param consecutiveFailures The number of requests in a row that have failed, including this one.
+     * @param retryAfterMillis How long the endpoint asked clients to wait with a Retry-After header, or -1 if it didn't.
+     * @return The delay before the next attempt, in milliseconds, or GIVE_UP.
+     */
+    long recordFailure(String endpoint, int consecutiveFailures, long retryAfterMillis);
+
+    /**
+     * Check whether a response refuses service, so the request should be retried like a failure.
+     * @param response The response.
+     * @return Whether the response is a 429 Too Many Requests or 503 Service Unavailable.
+     */
+    static boolean isRefusal(HttpResponse<?> response) {
+        return response.statusCode() == 429 || response.statusCode() == 503;
+    }
+
+    /**
+     * Parse a Retry-After header, given either as a number of seconds or as an HTTP date.
+     * @param retryAfter The header (optionally null).
+     * @return How long to wait, in milliseconds, or -1 if there is no valid header.
+     */
+    static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null || retryAfter.isBlank()) return -1;
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            // Not a number of seconds, so try a date
+        }
+        try {
+            long untilMillis = ConversionHelpers.httpDateToEpochSeconds(retryAfter.trim()) * 1000;
+            return Math.max(0, untilMillis - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Create the retry policy chosen by command-line options.
+     * Given "--backoff", clients back off exponentially with jitter and break circuits, retrying forever unless
+     * "--max-retries=<count>" is given. Otherwise they retry every SLEEP_SECONDS seconds, at most MAX_RETRIES times.
+     * @param options The command-line options.
+     * @return The retry policy.
+     */
+    static RetryPolicy fromOptions(Map<String, String> options) {
+        if (!options.containsKey("backoff")) return new FixedRetryPolicy();
+        int maxRetries = Integer.parseInt(options.getOrDefault("max-retries", "0"));
+        return new BackoffRetryPolicy(BackoffRetryPolicy.DEFAULT_BASE_MILLIS, BackoffRetryPolicy.DEFAULT_MAX_DELAY_MILLIS, maxRetries);
+    }
+}
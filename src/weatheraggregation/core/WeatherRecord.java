@@ -0,0 +1,91 @@
+package weatheraggregation.core;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A single committed weather record, as stored by an AggregationServer.
+ * Each record holds the latest weather data received for one station.
+ */
+public final class WeatherRecord {
+    // The ID of the station this record belongs to
+    public final String stationId;
+    // The real timestamp (in epoch seconds) the record was committed at
+    public final int realTime;
+    // The lamport time the record was committed at
+    public final long lamportTime;
+    // The JSON weather data of the record
+    public final String jsonString;
+    // The JSON weather data, encoded once as UTF-8 so GETs can send it as-is
+    public final byte[] jsonBytes;
+    // The version of the record, derived from its station and commit lamport time, as a quoted ETag
+    public final String etag;
+    // The commit time as an HTTP date, formatted once so GETs can send it as their Last-Modified header
+    public final String lastModified;
+
+    // The compressed JSON weather data, compressed on first use and reused by every later GET
+    private volatile byte[] gzipBytes;
+    private volatile byte[] deflateBytes;
+
+    public WeatherRecord(String stationId, int realTime, long lamportTime, String jsonString) {
+        this.stationId = stationId;
+        this.realTime = realTime;
+        this.lamportTime = lamportTime;
+        this.jsonString = jsonString;
+        this.jsonBytes = jsonString.getBytes(StandardCharsets.UTF_8);
+        this.etag = "\"" + lamportTime + "-" + Integer.toHexString(stationId.hashCode()) + "\"";
+        this.lastModified = ConversionHelpers.epochSecondsToHttpDate(realTime);
+    }
+
+    /**
+     * Check whether an If-None-Match header matches the record's version.
+     * @param ifNoneMatch The If-None-Match header (optionally null), a list of ETags or "*".
+     * @return Whether the client already holds this version of the record.
+     */
+    public boolean matchesETag(String ifNoneMatch) {
+        if (ifNoneMatch == null) return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(this.etag)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the JSON weather data, compressed with a content encoding.
+     * Each encoding is compressed at most a few times, however many GETs ask for it.
+     * @param contentEncoding The content encoding, either "gzip" or "deflate".
+     * @return The compressed JSON weather data.
+     * @throws IllegalArgumentException The content encoding may not be supported.
+     */
+    public byte[] encodedBytes(String contentEncoding) throws IllegalArgumentException {
+        // Racing GETs may both compress, but they produce the same bytes
+        if (contentEncoding.equals(EncodingHelpers.GZIP)) {
+            byte[] bytes = this.gzipBytes;
+            if (bytes == null) this.gzipBytes = bytes = EncodingHelpers.encode(this.jsonBytes, contentEncoding);
+            return bytes;
+        }
+
+        byte[] bytes = this.deflateBytes;
+        if (bytes == null) this.deflateBytes = bytes = EncodingHelpers.encode(this.jsonBytes, contentEncoding);
+        return bytes;
+    }
+
+    /**
+     * Create a record from an entry of a weather data file.
+     * @param entry The entry, split into its station ID, real time, lamport time and JSON data.
+     * @return The created record.
+     */
+    public static WeatherRecord fromEntry(String[] entry) {
+        return new WeatherRecord(entry[0], Integer.parseInt(entry[1]), Long.parseLong(entry[2]), entry[3]);
+    }
+
+    /**
+     * Convert the record to an entry of a weather data file.
+     * @return The entry, as a single line.
+     */
+    public String toEntry() {
+        return this.stationId + FileHelpers.ITEM_DELIMITER + this.realTime + FileHelpers.ITEM_DELIMITER
+                + this.lamportTime + FileHelpers.ITEM_DELIMITER + this.jsonString;
+    }
+}
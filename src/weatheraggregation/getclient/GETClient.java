@@ -1,37 +1,85 @@
 package weatheraggregation.getclient;
 
 import weatheraggregation.core.AggregationClient;
+import weatheraggregation.core.AtomicLamportClock;
 import weatheraggregation.core.ConversionHelpers;
-import weatheraggregation.core.LamportClockImpl;
+import weatheraggregation.core.EncodingHelpers;
+import weatheraggregation.core.HashRing;
+import weatheraggregation.core.Log;
+import weatheraggregation.core.RetryPolicy;
 import weatheraggregation.jsonparser.CustomJsonParser;
 import weatheraggregation.jsonparser.CustomParseException;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.*;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 /**
  * A client that can download data from an AggregationServer.
  * Weather data is downloaded on a regular schedule and printed to stdout.
+ * Alternatively, the client can subscribe to a stream of committed weather data instead of polling.
+ * Given a ring of sharded servers, a station is fetched from the server that owns it, and the most recent data
+ * across every station is gathered from all servers at once.
+ * Given replicas of a server, reads are spread over them, and reads that take too long are hedged to a second replica.
  */
 public class GETClient extends AggregationClient {
     // The station ID to get data from (optionally null)
     public final String stationId;
 
+    // The ring of sharded servers, which unkeyed GETs are scattered over (optionally null)
+    public final HashRing ring;
+
+    // The replicas of the server, which reads are spread over and hedged between (optionally null)
+    public final ReplicaSelector replicas;
+
+    // The last body fetched and its ETag, revalidated by later requests (optionally null)
+    public volatile String cachedBody;
+    public volatile String cachedETag;
+
+    // The thread consuming the subscription stream, in subscription mode
+    private Thread subscriptionThread;
+
     public GETClient(String serverHostname) {
         this(serverHostname, null);
     }
 
     public GETClient(String serverHostname, String stationId) {
+        this(serverHostname, stationId, null, null);
+    }
+
+    public GETClient(HashRing ring, String stationId) {
+        this((stationId != null) ? ring.getOwner(stationId) : ring.getNodes().getFirst(), stationId, ring, null);
+    }
+
+    public GETClient(ReplicaSelector replicas, String stationId) {
+        this(replicas.getReplicas().getFirst().hostname, stationId, null, replicas);
+    }
+
+    private GETClient(String serverHostname, String stationId, HashRing ring, ReplicaSelector replicas) {
         this.serverHostname = serverHostname;
         this.stationId = stationId;
+        this.ring = ring;
+        this.replicas = replicas;
 
         this.serverURI = URI.create("http://" + ConversionHelpers.canonicalHostnameToHostname(this.serverHostname));
         this.httpClient = HttpClient.newHttpClient();
 
-        this.lamportClock = new LamportClockImpl();
+        this.lamportClock = new AtomicLamportClock();
     }
 
     /**
@@ -40,41 +88,358 @@ public class GETClient extends AggregationClient {
      */
     @Override
     public HttpRequest createRequest() {
+        return this.createRequest(this.serverURI, this.cachedETag);
+    }
+
+    /**
+     * Create an HTTP request to GET weather data from a server.
+     * @param uri The URI of the server.
+     * @param etag The ETag of the body already held, to revalidate (optionally null).
+     * @return The created HTTP request.
+     */
+    private HttpRequest createRequest(URI uri, String etag) {
         HttpRequest.Builder requestBuilder = HttpRequest.newBuilder();
-        requestBuilder.uri(this.serverURI);
+        requestBuilder.uri(uri);
         requestBuilder.GET();
         requestBuilder.headers(
             "User-agent", "ATOMClient/1/0",
             "Content-type", "text/plain",
-            "Lamport-time", Integer.toString(this.lamportClock.getLamportTime())
+            "Lamport-time", Long.toString(this.lamportClock.getLamportTime()),
+            "Accept-Encoding", EncodingHelpers.SUPPORTED_ENCODINGS
         );
 
         if (this.stationId != null) {
             requestBuilder.header("Station-id", this.stationId);
         }
 
+        // Only ask for the body if it has changed since the last fetch
+        if (etag != null) {
+            requestBuilder.header("If-None-Match", etag);
+        }
+
         return requestBuilder.build();
     }
 
+    /**
+     * Send a GET and process its response.
+     * Unkeyed GETs on a ring are scattered over every server, and GETs to replicas are hedged.
+     * @return The processed response.
+     * @throws IOException The request can raise an IO exception.
+     * @throws InterruptedException The request can be interrupted.
+     */
+    @Override
+    protected HttpResponse<String> sendAndProcess() throws IOException, InterruptedException {
+        HttpResponse<String> response;
+        if (this.ring != null && this.stationId == null) {
+            response = this.sendScatterGather();
+        } else if (this.replicas != null) {
+            response = this.sendHedged();
+        } else {
+            return super.sendAndProcess();
+        }
+        this.processResponse(response);
+        return response;
+    }
+
+    /**
+     * GET the most recent weather data from every server on the ring at once, and keep the most recent of them.
+     * A server may still hold a station it no longer owns until the record expires, so such records are ignored.
+     * Servers that fail to respond are skipped, as long as one responds.
+     * @return The response holding the most recent weather data, or a 404 response if no server holds any.
+     * @throws IOException Every server may fail to respond.
+     * @throws InterruptedException The requests can be interrupted.
+     */
+    public HttpResponse<String> sendScatterGather() throws IOException, InterruptedException {
+        List<String> nodes = this.ring.getNodes();
+
+        // Scatter the requests, without ETags, since each server versions its records separately
+        List<CompletableFuture<HttpResponse<String>>> futures = new ArrayList<>();
+        for (String node : nodes) {
+            URI uri = URI.create("http://" + node);
+            futures.add(this.sendRequestAsync(this.createRequest(uri, null)));
+        }
+
+        // Gather the responses, keeping the most recently committed record
+        HttpResponse<String> latest = null;
+        long latestTime = Long.MIN_VALUE;
+        HttpResponse<String> missing = null;
+        IOException failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            HttpResponse<String> response;
+            try {
+                response = futures.get(i).get();
+            } catch (ExecutionException e) {
+                if (failure == null) failure = new IOException("Failed to GET from " + nodes.get(i), e.getCause());
+                continue;
+            }
+
+            long eventTime = Long.parseLong(response.headers().firstValue("Lamport-time").orElse("0"));
+            this.lamportClock.processEvent(eventTime);
+
+            long committedTime = this.committedTime(response, nodes.get(i));
+            if (committedTime > latestTime) {
+                latest = response;
+                latestTime = committedTime;
+            } else if (response.statusCode() == 404) {
+                missing = response;
+            }
+        }
+
+        if (latest != null) return latest;
+        if (missing != null) return missing;
+        throw (failure != null) ? failure : new IOException("No server responded with weather data");
+    }
+
+    /**
+     * GET weather data from the less busy of two replicas. If it hasn't answered within the hedge delay,
+     * the GET is also sent to another replica, and whichever answers first wins while the other is cancelled.
+     * A replica that fails outright is failed over from immediately.
+     * @return The first response.
+     * @throws IOException Every replica tried may fail to respond.
+     * @throws InterruptedException The requests can be interrupted.
+     */
+    public HttpResponse<String> sendHedged() throws IOException, InterruptedException {
+        ReplicaSelector.Replica first = this.replicas.choose(null);
+        CompletableFuture<HttpResponse<String>> firstFuture = this.sendToReplica(first);
+        CompletableFuture<HttpResponse<String>> secondFuture = null;
+        try {
+            try {
+                return firstFuture.get(this.replicas.getHedgeDelayNanos(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                // The replica is slow or has failed, so try another alongside it
+            }
+
+            ReplicaSelector.Replica second = this.replicas.choose(first);
+            if (second == null) return awaitResponse(firstFuture);
+            secondFuture = this.sendToReplica(second);
+            return awaitResponse(firstSuccessful(firstFuture, secondFuture));
+        } finally {
+            // Cancel the slower GET, so it stops holding its replica
+            firstFuture.cancel(true);
+            if (secondFuture != null) secondFuture.cancel(true);
+        }
+    }
+
+    /**
+     * Send a GET to a replica, counting it as outstanding until it completes.
+     * @param replica The replica to send to.
+     * @return The pending response.
+     */
+    private CompletableFuture<HttpResponse<String>> sendToReplica(ReplicaSelector.Replica replica) {
+        this.replicas.started(replica);
+        long startNanos = System.nanoTime();
+        CompletableFuture<HttpResponse<String>> future = this.sendRequestAsync(this.createRequest(replica.uri, this.cachedETag));
+        future.whenComplete((response, e) -> this.replicas.finished(replica, (e == null) ? System.nanoTime() - startNanos : -1));
+        return future;
+    }
+
+    /**
+     * Combine two pending responses into the first to succeed, which only fails if both fail.
+     * @param first The first pending response.
+     * @param second The second pending response.
+     * @return The first successful response.
+     */
+    private static CompletableFuture<HttpResponse<String>> firstSuccessful(CompletableFuture<HttpResponse<String>> first,
+                                                                         CompletableFuture<HttpResponse<String>> second) {
+        CompletableFuture<HttpResponse<String>> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<HttpResponse<String>> future : List.of(first, second)) {
+            future.whenComplete((response, e) -> {
+                if (e == null) {
+                    winner.complete(response);
+                } else if (failures.incrementAndGet() == 2) {
+                    winner.completeExceptionally(e);
+                }
+            });
+        }
+        return winner;
+    }
+
+    /**
+     * Wait for a pending response, unwrapping its failure.
+     * @param future The pending response.
+     * @return The response.
+     * @throws IOException The request may have failed.
+     * @throws InterruptedException The wait can be interrupted.
+     */
+    private static HttpResponse<String> awaitResponse(CompletableFuture<HttpResponse<String>> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) throw cause;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Get when a scattered response's record was committed, if it is a record its server owns.
+     * @param response The response from a server.
+     * @param node The hostname of the server.
+     * @return The commit time, in epoch seconds, or Long.MIN_VALUE if the response holds no usable record.
+     */
+    private long committedTime(HttpResponse<String> response, String node) {
+        if (response.statusCode() != 200) return Long.MIN_VALUE;
+        try {
+            String stationId = CustomJsonParser.stringToJson(response.body()).get("id");
+            if (stationId == null || !this.ring.getOwner(stationId).equals(node)) return Long.MIN_VALUE;
+            return ConversionHelpers.httpDateToEpochSeconds(response.headers().firstValue("Last-Modified").orElse(""));
+        } catch (CustomParseException | DateTimeParseException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Create an HTTP request to subscribe to committed weather data as server-sent events.
+     * @return The created HTTP request.
+     */
+    public HttpRequest createSubscribeRequest() {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder();
+        requestBuilder.uri(this.serverURI.resolve("/subscribe"));
+        requestBuilder.GET();
+        requestBuilder.headers(
+            "User-agent", "ATOMClient/1/0",
+            "Accept", "text/event-stream",
+            "Lamport-time", Long.toString(this.lamportClock.getLamportTime())
+        );
+
+        if (this.stationId != null) {
+            requestBuilder.header("Station-id", this.stationId);
+        }
+
+        return requestBuilder.build();
+    }
+
+    /**
+     * Start the client in subscription mode, printing weather data as it is committed rather than polling.
+     * If the stream fails to connect or ends, the retry policy decides when to reconnect, and when to give up.
+     * The stream is consumed by a platform thread, which keeps the client alive like its polling scheduler.
+     */
+    public final void startSubscription() {
+        this.subscriptionThread = Thread.ofPlatform().start(() -> {
+            int attempts = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                long retryAfterMillis = -1;
+                try {
+                    // Wait without counting a failure while the retry policy refuses requests
+                    if (!this.getRetryPolicy().allowRequest(this.serverHostname)) {
+                        TimeUnit.SECONDS.sleep(SLEEP_SECONDS);
+                        continue;
+                    }
+
+                    Log.info("Subscribing to " + this.serverURI + "...");
+                    HttpResponse<Stream<String>> response = this.httpClient.send(this.createSubscribeRequest(), HttpResponse.BodyHandlers.ofLines());
+                    long eventTime = Long.parseLong(response.headers().firstValue("Lamport-time").orElse("0"));
+                    this.lamportClock.processEvent(eventTime);
+                    retryAfterMillis = RetryPolicy.parseRetryAfter(response.headers().firstValue("Retry-After").orElse(null));
+
+                    // Consume the stream until the server closes it
+                    try (Stream<String> lines = response.body()) {
+                        if (response.statusCode() == 200) {
+                            attempts = 0;
+                            this.getRetryPolicy().recordSuccess(this.serverHostname);
+                            this.consumeEvents(lines.iterator());
+                        }
+                    }
+                } catch (IOException | UncheckedIOException e) {
+                    // Reading the stream's lines wraps its IO exceptions
+                    if (Thread.currentThread().isInterrupted()) return;
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                // If we failed to connect, shut down the client
+                long delayMillis = this.getRetryPolicy().recordFailure(this.serverHostname, ++attempts, retryAfterMillis);
+                if (delayMillis == RetryPolicy.GIVE_UP) {
+                    Log.error("Could not connect to server.");
+                    this.shutdownClient();
+                    return;
+                }
+                Log.warn("Subscription failed. Retrying...");
+                try {
+                    TimeUnit.MILLISECONDS.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * Consume server-sent events, printing the weather data each one holds.
+     * Each event's ID is the lamport time it was committed at.
+     * @param lines The lines of the event stream.
+     */
+    private void consumeEvents(Iterator<String> lines) {
+        StringBuilder data = new StringBuilder();
+        long eventTime = 0;
+
+        while (lines.hasNext()) {
+            String line = lines.next();
+            if (line.isEmpty()) {
+                // A blank line ends the event
+                if (!data.isEmpty()) {
+                    this.lamportClock.processEvent(eventTime);
+                    this.cachedBody = data.toString();
+                    this.printBody(this.cachedBody);
+                }
+                data.setLength(0);
+            } else if (line.startsWith("id:")) {
+                eventTime = Long.parseLong(line.substring(3).trim());
+            } else if (line.startsWith("data:")) {
+                if (!data.isEmpty()) data.append('\n');
+                data.append(line.substring(5).stripLeading());
+            }
+            // Comments, such as heartbeats, and other fields are ignored
+        }
+    }
+
     /**
      * Process an HTTP response to GET weather data.
      * @param response The HTTP response to process.
      */
     @Override
     public void processResponse(HttpResponse<String> response) {
-        int eventTime = Integer.parseInt(response.headers().firstValue("Lamport-time").orElse("0"));
+        long eventTime = Long.parseLong(response.headers().firstValue("Lamport-time").orElse("0"));
         this.lamportClock.processEvent(eventTime);
 
         int responseStatus = response.statusCode();
         if (responseStatus == 200) {
-            try {
-                Map<String, String> jsonObject = CustomJsonParser.stringToJson(response.body());
-                jsonObject.forEach((key, value) -> System.out.println(key + ": " + value));
-            } catch (CustomParseException e) {
-                throw new RuntimeException(e);
-            }
+            this.cachedBody = response.body();
+            this.cachedETag = response.headers().firstValue("ETag").orElse(null);
+            this.printBody(this.cachedBody);
+        } else if (responseStatus == 304 && this.cachedBody != null) {
+            // The data hasn't changed, so reuse the last body
+            this.printBody(this.cachedBody);
         } else if (responseStatus == 404) {
-            System.err.println("Requested data not found.");
+            this.cachedBody = null;
+            this.cachedETag = null;
+            Log.warn("Requested data not found.");
+        }
+    }
+
+    /**
+     * Shut down the client, ending any subscription stream.
+     */
+    @Override
+    public void shutdownClient() {
+        if (this.subscriptionThread != null && Thread.currentThread() != this.subscriptionThread) {
+            this.subscriptionThread.interrupt();
+        }
+        super.shutdownClient();
+    }
+
+    /**
+     * Print each field of a JSON body to stdout, one per line.
+     * @param body The JSON body to print.
+     */
+    private void printBody(String body) {
+        try {
+            Map<String, String> jsonObject = CustomJsonParser.stringToJson(body);
+            StringJoiner fields = new StringJoiner("\n");
+            jsonObject.forEach((key, value) -> fields.add(key + ": " + value));
+            Log.info(fields.toString());
+        } catch (CustomParseException e) {
+            throw new RuntimeException(e);
         }
     }
 
@@ -83,21 +448,51 @@ public class GETClient extends AggregationClient {
      * @param args Command-line arguments.
      */
     public static void main(String[] args)  {
-        if (args.length == 0) {
-            System.err.println("Usage: java GETClient <hostname> <station_id>?");
+        List<String> arguments = ConversionHelpers.argsToPositionals(args);
+        Map<String, String> options = ConversionHelpers.argsToOptions(args);
+
+        if (arguments.isEmpty() && !options.containsKey("ring")) {
+            Log.error("Usage: java GETClient <hostname>[,<hostname>...] <station_id>? --subscribe? --hedge-quantile=<quantile>? --rate=<requests_per_second>? --max-in-flight=<count>? --timeout=<seconds>? --backoff? --max-retries=<count>?");
+            Log.error("       java GETClient --ring=<ring_filename> <station_id>? --subscribe?");
             return;
         }
 
-        String hostname = args[0];
         GETClient getClient;
 
-        if (args.length > 1) {
-            String station_id = args[1];
+        if (options.containsKey("ring")) {
+            // Route to the station's owner, or scatter over every server
+            HashRing ring;
+            try {
+                ring = HashRing.fromFile(options.get("ring"));
+            } catch (IOException | IllegalArgumentException e) {
+                Log.error("Failed to read ring config: " + e.getMessage());
+                return;
+            }
+            String station_id = (arguments.size() > 0) ? arguments.get(0) : null;
+            if (station_id == null && options.containsKey("subscribe")) {
+                Log.error("Subscribing to every station can't span a ring, give a station ID.");
+                return;
+            }
+            getClient = new GETClient(ring, station_id);
+        } else if (arguments.get(0).contains(",")) {
+            // Spread reads over the replicas, hedging slow ones
+            double hedgeQuantile = Double.parseDouble(options.getOrDefault("hedge-quantile", String.valueOf(ReplicaSelector.DEFAULT_HEDGE_QUANTILE)));
+            ReplicaSelector replicas = new ReplicaSelector(List.of(arguments.get(0).split(",")), hedgeQuantile);
+            String station_id = (arguments.size() > 1) ? arguments.get(1) : null;
+            getClient = new GETClient(replicas, station_id);
+        } else if (arguments.size() > 1) {
+            String hostname = arguments.get(0);
+            String station_id = arguments.get(1);
             getClient = new GETClient(hostname, station_id);
         } else {
-            getClient = new GETClient(hostname);
+            getClient = new GETClient(arguments.get(0));
         }
 
-        getClient.startClient();
+        if (options.containsKey("subscribe")) {
+            getClient.setRetryPolicy(RetryPolicy.fromOptions(options));
+            getClient.startSubscription();
+        } else {
+            getClient.startFromOptions(options);
+        }
     }
 }
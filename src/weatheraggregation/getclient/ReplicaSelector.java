@@ -0,0 +1,140 @@
+package weatheraggregation.getclient;
+
+import weatheraggregation.core.ConversionHelpers;
+import weatheraggregation.core.LatencyHistogram;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads a GETClient's reads over replicas of the same AggregationServer, and decides when to hedge them.
+ * Each read goes to the less busy of two random replicas (power of two choices), judged by outstanding requests,
+ * so a replica that stalls, such as in a GC pause, quickly stops receiving reads without any health checks.
+ * <p>
+ * A read that hasn't been answered within a quantile of recent read latencies is hedged to a second replica.
+ * Until enough reads have been timed, the hedge delay is a fixed default.
+ */
+public class ReplicaSelector {
+
+    public static final double DEFAULT_HEDGE_QUANTILE = 0.95;
+    public static final long DEFAULT_HEDGE_MILLIS = 100;
+
+    // The reads timed before the hedge delay follows their latencies
+    public static final int MIN_HEDGE_SAMPLES = 20;
+
+    // The shortest hedge delay, so a fast burst can't make every read hedge
+    private static final long MIN_HEDGE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * One replica, and the reads it has outstanding.
+     */
+    public static final class Replica {
+        // The hostname of the replica (in the form ip:port)
+        public final String hostname;
+        public final URI uri;
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private Replica(String hostname) {
+            this.hostname = hostname;
+            this.uri = URI.create("http://" + ConversionHelpers.canonicalHostnameToHostname(hostname));
+        }
+
+        /**
+         * Get the number of reads sent to the replica that haven't completed.
+         * @return The number of outstanding reads.
+         */
+        public int getOutstanding() {
+            return this.outstanding.get();
+        }
+    }
+
+    // The quantile of read latencies to hedge after
+    public final double hedgeQuantile;
+
+    private final List<Replica> replicas;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    public ReplicaSelector(List<String> hostnames) {
+        this(hostnames, DEFAULT_HEDGE_QUANTILE);
+    }
+
+    public ReplicaSelector(List<String> hostnames, double hedgeQuantile) {
+        if (hostnames.isEmpty()) throw new IllegalArgumentException("At least one replica is needed");
+        this.hedgeQuantile = hedgeQuantile;
+        this.replicas = new ArrayList<>();
+        for (String hostname : hostnames) this.replicas.add(new Replica(hostname));
+    }
+
+    /**
+     * Get every replica.
+     * @return The replicas, in the order given.
+     */
+    public List<Replica> getReplicas() {
+        return this.replicas;
+    }
+
+    /**
+     * Choose the replica to send a read to, the one with fewer outstanding reads of two picked at random.
+     * @param exclude A replica not to choose, such as the one already being hedged (optionally null).
+     * @return The chosen replica, or null if there is no other replica.
+     */
+    public Replica choose(Replica exclude) {
+        int candidates = this.replicas.size() - ((exclude != null) ? 1 : 0);
+        if (candidates <= 0) return null;
+        if (candidates == 1) return this.candidate(0, exclude);
+
+        // Pick two distinct candidates
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates);
+        int second = random.nextInt(candidates - 1);
+        if (second >= first) second++;
+
+        Replica a = this.candidate(first, exclude);
+        Replica b = this.candidate(second, exclude);
+        return (b.outstanding.get() < a.outstanding.get()) ? b : a;
+    }
+
+    /**
+     * Get a candidate replica by index, skipping an excluded replica.
+     * @param index The index among the candidates.
+     * @param exclude The replica to skip (optionally null).
+     * @return The candidate replica.
+     */
+    private Replica candidate(int index, Replica exclude) {
+        Replica replica = this.replicas.get(index);
+        if (exclude == null) return replica;
+        int excluded = this.replicas.indexOf(exclude);
+        return (excluded >= 0 && index >= excluded) ? this.replicas.get(index + 1) : replica;
+    }
+
+    /**
+     * Record that a read was sent to a replica.
+     * @param replica The replica.
+     */
+    public void started(Replica replica) {
+        replica.outstanding.incrementAndGet();
+    }
+
+    /**
+     * Record that a read to a replica completed, failed or was cancelled.
+     * @param replica The replica.
+     * @param latencyNanos How long the read took, or -1 if it didn't succeed, so it isn't timed.
+     */
+    public void finished(Replica replica, long latencyNanos) {
+        replica.outstanding.decrementAndGet();
+        if (latencyNanos >= 0) this.latencies.record(latencyNanos);
+    }
+
+    /**
+     * Get how long to wait for a read before hedging it.
+     * @return The hedge delay, in nanoseconds.
+     */
+    public long getHedgeDelayNanos() {
+        if (this.latencies.getCount() < MIN_HEDGE_SAMPLES) return TimeUnit.MILLISECONDS.toNanos(DEFAULT_HEDGE_MILLIS);
+        return Math.max(MIN_HEDGE_NANOS, this.latencies.getValueAtQuantile(this.hedgeQuantile));
+    }
+}
@@ -1,5 +1,7 @@
 package weatheraggregation.jsonparser;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
 
 public class CustomJsonParser {
@@ -7,6 +9,7 @@ public class CustomJsonParser {
     private static final String FIELD_DELIMITER = ",";
     private static final String ITEM_DELIMITER = ":";
     private static final String QUOTE = "\"";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
     /**
      * Convert a JSON string to a JSON object.
@@ -15,69 +18,134 @@ public class CustomJsonParser {
      * @throws CustomParseException The JSON string may be invalid and raise an exception.
      */
     public static Map<String, String> stringToJson(String jsonString) throws CustomParseException {
-        Map<String, String> jsonObject = new HashMap<>();
-
-        // Trim all leading and trailing whitespace
-        jsonString = jsonString.trim();
-
-        // If this is a JSON object...
-        if (jsonString.startsWith("{") && jsonString.endsWith("}")) {
+        byte[] jsonBytes = jsonString.getBytes(StandardCharsets.UTF_8);
+        return bytesToJson(jsonBytes, 0, jsonBytes.length);
+    }
 
-            // Trim the leading and trailing curly braces
-            jsonString = jsonString.substring(1, jsonString.length() - 1).trim();
-            if (jsonString.isEmpty()) return jsonObject;
+    /**
+     * Convert UTF-8 JSON bytes to a JSON object.
+     * @param jsonBytes The JSON bytes.
+     * @return The returned JSON object.
+     * @throws CustomParseException The JSON bytes may be invalid and raise an exception.
+     */
+    public static Map<String, String> bytesToJson(byte[] jsonBytes) throws CustomParseException {
+        return bytesToJson(jsonBytes, 0, jsonBytes.length);
+    }
 
-            // Pairs are delimited by comma
-            String[] pairs = jsonString.split(FIELD_DELIMITER);
+    /**
+     * Convert a range of UTF-8 JSON bytes to a JSON object, in a single pass.
+     * Nested objects and arrays are kept as their raw JSON text.
+     * @param jsonBytes The buffer holding the JSON bytes.
+     * @param offset The offset of the JSON in the buffer.
+     * @param length The length of the JSON in bytes.
+     * @return The returned JSON object.
+     * @throws CustomParseException The JSON bytes may be invalid, and the exception holds the offset of the error.
+     */
+    public static Map<String, String> bytesToJson(byte[] jsonBytes, int offset, int length) throws CustomParseException {
+        return new JsonTokenizer(jsonBytes, offset, length).parseDocument();
+    }
 
-            for (String pair : pairs) {
+    /**
+     * Convert UTF-8 bytes holding a JSON array of objects, or newline-delimited objects, to JSON objects.
+     * Each object keeps the raw JSON text it was parsed from.
+     * @param jsonBytes The JSON bytes.
+     * @return The returned JSON objects, in input order.
+     * @throws CustomParseException The JSON bytes may be invalid, and the exception holds the offset of the error.
+     */
+    public static List<ParsedJson> bytesToJsonList(byte[] jsonBytes) throws CustomParseException {
+        return bytesToJsonList(jsonBytes, 0, jsonBytes.length);
+    }
 
-                // Items are delimited by colon
-                String[] keyValue = pair.split(ITEM_DELIMITER, 2);
+    /**
+     * Convert a range of UTF-8 bytes holding a JSON array of objects, or newline-delimited objects, to JSON objects.
+     * @param jsonBytes The buffer holding the JSON bytes.
+     * @param offset The offset of the JSON in the buffer.
+     * @param length The length of the JSON in bytes.
+     * @return The returned JSON objects, in input order.
+     * @throws CustomParseException The JSON bytes may be invalid, and the exception holds the offset of the error.
+     */
+    public static List<ParsedJson> bytesToJsonList(byte[] jsonBytes, int offset, int length) throws CustomParseException {
+        return new JsonTokenizer(jsonBytes, offset, length).parseDocuments();
+    }
 
-                // If there are exactly two items, we have a pair!
-                if (keyValue.length == 2) {
-                    // Remove all quotes, we don't need them
-                    String key = keyValue[0].trim().replaceAll(QUOTE, "");
-                    String value = keyValue[1].trim().replaceAll(QUOTE, "");
-                    jsonObject.put(key, value);
-                } else {
-                    throw new CustomParseException("Field is not in the form \"key:value\"");
-                }
-            }
-        } else {
-            throw new CustomParseException("String is not a JSON object");
+    /**
+     * Convert the remaining UTF-8 JSON bytes of a buffer to a JSON object.
+     * Heap buffers are parsed in place, while direct buffers are copied once.
+     * @param jsonBuffer The buffer holding the JSON bytes.
+     * @return The returned JSON object.
+     * @throws CustomParseException The JSON bytes may be invalid and raise an exception.
+     */
+    public static Map<String, String> bytesToJson(ByteBuffer jsonBuffer) throws CustomParseException {
+        if (jsonBuffer.hasArray()) {
+            return bytesToJson(jsonBuffer.array(), jsonBuffer.arrayOffset() + jsonBuffer.position(), jsonBuffer.remaining());
         }
-        return jsonObject;
+        byte[] jsonBytes = new byte[jsonBuffer.remaining()];
+        jsonBuffer.duplicate().get(jsonBytes);
+        return bytesToJson(jsonBytes, 0, jsonBytes.length);
     }
 
     /**
      * Convert a JSON object to a JSON string.
+     * The builder is sized up front, and pairs are only separated by commas, with no trailing comma.
      * @param jsonObject The JSON object.
      * @return The returned JSON string.
      */
     public static String jsonToString(Map<String, String> jsonObject) {
-        StringBuilder jsonString = new StringBuilder();
+        // Each pair needs four quotes, a colon and a comma on top of its key and value
+        int capacity = 2;
+        for (Map.Entry<String, String> entry : jsonObject.entrySet()) {
+            capacity += entry.getKey().length() + entry.getValue().length() + 6;
+        }
+        StringBuilder jsonString = new StringBuilder(capacity);
 
         // Append the leading curly brace
         jsonString.append("{");
 
         // Write each key-value pair to the JSON string
+        boolean first = true;
         for (Map.Entry<String, String> entry : jsonObject.entrySet()) {
-            String key = entry.getKey();
-            String value = entry.getValue();
+            if (!first) jsonString.append(FIELD_DELIMITER);
+            first = false;
+
             jsonString.append(QUOTE);
-            jsonString.append(key);
+            appendEscaped(jsonString, entry.getKey());
             jsonString.append(QUOTE);
             jsonString.append(ITEM_DELIMITER);
             jsonString.append(QUOTE);
-            jsonString.append(value);
+            appendEscaped(jsonString, entry.getValue());
             jsonString.append(QUOTE);
-            jsonString.append(FIELD_DELIMITER);
         }
 
-        // Append the tracking curly brace
+        // Append the trailing curly brace
         jsonString.append("}");
         return jsonString.toString();
     }
-}
\ No newline at end of file
+
+    /**
+     * Append a string to a JSON string, escaping quotes, backslashes and control characters.
+     * Control characters without a short escape are written as unicode escapes, so the output is always one line.
+     * @param jsonString The JSON string to append to.
+     * @param value The string to append.
+     */
+    private static void appendEscaped(StringBuilder jsonString, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char current = value.charAt(i);
+            switch (current) {
+                case '"' -> jsonString.append("\\\"");
+                case '\\' -> jsonString.append("\\\\");
+                case '\n' -> jsonString.append("\\n");
+                case '\r' -> jsonString.append("\\r");
+                case '\t' -> jsonString.append("\\t");
+                case '\b' -> jsonString.append("\\b");
+                case '\f' -> jsonString.append("\\f");
+                default -> {
+                    if (current < 0x20) {
+                        jsonString.append("\\u00").append(HEX_DIGITS[current >> 4]).append(HEX_DIGITS[current & 0xF]);
+                    } else {
+                        jsonString.append(current);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -4,11 +4,15 @@ package weatheraggregation.jsonparser;
  * An exception for the CustomJsonParser.
  */
 public class CustomParseException extends Exception {
+    // The byte offset the parse failed at, or -1 if unknown
+    private final int offset;
+
     /**
      * Raise a CustomParseException with no message.
      */
     public CustomParseException() {
         super();
+        this.offset = -1;
     }
 
     /**
@@ -17,5 +21,24 @@ public class CustomParseException extends Exception {
      */
     public CustomParseException(String message) {
         super(message);
+        this.offset = -1;
+    }
+
+    /**
+     * Raise a CustomParseException with a message and the byte offset it occurred at.
+     * @param message The message to raise.
+     * @param offset The byte offset into the parsed input.
+     */
+    public CustomParseException(String message, int offset) {
+        super(message + " at offset " + offset);
+        this.offset = offset;
+    }
+
+    /**
+     * Get the byte offset the parse failed at.
+     * @return The byte offset into the parsed input, or -1 if unknown.
+     */
+    public int getOffset() {
+        return this.offset;
     }
 }
@@ -0,0 +1,357 @@
+package weatheraggregation.jsonparser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single-pass tokenizer over the UTF-8 bytes of a JSON document.
+ * It walks the bytes once, without trimming, splitting or regular expressions.
+ * Nested objects and arrays are validated, and kept as their raw JSON text.
+ */
+class JsonTokenizer {
+    private final byte[] bytes;
+    private final int start;
+    private final int end;
+    private int position;
+
+    JsonTokenizer(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.start = offset;
+        this.end = offset + length;
+        this.position = offset;
+    }
+
+    /**
+     * Parse the whole input as one flat JSON object.
+     * A trailing comma before the closing curly brace is tolerated.
+     * @return The JSON object, with every value as a string.
+     * @throws CustomParseException The input may not be a valid JSON object.
+     */
+    Map<String, String> parseDocument() throws CustomParseException {
+        this.skipWhitespace();
+        if (this.peek() != '{') throw this.error("String is not a JSON object");
+        Map<String, String> jsonObject = this.parseObject();
+
+        this.skipWhitespace();
+        if (this.position != this.end) throw this.error("Unexpected content after JSON object");
+        return jsonObject;
+    }
+
+    /**
+     * Parse the whole input as a list of flat JSON objects.
+     * The input may be a JSON array of objects, or newline-delimited objects.
+     * A trailing comma before the closing square bracket is tolerated.
+     * @return The JSON objects, each with its raw JSON text, in input order.
+     * @throws CustomParseException The input may not be a valid list of JSON objects.
+     */
+    List<ParsedJson> parseDocuments() throws CustomParseException {
+        List<ParsedJson> documents = new ArrayList<>();
+        this.skipWhitespace();
+
+        if (this.peek() == '[') {
+            this.position++;
+            while (true) {
+                this.skipWhitespace();
+                if (this.peek() == ']') {
+                    this.position++;
+                    break;
+                }
+
+                if (this.peek() != '{') throw this.error("Array item is not a JSON object");
+                documents.add(this.parseDocumentText());
+
+                // Items are delimited by comma
+                this.skipWhitespace();
+                int next = this.peek();
+                if (next == ',') {
+                    this.position++;
+                } else if (next != ']') {
+                    throw this.error("Expected ',' or ']'");
+                }
+            }
+        } else {
+            // Newline-delimited objects only need whitespace between them
+            while (this.position < this.end) {
+                if (this.peek() != '{') throw this.error("Line is not a JSON object");
+                documents.add(this.parseDocumentText());
+                this.skipWhitespace();
+            }
+        }
+
+        this.skipWhitespace();
+        if (this.position != this.end) throw this.error("Unexpected content after JSON array");
+        return documents;
+    }
+
+    /**
+     * Parse an object, keeping the raw JSON text it was parsed from.
+     * @return The JSON object and its text.
+     * @throws CustomParseException The object may be invalid.
+     */
+    private ParsedJson parseDocumentText() throws CustomParseException {
+        int objectStart = this.position;
+        Map<String, String> jsonObject = this.parseObject();
+        return new ParsedJson(jsonObject, new String(this.bytes, objectStart, this.position - objectStart, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parse an object, starting at its leading curly brace.
+     * @return The JSON object, with every value as a string.
+     * @throws CustomParseException The object may be invalid.
+     */
+    private Map<String, String> parseObject() throws CustomParseException {
+        Map<String, String> jsonObject = new HashMap<>();
+        this.expect('{');
+
+        while (true) {
+            this.skipWhitespace();
+            if (this.peek() == '}') {
+                this.position++;
+                return jsonObject;
+            }
+
+            // Items are a quoted key, a colon and a value
+            if (this.peek() != '"') throw this.error("Field is not in the form \"key:value\"");
+            String key = this.parseString();
+            this.skipWhitespace();
+            this.expect(':');
+            this.skipWhitespace();
+            jsonObject.put(key, this.parseValue());
+
+            // Pairs are delimited by comma
+            this.skipWhitespace();
+            int next = this.peek();
+            if (next == ',') {
+                this.position++;
+            } else if (next != '}') {
+                throw this.error("Expected ',' or '}'");
+            }
+        }
+    }
+
+    /**
+     * Parse any value, returning it as a string.
+     * Strings are unescaped, while numbers, literals, objects and arrays keep their raw text.
+     * @return The value as a string.
+     * @throws CustomParseException The value may be invalid.
+     */
+    private String parseValue() throws CustomParseException {
+        int next = this.peek();
+        if (next == '"') return this.parseString();
+
+        int valueStart = this.position;
+        if (next == '{' || next == '[') {
+            this.skipNested();
+        } else if (next == '-' || (next >= '0' && next <= '9')) {
+            this.skipNumber();
+        } else if (next == 't') {
+            this.skipLiteral("true");
+        } else if (next == 'f') {
+            this.skipLiteral("false");
+        } else if (next == 'n') {
+            this.skipLiteral("null");
+        } else {
+            throw this.error("Unexpected character in value");
+        }
+        return new String(this.bytes, valueStart, this.position - valueStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parse a string, starting at its opening quote, and unescape it.
+     * Control characters must be escaped, so a string never holds a raw line break.
+     * @return The unescaped string.
+     * @throws CustomParseException The string may be unterminated, or hold a bad escape or a raw control character.
+     */
+    private String parseString() throws CustomParseException {
+        this.expect('"');
+        int segmentStart = this.position;
+        StringBuilder unescaped = null;
+
+        while (this.position < this.end) {
+            byte current = this.bytes[this.position];
+            if (current == '"') {
+                String segment = new String(this.bytes, segmentStart, this.position - segmentStart, StandardCharsets.UTF_8);
+                this.position++;
+
+                // Only strings with escapes need a builder
+                if (unescaped == null) return segment;
+                return unescaped.append(segment).toString();
+            }
+
+            if (current == '\\') {
+                if (unescaped == null) unescaped = new StringBuilder();
+                unescaped.append(new String(this.bytes, segmentStart, this.position - segmentStart, StandardCharsets.UTF_8));
+                this.position++;
+                unescaped.append(this.parseEscape());
+                segmentStart = this.position;
+            } else if (current >= 0 && current < 0x20) {
+                // Bytes of multi-byte characters are negative, so only ASCII control characters land here
+                throw this.error("Unescaped control character in string");
+            } else {
+                this.position++;
+            }
+        }
+        throw this.error("Unterminated string");
+    }
+
+    /**
+     * Parse the character after a backslash in a string.
+     * @return The escaped character.
+     * @throws CustomParseException The escape may be invalid.
+     */
+    private char parseEscape() throws CustomParseException {
+        if (this.position >= this.end) throw this.error("Unterminated escape");
+        byte escape = this.bytes[this.position++];
+        return switch (escape) {
+            case '"' -> '"';
+            case '\\' -> '\\';
+            case '/' -> '/';
+            case 'b' -> '\b';
+            case 'f' -> '\f';
+            case 'n' -> '\n';
+            case 'r' -> '\r';
+            case 't' -> '\t';
+            case 'u' -> this.parseUnicodeEscape();
+            default -> {
+                this.position--;
+                throw this.error("Invalid escape");
+            }
+        };
+    }
+
+    /**
+     * Parse the four hex digits of a unicode escape.
+     * @return The escaped character.
+     * @throws CustomParseException The escape may not hold four hex digits.
+     */
+    private char parseUnicodeEscape() throws CustomParseException {
+        if (this.position + 4 > this.end) throw this.error("Unterminated unicode escape");
+        int codeUnit = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(this.bytes[this.position], 16);
+            if (digit < 0) throw this.error("Invalid unicode escape");
+            codeUnit = (codeUnit << 4) | digit;
+            this.position++;
+        }
+        return (char) codeUnit;
+    }
+
+    /**
+     * Skip over a nested object or array, checking that its brackets and strings are balanced.
+     * @throws CustomParseException The nested value may be unterminated or unbalanced.
+     */
+    private void skipNested() throws CustomParseException {
+        byte[] closers = new byte[8];
+        int depth = 0;
+
+        do {
+            if (this.position >= this.end) throw this.error("Unterminated nested value");
+            byte current = this.bytes[this.position];
+
+            if (current == '"') {
+                this.parseString();
+                continue;
+            }
+
+            if (current == '{' || current == '[') {
+                if (depth == closers.length) closers = Arrays.copyOf(closers, depth * 2);
+                closers[depth++] = (byte) (current == '{' ? '}' : ']');
+            } else if (current == '}' || current == ']') {
+                if (depth == 0 || closers[depth - 1] != current) throw this.error("Mismatched bracket");
+                depth--;
+            }
+            this.position++;
+        } while (depth > 0);
+    }
+
+    /**
+     * Skip over a number: an optional minus sign, an integer part, then an optional fraction and exponent.
+     * The integer part is a single zero, or digits that don't start with one.
+     * @throws CustomParseException A part of the number may hold no digits.
+     */
+    private void skipNumber() throws CustomParseException {
+        if (this.peek() == '-') this.position++;
+        if (this.peek() == '0') {
+            this.position++;
+        } else {
+            this.skipDigits();
+        }
+
+        if (this.peek() == '.') {
+            this.position++;
+            this.skipDigits();
+        }
+
+        int next = this.peek();
+        if (next == 'e' || next == 'E') {
+            this.position++;
+            next = this.peek();
+            if (next == '+' || next == '-') this.position++;
+            this.skipDigits();
+        }
+    }
+
+    /**
+     * Skip over one or more digits of a number.
+     * @throws CustomParseException There may be no digit at the current position.
+     */
+    private void skipDigits() throws CustomParseException {
+        int digitsStart = this.position;
+        while (this.position < this.end && this.bytes[this.position] >= '0' && this.bytes[this.position] <= '9') this.position++;
+        if (this.position == digitsStart) throw this.error("Invalid number");
+    }
+
+    /**
+     * Skip over a literal, such as true, false or null.
+     * @param literal The expected literal.
+     * @throws CustomParseException The input may not hold the literal.
+     */
+    private void skipLiteral(String literal) throws CustomParseException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (this.peek() != literal.charAt(i)) throw this.error("Invalid literal");
+            this.position++;
+        }
+    }
+
+    /**
+     * Skip any whitespace at the current position.
+     */
+    private void skipWhitespace() {
+        while (this.position < this.end) {
+            byte current = this.bytes[this.position];
+            if (current != ' ' && current != '\n' && current != '\r' && current != '\t') return;
+            this.position++;
+        }
+    }
+
+    /**
+     * Consume an expected byte.
+     * @param expected The expected byte.
+     * @throws CustomParseException The current byte may not be the expected one.
+     */
+    private void expect(char expected) throws CustomParseException {
+        if (this.peek() != expected) throw this.error("Expected '" + expected + "'");
+        this.position++;
+    }
+
+    /**
+     * Get the byte at the current position, without consuming it.
+     * @return The current byte, or -1 at the end of the input.
+     */
+    private int peek() {
+        return (this.position < this.end) ? this.bytes[this.position] : -1;
+    }
+
+    /**
+     * Create a parse exception at the current position.
+     * @param message The message of the exception.
+     * @return The exception, with its offset relative to the start of the input.
+     */
+    private CustomParseException error(String message) {
+        return new CustomParseException(message, this.position - this.start);
+    }
+}
@@ -0,0 +1,16 @@
+package weatheraggregation.jsonparser;
+
+import java.util.Map;
+
+/**
+ * A JSON object parsed from a list, along with the raw JSON text it was parsed from.
+ */
+public class ParsedJson {
+    public final Map<String, String> json;
+    public final String text;
+
+    public ParsedJson(Map<String, String> json, String text) {
+        this.json = json;
+        this.text = text;
+    }
+}
@@ -0,0 +1,110 @@
+package weatheraggregation.replicatedcontentserver;
+
+import weatheraggregation.core.AggregationClient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The health and latency of one AggregationServer that a ReplicatedContentServer fans out to.
+ * An endpoint that fails to respond is skipped by later rounds until it is due to be probed again,
+ * so a dead endpoint never costs a round anything but its probe.
+ */
+public class EndpointHealth {
+
+    // How long a failed endpoint is skipped before it is probed again
+    public static final long PROBE_NANOS = TimeUnit.SECONDS.toNanos(AggregationClient.SLEEP_SECONDS);
+
+    // The weight of each new latency in the moving average
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    // The hostname of the endpoint (in the form ip:port)
+    public final String hostname;
+
+    private int consecutiveFailures = 0;
+    private long probeAtNanos = 0;
+    private double latencyNanos = 0;
+    private long successes = 0;
+    private long failures = 0;
+
+    public EndpointHealth(String hostname) {
+        this.hostname = hostname;
+    }
+
+    /**
+     * Check whether the endpoint should be sent to, because it is healthy or due to be probed.
+     * @param nowNanos The current time, from System.nanoTime.
+     * @return Whether to send to the endpoint.
+     */
+    public synchronized boolean isAvailable(long nowNanos) {
+        return this.consecutiveFailures == 0 || nowNanos - this.probeAtNanos >= 0;
+    }
+
+    /**
+     * Check whether the endpoint responded to its last request.
+     * @return Whether the endpoint is healthy.
+     */
+    public synchronized boolean isHealthy() {
+        return this.consecutiveFailures == 0;
+    }
+
+    /**
+     * Record that the endpoint responded.
+     * @param latencyNanos How long the response took.
+     */
+    public synchronized void recordSuccess(long latencyNanos) {
+        this.latencyNanos = (this.successes == 0) ? latencyNanos : this.latencyNanos + LATENCY_WEIGHT * (latencyNanos - this.latencyNanos);
+        this.consecutiveFailures = 0;
+        this.successes++;
+    }
+
+    /**
+     * Record that the endpoint failed to respond, skipping it until it is due to be probed.
+     * @param nowNanos The current time, from System.nanoTime.
+     */
+    public synchronized void recordFailure(long nowNanos) {
+        this.recordFailure(nowNanos, PROBE_NANOS);
+    }
+
+    /**
+     * Record that the endpoint failed to respond, skipping it until it is due to be probed.
+     * @param nowNanos The current time, from System.nanoTime.
+     * @param probeDelayNanos How long to skip the endpoint for, such as the retry policy's delay.
+     */
+    public synchronized void recordFailure(long nowNanos, long probeDelayNanos) {
+        this.consecutiveFailures++;
+        this.probeAtNanos = nowNanos + probeDelayNanos;
+        this.failures++;
+    }
+
+    /**
+     * Get how many requests in a row the endpoint has failed to respond to.
+     * @return The number of consecutive failures.
+     */
+    public synchronized int getConsecutiveFailures() {
+        return this.consecutiveFailures;
+    }
+
+    /**
+     * Get the moving average of the endpoint's response latency.
+     * @return The average latency, in nanoseconds, or 0 if it has never responded.
+     */
+    public synchronized long getLatencyNanos() {
+        return (long) this.latencyNanos;
+    }
+
+    /**
+     * Get how many requests the endpoint has responded to.
+     * @return The number of responses.
+     */
+    public synchronized long getSuccesses() {
+        return this.successes;
+    }
+
+    /**
+     * Get how many requests the endpoint has failed to respond to.
+     * @return The number of failures.
+     */
+    public synchronized long getFailures() {
+        return this.failures;
+    }
+}
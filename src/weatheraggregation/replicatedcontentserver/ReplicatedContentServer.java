@@ -1,31 +1,65 @@
 package weatheraggregation.replicatedcontentserver;
 
 import weatheraggregation.contentserver.ContentServer;
+import weatheraggregation.core.AggregationClient;
 import weatheraggregation.core.ConversionHelpers;
+import weatheraggregation.core.FixedRetryPolicy;
+import weatheraggregation.core.Log;
+import weatheraggregation.core.RetryPolicy;
 
+import java.net.http.HttpRequest;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A fault-tolerant ContentServer that contains several "backup" instances.
  * If ContentServer fails to publish to its AggregationServer, we fail over to the backups.
+ * <p>
+ * Alternatively, in fan-out mode, every update is published to every AggregationServer at once, and each round waits
+ * for a quorum of them to accept it. Endpoints that fail to respond are skipped until they are due to be probed,
+ * so an outage costs no blind window while the primary's retries run out.
+ * <p>
+ * Every ContentServer and every fan-out round share one retry policy, which keeps its state per AggregationServer.
  */
 public class ReplicatedContentServer {
     private final List<ContentServer> contentServers;
+    private final List<EndpointHealth> endpointHealths;
     private int primaryIndex;
-    private boolean running = true;
+    private volatile boolean running = true;
+    private RetryPolicy retryPolicy = new FixedRetryPolicy();
+
+    // Publishes every round in fan-out mode (optionally null)
+    private ScheduledExecutorService fanOutScheduler;
 
     public ReplicatedContentServer(List<String> serverHostnames, String contentFilename) {
         this.contentServers = new ArrayList<>();
+        this.endpointHealths = new ArrayList<>();
         this.primaryIndex = 0;
 
         for (String hostname : serverHostnames) {
             contentServers.add(new CallbackContentServer(hostname, contentFilename, this::promoteNextServer));
+            endpointHealths.add(new EndpointHealth(hostname));
         }
     }
 
+    /**
+     * Set the retry policy shared by every ContentServer and by fan-out rounds.
+     * In failover mode, a policy that never gives up never fails over.
+     * @param retryPolicy The retry policy.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        for (ContentServer contentServer : this.contentServers) contentServer.setRetryPolicy(retryPolicy);
+    }
+
     /**
      * Get the primary ContentServer to send weather data from.
      * @return The primary ContentServer.
@@ -41,7 +75,7 @@ public class ReplicatedContentServer {
         // If we have shut down, ignore the promotion
         if (running) {
             primaryIndex = (primaryIndex + 1) % contentServers.size();
-            System.out.println("Promoted server " + primaryIndex + " to primary.");
+            Log.info("Promoted server " + primaryIndex + " to primary.");
             this.startPrimary();
         }
     }
@@ -53,6 +87,102 @@ public class ReplicatedContentServer {
         this.getPrimaryServer().startClient();
     }
 
+    /**
+     * Start publishing to every AggregationServer at once, every SLEEP_SECONDS seconds, instead of failing over.
+     * @param quorum The number of AggregationServers that must accept an update for each round to wait for.
+     */
+    public void startFanOut(int quorum) {
+        this.fanOutScheduler = Executors.newSingleThreadScheduledExecutor();
+        this.fanOutScheduler.scheduleAtFixedRate(() -> {
+            try {
+                int accepted = this.publishToAll(quorum);
+                if (accepted < quorum) Log.warn("Update was accepted by " + accepted + " of a quorum of " + quorum + " servers.");
+            } catch (RuntimeException e) {
+                Log.error("Failed to publish update: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 0, AggregationClient.SLEEP_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Publish the current update to every available AggregationServer concurrently, and wait until a quorum has
+     * accepted it or every request has completed. Requests still in flight after the quorum complete in the
+     * background, and still update their endpoint's health.
+     * An endpoint that fails, or refuses the update, is skipped for the retry policy's delay, or for PROBE_NANOS if
+     * the policy gives up on it. Endpoints the policy refuses, such as while their circuit is open, are skipped too.
+     * @param quorum The number of AggregationServers that must accept the update.
+     * @return The number of AggregationServers that accepted the update before this returned.
+     * @throws InterruptedException The wait can be interrupted.
+     */
+    public int publishToAll(int quorum) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        List<Integer> available = new ArrayList<>();
+        for (int i = 0; i < this.endpointHealths.size(); i++) {
+            EndpointHealth health = this.endpointHealths.get(i);
+            if (health.isAvailable(startNanos) && this.retryPolicy.allowRequest(health.hostname)) available.add(i);
+        }
+        if (available.isEmpty()) {
+            Log.warn("Every server is down, waiting to probe them.");
+            return 0;
+        }
+
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicInteger pending = new AtomicInteger(available.size());
+        CompletableFuture<Void> done = new CompletableFuture<>();
+
+        for (int i : available) {
+            ContentServer contentServer = this.contentServers.get(i);
+            EndpointHealth health = this.endpointHealths.get(i);
+
+            // Time out before the next round, so a hung server is skipped by it
+            HttpRequest request;
+            synchronized (contentServer) {
+                request = HttpRequest.newBuilder(contentServer.createRequest(), (name, value) -> true)
+                        .timeout(Duration.ofSeconds(AggregationClient.SLEEP_SECONDS))
+                        .build();
+            }
+
+            contentServer.sendRequestAsync(request).whenComplete((response, e) -> {
+                if (e == null) {
+                    synchronized (contentServer) {
+                        contentServer.processResponse(response);
+                    }
+                    if (response.statusCode() / 100 == 2) accepted.incrementAndGet();
+                }
+
+                if (e == null && !RetryPolicy.isRefusal(response)) {
+                    health.recordSuccess(System.nanoTime() - startNanos);
+                    this.retryPolicy.recordSuccess(health.hostname);
+                } else {
+                    if (health.isHealthy()) Log.warn("Server " + health.hostname + " failed to respond, skipping it.");
+                    long retryAfterMillis = (e == null) ? RetryPolicy.parseRetryAfter(response.headers().firstValue("Retry-After").orElse(null)) : -1;
+                    long delayMillis = this.retryPolicy.recordFailure(health.hostname, health.getConsecutiveFailures() + 1, retryAfterMillis);
+                    long probeDelayNanos = (delayMillis == RetryPolicy.GIVE_UP) ? EndpointHealth.PROBE_NANOS : TimeUnit.MILLISECONDS.toNanos(delayMillis);
+                    health.recordFailure(System.nanoTime(), probeDelayNanos);
+                }
+
+                int remaining = pending.decrementAndGet();
+                if (accepted.get() >= quorum || remaining == 0) done.complete(null);
+            });
+        }
+
+        try {
+            done.get();
+        } catch (ExecutionException e) {
+            // Never completed exceptionally
+        }
+        return accepted.get();
+    }
+
+    /**
+     * Get the health of every AggregationServer, as tracked in fan-out mode.
+     * @return The health of each server, in the order given.
+     */
+    public List<EndpointHealth> getEndpointHealths() {
+        return this.endpointHealths;
+    }
+
     /**
      * Shut down the primary ContentServer, failing over.
      */
@@ -65,7 +195,12 @@ public class ReplicatedContentServer {
      */
     public void shutdownClient() {
         running = false;
-        this.shutdownPrimary();
+        if (this.fanOutScheduler != null) {
+            this.fanOutScheduler.shutdownNow();
+            Log.info("Client has been shut down.");
+        } else {
+            this.shutdownPrimary();
+        }
     }
 
     /**
@@ -73,15 +208,29 @@ public class ReplicatedContentServer {
      * @param args Command-line arguments.
      */
     public static void main(String[] args) {
-        if (args.length < 2) {
-            System.err.println("Usage: java ReplicatedContentServer <content_filename> <hostname1> <hostname2> ...");
+        List<String> arguments = ConversionHelpers.argsToPositionals(args);
+        Map<String, String> options = ConversionHelpers.argsToOptions(args);
+
+        if (arguments.size() < 2) {
+            Log.error("Usage: java ReplicatedContentServer <content_filename> <hostname1> <hostname2> ... --fan-out? --quorum=<count>? --backoff? --max-retries=<count>?");
             return;
         }
 
-        String contentFilename = args[0];
-        List<String> serverHostnames = new ArrayList<>(Arrays.asList(args).subList(1, args.length));
+        String contentFilename = arguments.get(0);
+        List<String> serverHostnames = new ArrayList<>(arguments.subList(1, arguments.size()));
 
         ReplicatedContentServer replicatedServer = new ReplicatedContentServer(serverHostnames, contentFilename);
-        replicatedServer.startPrimary();
+        if (!options.containsKey("fan-out")) {
+            // Backing off must still give up eventually, or we would never fail over
+            options.putIfAbsent("max-retries", String.valueOf(AggregationClient.MAX_RETRIES));
+        }
+        replicatedServer.setRetryPolicy(RetryPolicy.fromOptions(options));
+        if (options.containsKey("fan-out")) {
+            // Wait for a majority of servers by default
+            int quorum = Integer.parseInt(options.getOrDefault("quorum", String.valueOf(serverHostnames.size() / 2 + 1)));
+            replicatedServer.startFanOut(quorum);
+        } else {
+            replicatedServer.startPrimary();
+        }
     }
 }
@@ -2,16 +2,42 @@ package weatheraggregation.test;
 
 import org.junit.Test;
 import weatheraggregation.aggregationserver.AggregationServer;
+import weatheraggregation.aggregationserver.BodyReader;
+import weatheraggregation.aggregationserver.ExecutorMode;
+import weatheraggregation.aggregationserver.ExpiryWheel;
+import weatheraggregation.aggregationserver.FileWeatherStore;
+import weatheraggregation.aggregationserver.PayloadTooLargeException;
+import weatheraggregation.aggregationserver.ReplicationFollower;
+import weatheraggregation.aggregationserver.SubscriptionHub;
+import weatheraggregation.aggregationserver.WeatherIndex;
 import weatheraggregation.contentserver.ContentServer;
+import weatheraggregation.core.EncodingHelpers;
 import weatheraggregation.core.FileHelpers;
+import weatheraggregation.core.WeatherRecord;
+import weatheraggregation.getclient.GETClient;
 import weatheraggregation.jsonparser.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class AggregationServerTests {
     /**
@@ -73,4 +99,344 @@ public class AggregationServerTests {
         // Shutdown the server
         server.shutdownServer();
     }
+
+    /**
+     Serve PUTs and GETs with every exchange running on its own virtual thread.
+     */
+    @Test
+    public void serveWithVirtualThreads() throws IOException, InterruptedException {
+        // Set up the aggregationServer (server), contentServer (putClient) and GETClient (getClient)
+        TestHelpers.swapFiles(TestHelpers.DIRECTORY + "testdata/0_entry.tst", TestHelpers.WEATHER_DATA_FILENAME);
+        AggregationServer server = new AggregationServer(new FileWeatherStore(TestHelpers.WEATHER_DATA_FILENAME), TestHelpers.PORT, true, ExecutorMode.VIRTUAL, 1);
+        ContentServer putClient = new ContentServer(TestHelpers.HOSTNAME, TestHelpers.DIRECTORY + "testdata/content_data_1.tst");
+        GETClient getClient = new GETClient(TestHelpers.HOSTNAME, "IDS00001");
+
+        // Push data and ensure the response is 201
+        server.startServer();
+        HttpResponse<String> response = putClient.sendRequest(putClient.createRequest());
+        assertEquals(201, response.statusCode());
+
+        // Fetch the data back and ensure the response is 200
+        response = getClient.sendRequest(getClient.createRequest());
+        assertEquals(200, response.statusCode());
+
+        // Shutdown the server
+        server.shutdownServer();
+    }
+
+    /**
+     Accept gzipped PUT bodies once advertised, and gzip GET responses for clients that accept it.
+     */
+    @Test
+    public void serveCompressedData() throws IOException, InterruptedException, CustomParseException {
+        // Set up the aggregationServer (server), contentServer (putClient) and GETClient (getClient)
+        TestHelpers.swapFiles(TestHelpers.DIRECTORY + "testdata/0_entry.tst", TestHelpers.WEATHER_DATA_FILENAME);
+        AggregationServer server = new AggregationServer(TestHelpers.WEATHER_DATA_FILENAME, TestHelpers.PORT, true);
+        ContentServer putClient = new ContentServer(TestHelpers.HOSTNAME, TestHelpers.DIRECTORY + "testdata/content_data_1.tst");
+        GETClient getClient = new GETClient(TestHelpers.HOSTNAME, "IDS00001");
+
+        // The first PUT learns that the server accepts gzip, so the second PUT is compressed
+        server.startServer();
+        HttpResponse<String> response = putClient.sendRequest(putClient.createRequest());
+        putClient.processResponse(response);
+        HttpRequest request = putClient.createRequest();
+        assertEquals("gzip", request.headers().firstValue("Content-Encoding").orElse(null));
+
+        // Ensure the compressed PUT is committed uncompressed
+        response = putClient.sendRequest(request);
+        assertEquals(200, response.statusCode());
+        List<String[]> entries = FileHelpers.readWeatherFileAll(TestHelpers.WEATHER_DATA_FILENAME);
+        assertEquals("IDS00001", CustomJsonParser.stringToJson(entries.getFirst()[3]).get("id"));
+
+        // Fetch the data back gzipped, and ensure it is decoded
+        response = getClient.sendRequest(getClient.createRequest());
+        assertEquals(200, response.statusCode());
+        assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+        assertEquals("IDS00001", CustomJsonParser.stringToJson(response.body()).get("id"));
+
+        // Shutdown the server
+        server.shutdownServer();
+    }
+
+    /**
+     Refuse a PUT body larger than the maximum body size with a 413, and commit nothing.
+     */
+    @Test
+    public void refuseOversizedBody() throws IOException, InterruptedException {
+        // Set up a server that only accepts tiny bodies, and a contentServer (client)
+        TestHelpers.swapFiles(TestHelpers.DIRECTORY + "testdata/0_entry.tst", TestHelpers.WEATHER_DATA_FILENAME);
+        AggregationServer server = new AggregationServer(new FileWeatherStore(TestHelpers.WEATHER_DATA_FILENAME), TestHelpers.PORT, true, ExecutorMode.DISPATCHER, 1, 64);
+        ContentServer client = new ContentServer(TestHelpers.HOSTNAME, TestHelpers.DIRECTORY + "testdata/content_data_1.tst");
+
+        // Push data and ensure the response is 413
+        server.startServer();
+        HttpResponse<String> response = client.sendRequest(client.createRequest());
+        assertEquals(413, response.statusCode());
+
+        // Ensure nothing was committed
+        List<String[]> entries = FileHelpers.readWeatherFileAll(TestHelpers.WEATHER_DATA_FILENAME);
+        assertEquals(0, entries.size());
+
+        // Shutdown the server
+        server.shutdownServer();
+    }
+
+    /**
+     Read bodies of exactly their Content-Length, and fail on short or oversized streams.
+     */
+    @Test
+    public void bodyReaderEnforcesLengths() throws IOException {
+        BodyReader reader = new BodyReader(8);
+        byte[] bytes = "{\"a\":1}".getBytes();
+
+        // Read exactly the Content-Length, ignoring anything after it
+        try (BodyReader.Body body = reader.read(new ByteArrayInputStream("{}trailing".getBytes()), 2)) {
+            assertEquals("{}", new String(body.bytes, 0, body.length));
+        }
+
+        // Read a stream with no Content-Length to its end
+        try (BodyReader.Body body = reader.read(new ByteArrayInputStream(bytes), -1)) {
+            assertEquals(bytes.length, body.length);
+        }
+
+        // A stream that ends early, or holds more than the maximum, fails
+        try {
+            reader.read(new ByteArrayInputStream(bytes), 8).close();
+            fail("Expected an EOFException");
+        } catch (EOFException ignored) {}
+        try {
+            reader.read(new ByteArrayInputStream("{\"ab\":12}".getBytes()), -1).close();
+            fail("Expected a PayloadTooLargeException");
+        } catch (PayloadTooLargeException ignored) {}
+    }
+
+    /**
+     Export every station's current record as gzipped, newline-delimited JSON.
+     */
+    @Test
+    public void exportAllStations() throws IOException, InterruptedException, CustomParseException {
+        // Set up the file and server
+        TestHelpers.swapFiles(TestHelpers.DIRECTORY + "testdata/3_entry.tst", TestHelpers.WEATHER_DATA_FILENAME);
+        AggregationServer server = new AggregationServer(TestHelpers.WEATHER_DATA_FILENAME, TestHelpers.PORT, true);
+
+        // Request the export, compressed
+        server.startServer();
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://" + TestHelpers.HOSTNAME + "/export"))
+                .header("Accept-Encoding", "gzip")
+                .GET()
+                .build();
+        HttpResponse<String> response = HttpClient.newHttpClient().send(request, EncodingHelpers.decodingBodyHandler());
+
+        // Ensure every station is exported, one per line
+        assertEquals(200, response.statusCode());
+        assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+        Set<String> stationIds = new HashSet<>();
+        for (String line : response.body().split("\n")) stationIds.add(CustomJsonParser.stringToJson(line).get("id"));
+        assertEquals(Set.of("TEST00001", "TEST00002", "TEST00003"), stationIds);
+
+        // Shutdown the server
+        server.shutdownServer();
+    }
+
+    /**
+     Count requests by endpoint and status code once their responses are sent, and time their storage, in the Prometheus text format.
+     */
+    @Test
+    public void serveMetrics() throws IOException, InterruptedException {
+        // Set up the aggregationServer (server), contentServer (putClient) and GETClient (getClient)
+        TestHelpers.swapFiles(TestHelpers.DIRECTORY + "testdata/0_entry.tst", TestHelpers.WEATHER_DATA_FILENAME);
+        AggregationServer server = new AggregationServer(TestHelpers.WEATHER_DATA_FILENAME, TestHelpers.PORT, true);
+        ContentServer putClient = new ContentServer(TestHelpers.HOSTNAME, TestHelpers.DIRECTORY + "testdata/content_data_1.tst");
+        GETClient getClient = new GETClient(TestHelpers.HOSTNAME, "IDS00001");
+        GETClient missingClient = new GETClient(TestHelpers.HOSTNAME, "MISSING");
+
+        // Push data, then fetch it and a missing station
+        server.startServer();
+        putClient.sendRequest(putClient.createRequest());
+        getClient.sendRequest(getClient.createRequest());
+        missingClient.sendRequest(missingClient.createRequest());
+
+        // Export every record, leaving its stream a moment to be recorded after the last byte
+        HttpRequest exportRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://" + TestHelpers.HOSTNAME + "/export"))
+                .GET()
+                .build();
+        HttpClient.newHttpClient().send(exportRequest, HttpResponse.BodyHandlers.ofString());
+        TimeUnit.MILLISECONDS.sleep(200);
+
+        // Ensure each request is counted under its status code
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://" + TestHelpers.HOSTNAME + "/metrics"))
+                .GET()
+                .build();
+        HttpResponse<String> response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        List<String> lines = List.of(response.body().split("\n"));
+        assertTrue(lines.contains("weather_requests_total{endpoint=\"put\",code=\"201\"} 1"));
+        assertTrue(lines.contains("weather_requests_total{endpoint=\"get\",code=\"200\"} 1"));
+        assertTrue(lines.contains("weather_requests_total{endpoint=\"get\",code=\"404\"} 1"));
+        assertTrue(lines.contains("weather_requests_total{endpoint=\"export\",code=\"200\"} 1"));
+        assertTrue(lines.contains("weather_request_duration_seconds_count{endpoint=\"export\"} 1"));
+        assertTrue(lines.stream().noneMatch(line -> line.startsWith("weather_request_duration_seconds_count{endpoint=\"subscribe\"}")));
+        assertTrue(lines.contains("weather_store_seconds_count{operation=\"commit\"} 1"));
+        assertTrue(lines.contains("weather_json_parse_seconds_count 1"));
+        assertTrue(lines.contains("weather_stations 1"));
+
+        // Shutdown the server
+        server.shutdownServer();
+    }
+
+    /**
+     Replicate commits from a primary to a follower, which refuses PUTs, resumes from its offset after a restart, and accepts PUTs once promoted.
+     */
+    @Test
+    public void replicateToFollower() throws IOException, InterruptedException {
+        // Set up a primary, and a follower with its own weather file
+        String followerFilename = TestHelpers.DIRECTORY + "test_weather_follower.txt";
+        String offsetFilename = followerFilename + AggregationServer.REPLICATION_OFFSET_SUFFIX;
+        Files.deleteIfExists(Path.of(offsetFilename));
+        TestHelpers.swapFiles(TestHelpers.DIRECTORY + "testdata/0_entry.tst", TestHelpers.WEATHER_DATA_FILENAME);
+        TestHelpers.swapFiles(TestHelpers.DIRECTORY + "testdata/0_entry.tst", followerFilename);
+        String followerHostname = TestHelpers.IP + ":" + (TestHelpers.PORT + 1);
+
+        AggregationServer primary = new AggregationServer(TestHelpers.WEATHER_DATA_FILENAME, TestHelpers.PORT, true);
+        AggregationServer follower = new AggregationServer(followerFilename, TestHelpers.PORT + 1, true);
+        ReplicationFollower replicationFollower = new ReplicationFollower(TestHelpers.HOSTNAME, offsetFilename);
+        follower.follow(replicationFollower);
+        primary.startServer();
+        follower.startServer();
+
+        // Commit to the primary, and ensure the follower serves it
+        ContentServer putClient = new ContentServer(TestHelpers.HOSTNAME, TestHelpers.DIRECTORY + "testdata/content_data_1.tst");
+        assertEquals(201, putClient.sendRequest(putClient.createRequest()).statusCode());
+        GETClient followerClient = new GETClient(followerHostname, "IDS00001");
+        assertEquals(200, awaitStatus(followerClient, 200));
+
+        // Ensure the follower refuses PUTs while it follows
+        ContentServer followerPutClient = new ContentServer(followerHostname, TestHelpers.DIRECTORY + "testdata/content_data_2.tst");
+        assertEquals(503, followerPutClient.sendRequest(followerPutClient.createRequest()).statusCode());
+
+        // Restart the follower after the primary commits again, and ensure it resumes from its saved offset
+        follower.shutdownServer();
+        ContentServer otherPutClient = new ContentServer(TestHelpers.HOSTNAME, TestHelpers.DIRECTORY + "testdata/content_data_2.tst");
+        assertEquals(201, otherPutClient.sendRequest(otherPutClient.createRequest()).statusCode());
+
+        follower = new AggregationServer(followerFilename, TestHelpers.PORT + 1, true);
+        replicationFollower = new ReplicationFollower(TestHelpers.HOSTNAME, offsetFilename);
+        follower.follow(replicationFollower);
+        follower.startServer();
+        assertEquals(1, replicationFollower.getOffset());
+        assertEquals(200, awaitStatus(new GETClient(followerHostname, "IDS00002"), 200));
+
+        // Promote the follower explicitly, and ensure it then accepts PUTs
+        HttpRequest promoteRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://" + followerHostname + "/replication"))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+        assertEquals(200, HttpClient.newHttpClient().send(promoteRequest, HttpResponse.BodyHandlers.discarding()).statusCode());
+        assertFalse(replicationFollower.isFollowing());
+        assertFalse(Files.exists(Path.of(offsetFilename)));
+        assertNotEquals(503, followerPutClient.sendRequest(followerPutClient.createRequest()).statusCode());
+
+        // Shutdown the servers
+        follower.shutdownServer();
+        primary.shutdownServer();
+        Files.deleteIfExists(Path.of(followerFilename));
+        Files.deleteIfExists(Path.of(offsetFilename));
+    }
+
+    /**
+     Send a client's GET every 100 ms until it receives a status code, or 5 seconds pass.
+     */
+    private static int awaitStatus(GETClient client, int statusCode) throws IOException, InterruptedException {
+        int status = 0;
+        for (int attempt = 0; attempt < 50 && status != statusCode; attempt++) {
+            if (attempt > 0) TimeUnit.MILLISECONDS.sleep(100);
+            status = client.sendRequest(client.createRequest()).statusCode();
+        }
+        return status;
+    }
+
+    /**
+     Drop a slow subscriber's oldest events once its buffer is full, without blocking the publisher.
+     */
+    @Test
+    public void subscriptionDropsOldestEvents() throws InterruptedException {
+        SubscriptionHub hub = new SubscriptionHub(2);
+        SubscriptionHub.Subscription subscription = hub.subscribe(null);
+        WeatherRecord[] records = {
+                new WeatherRecord("TEST00001", 1000, 1, "{}"),
+                new WeatherRecord("TEST00002", 1000, 2, "{}"),
+                new WeatherRecord("TEST00003", 1000, 3, "{}")
+        };
+        for (WeatherRecord record : records) hub.publish(record);
+
+        // Only the two newest events are buffered
+        assertEquals(1, subscription.getDropped());
+        assertArrayEquals(SubscriptionHub.encodeEvent(records[1]), subscription.poll(0, TimeUnit.SECONDS));
+        assertArrayEquals(SubscriptionHub.encodeEvent(records[2]), subscription.poll(0, TimeUnit.SECONDS));
+        assertNull(subscription.poll(0, TimeUnit.SECONDS));
+    }
+
+    /**
+     Skip a commit already sent to a subscriber as its current record, so it is not delivered twice.
+     */
+    @Test
+    public void subscriptionSkipsSentRecord() throws InterruptedException {
+        SubscriptionHub hub = new SubscriptionHub();
+        SubscriptionHub.Subscription subscription = hub.subscribe(null);
+        WeatherRecord current = new WeatherRecord("TEST00001", 1000, 2, "{}");
+        WeatherRecord other = new WeatherRecord("TEST00002", 1000, 1, "{}");
+        WeatherRecord newer = new WeatherRecord("TEST00001", 1000, 3, "{}");
+
+        // The current record is committed after subscribing, but before it is read
+        hub.publish(current);
+        subscription.skipThrough(current);
+        hub.publish(other);
+        hub.publish(newer);
+
+        // Ensure other stations and newer commits are still delivered
+        assertArrayEquals(SubscriptionHub.encodeEvent(other), subscription.poll(0, TimeUnit.SECONDS));
+        assertArrayEquals(SubscriptionHub.encodeEvent(newer), subscription.poll(0, TimeUnit.SECONDS));
+        assertNull(subscription.poll(0, TimeUnit.SECONDS));
+    }
+
+    /**
+     Keep the most recent remaining record as the latest when the latest is removed, such as by a follower's snapshot.
+     */
+    @Test
+    public void indexKeepsLatestAfterRemoval() {
+        WeatherIndex index = new WeatherIndex();
+        WeatherRecord older = new WeatherRecord("TEST00001", 1000, 1, "{}");
+        WeatherRecord newer = new WeatherRecord("TEST00002", 2000, 2, "{}");
+        index.put(older);
+        index.put(newer);
+
+        // Ensure removing the latest record leaves the next most recent, rather than nothing
+        assertTrue(index.remove(newer));
+        assertEquals(older, index.getLatest());
+        assertTrue(index.remove(older));
+        assertNull(index.getLatest());
+    }
+
+    /**
+     Expire records from the timing wheel exactly when they reach 30 seconds old, and no sooner.
+     */
+    @Test
+    public void expiryWheelExpiresOnDeadline() {
+        ExpiryWheel wheel = new ExpiryWheel(AggregationServer.PURGE_SECONDS, 1000);
+        WeatherRecord oldRecord = new WeatherRecord("TEST00001", 990, 1, "{}");
+        WeatherRecord newRecord = new WeatherRecord("TEST00002", 1000, 1, "{}");
+        wheel.schedule(oldRecord);
+        wheel.schedule(newRecord);
+
+        // Nothing expires before the first deadline
+        assertEquals(0, wheel.advance(1019).size());
+
+        // Each record expires on its own deadline
+        assertEquals(List.of(oldRecord), wheel.advance(1020));
+        assertEquals(0, wheel.advance(1029).size());
+        assertEquals(List.of(newRecord), wheel.advance(1030));
+    }
 }
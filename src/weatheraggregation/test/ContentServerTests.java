@@ -8,12 +8,15 @@ import weatheraggregation.core.FileHelpers;
 import weatheraggregation.jsonparser.*;
 
 import java.io.IOException;
+import java.net.ServerSocket;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class ContentServerTests {
     /**
@@ -305,6 +308,71 @@ public class ContentServerTests {
         server.shutdownServer();
     }
 
+    /**
+     Send data from several weather stations in one batch, and confirm that each is committed.
+     */
+    @Test
+    public void sendBatchData() throws IOException, InterruptedException {
+        // Set up the aggregationServer (server) and a batching contentServer (client)
+        TestHelpers.swapFiles(TestHelpers.DIRECTORY + "testdata/0_entry.tst", TestHelpers.WEATHER_DATA_FILENAME);
+        AggregationServer server = new AggregationServer(TestHelpers.WEATHER_DATA_FILENAME, TestHelpers.PORT, true);
+        ContentServer client = new ContentServer(TestHelpers.HOSTNAME, List.of(
+                TestHelpers.DIRECTORY + "testdata/content_data_1.tst",
+                TestHelpers.DIRECTORY + "testdata/content_data_2.tst",
+                TestHelpers.DIRECTORY + "testdata/no_id_content_data.tst"
+        ));
+
+        // Make a request and get a response
+        server.startServer();
+        HttpRequest request = client.createRequest();
+        HttpResponse<String> response = client.sendRequest(request);
+        client.processResponse(response);
+
+        // Ensure the response is 200, with a status for each station
+        assertEquals(200, response.statusCode());
+        assertEquals("201 IDS00001\n201 IDS00002\n500 -\n", response.body());
+
+        // Check that both stations were committed, with the same lamport time
+        List<String[]> entries = FileHelpers.readWeatherFileAll(TestHelpers.WEATHER_DATA_FILENAME);
+        assertEquals(2, entries.size());
+        assertEquals(entries.getFirst()[0], "IDS00002");
+        assertEquals(entries.getFirst()[2], "1");
+        assertEquals(entries.get(1)[0], "IDS00001");
+
+        // Send the batch again, and ensure both stations are replaced
+        request = client.createRequest();
+        response = client.sendRequest(request);
+        client.processResponse(response);
+        assertEquals("200 IDS00001\n200 IDS00002\n500 -\n", response.body());
+
+        // Shutdown the server
+        server.shutdownServer();
+    }
+
+    /**
+     Pipeline PUTs to a stalled server, and ensure the in-flight limit holds, with ticks skipped rather than queued.
+     */
+    @Test
+    public void pipelineBoundsInFlightRequests() throws IOException, InterruptedException {
+        // Set up a server that accepts connections but never responds
+        ContentServer client = new ContentServer(TestHelpers.HOSTNAME, TestHelpers.DIRECTORY + "testdata/content_data_1.tst");
+        try (ServerSocket stalledServer = new ServerSocket(TestHelpers.PORT)) {
+            assertTrue(stalledServer.isBound());
+
+            // Send every 10 ms, with at most 2 requests in flight that time out after 300 ms
+            client.startPipelinedClient(10, 2, Duration.ofMillis(300));
+            for (int i = 0; i < 100; i++) {
+                assertTrue(client.getInFlight() <= 2);
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            client.shutdownClient();
+        }
+
+        // Ensure full ticks were skipped, but timed out requests made room for more
+        assertTrue(client.getSkippedTicks() > 0);
+        assertTrue(client.getSkippedTicks() < 100);
+    }
+
     /**
      Integration Test: Push data every 2 seconds.
      */
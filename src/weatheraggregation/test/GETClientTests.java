@@ -2,17 +2,26 @@ package weatheraggregation.test;
 
 import org.junit.Test;
 import weatheraggregation.aggregationserver.AggregationServer;
+import weatheraggregation.contentserver.ContentServer;
 import weatheraggregation.core.AggregationClient;
 import weatheraggregation.jsonparser.*;
 
 import java.io.IOException;
+import java.net.ServerSocket;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 import weatheraggregation.getclient.GETClient;
+import weatheraggregation.getclient.ReplicaSelector;
 import weatheraggregation.jsonparser.CustomJsonParser;
 
 public class GETClientTests {
@@ -193,6 +202,159 @@ public class GETClientTests {
         server.shutdownServer();
     }
 
+    /**
+     Revalidate unchanged data with its ETag and receive a 304, then fetch changed data in full.
+     */
+    @Test
+    public void revalidateUnchangedData() throws IOException, InterruptedException {
+        // Set up the file, server and clients
+        TestHelpers.swapFiles(TestHelpers.DIRECTORY + "testdata/1_entry.tst", TestHelpers.WEATHER_DATA_FILENAME);
+        AggregationServer server = new AggregationServer(TestHelpers.WEATHER_DATA_FILENAME, TestHelpers.PORT, true);
+        GETClient client = new GETClient(TestHelpers.HOSTNAME);
+        ContentServer putClient = new ContentServer(TestHelpers.HOSTNAME, TestHelpers.DIRECTORY + "testdata/content_data_1.tst");
+
+        // Make a request and keep its body and ETag
+        server.startServer();
+        HttpResponse<String> response = client.sendRequest(client.createRequest());
+        client.processResponse(response);
+        assertEquals(200, response.statusCode());
+        String body = client.cachedBody;
+
+        // Revalidate, and ensure the response is 304 with no body
+        response = client.sendRequest(client.createRequest());
+        client.processResponse(response);
+        assertEquals(304, response.statusCode());
+        assertEquals("", response.body());
+        assertEquals(body, client.cachedBody);
+
+        // Commit newer data, and ensure it is fetched in full
+        putClient.sendRequest(putClient.createRequest());
+        response = client.sendRequest(client.createRequest());
+        client.processResponse(response);
+        assertEquals(200, response.statusCode());
+        assertNotEquals(body, client.cachedBody);
+
+        // Shutdown the server
+        server.shutdownServer();
+    }
+
+    /**
+     Subscribe to a station, and receive its data as it is committed without polling.
+     */
+    @Test
+    public void subscribeToUpdates() throws IOException, InterruptedException, CustomParseException {
+        // Set up the file, server and clients
+        TestHelpers.swapFiles(TestHelpers.DIRECTORY + "testdata/0_entry.tst", TestHelpers.WEATHER_DATA_FILENAME);
+        AggregationServer server = new AggregationServer(TestHelpers.WEATHER_DATA_FILENAME, TestHelpers.PORT, true);
+        GETClient client = new GETClient(TestHelpers.HOSTNAME, "IDS00001");
+        ContentServer putClient = new ContentServer(TestHelpers.HOSTNAME, TestHelpers.DIRECTORY + "testdata/content_data_1.tst");
+
+        // Subscribe, then commit data for the station
+        server.startServer();
+        client.startSubscription();
+        TimeUnit.MILLISECONDS.sleep(500);
+        putClient.sendRequest(putClient.createRequest());
+
+        // Wait for the data to be pushed to the client
+        for (int i = 0; i < 50 && client.cachedBody == null; i++) TimeUnit.MILLISECONDS.sleep(100);
+        Map<String, String> jsonObject = CustomJsonParser.stringToJson(client.cachedBody);
+        assertEquals("IDS00001", jsonObject.get("id"));
+
+        // Shutdown the client and server
+        client.shutdownClient();
+        server.shutdownServer();
+    }
+
+    /**
+     Hedge reads around a stalled replica, answering each from the live replica and cancelling the stalled reads.
+     */
+    @Test
+    public void hedgeAroundStalledReplica() throws IOException, InterruptedException {
+        // Set up the file, a live replica, and a stalled replica that accepts connections but never responds
+        TestHelpers.swapFiles(TestHelpers.DIRECTORY + "testdata/1_entry.tst", TestHelpers.WEATHER_DATA_FILENAME);
+        AggregationServer server = new AggregationServer(TestHelpers.WEATHER_DATA_FILENAME, TestHelpers.PORT, true);
+        String stalledHostname = TestHelpers.IP + ":" + (TestHelpers.PORT + 1);
+        ReplicaSelector replicas = new ReplicaSelector(List.of(stalledHostname, TestHelpers.HOSTNAME));
+        GETClient client = new GETClient(replicas, null);
+
+        server.startServer();
+        try (ServerSocket stalledReplica = new ServerSocket(TestHelpers.PORT + 1)) {
+            assertTrue(stalledReplica.isBound());
+
+            // Ensure every read is answered well before the stalled replica could
+            long startNanos = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                assertEquals(200, client.sendHedged().statusCode());
+            }
+            assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(5));
+
+            // Ensure the stalled reads were cancelled, rather than left outstanding
+            for (ReplicaSelector.Replica replica : replicas.getReplicas()) {
+                assertEquals(0, replica.getOutstanding());
+            }
+        }
+
+        // Shutdown the server
+        server.shutdownServer();
+    }
+
+    /**
+     Fail over from a replica that refuses connections, without waiting for the hedge delay.
+     */
+    @Test
+    public void failOverFromDeadReplica() throws IOException, InterruptedException {
+        // Set up the file and a live replica, alongside a replica that isn't running
+        TestHelpers.swapFiles(TestHelpers.DIRECTORY + "testdata/1_entry.tst", TestHelpers.WEATHER_DATA_FILENAME);
+        AggregationServer server = new AggregationServer(TestHelpers.WEATHER_DATA_FILENAME, TestHelpers.PORT, true);
+        String deadHostname = TestHelpers.IP + ":" + (TestHelpers.PORT + 2);
+        GETClient client = new GETClient(new ReplicaSelector(List.of(deadHostname, TestHelpers.HOSTNAME)), null);
+
+        // Ensure every read is answered by the live replica
+        server.startServer();
+        for (int i = 0; i < 10; i++) {
+            HttpResponse<String> response = client.sendHedged();
+            assertEquals(200, response.statusCode());
+            assertEquals(TestHelpers.PORT, response.uri().getPort());
+        }
+
+        // Shutdown the server
+        server.shutdownServer();
+    }
+
+    /**
+     Pipeline GETs without waiting for responses, and process every response in the order its request was sent.
+     */
+    @Test
+    public void pipelineProcessesInSendOrder() throws IOException, InterruptedException {
+        // Set up the file, server and a client that records the Lamport time of each processed request
+        TestHelpers.swapFiles(TestHelpers.DIRECTORY + "testdata/1_entry.tst", TestHelpers.WEATHER_DATA_FILENAME);
+        AggregationServer server = new AggregationServer(TestHelpers.WEATHER_DATA_FILENAME, TestHelpers.PORT, true);
+        List<Long> processedTimes = Collections.synchronizedList(new ArrayList<>());
+        GETClient client = new GETClient(TestHelpers.HOSTNAME, "TEST00001") {
+            @Override
+            public void processResponse(HttpResponse<String> response) {
+                processedTimes.add(Long.parseLong(response.request().headers().firstValue("Lamport-time").orElse("0")));
+                super.processResponse(response);
+            }
+        };
+
+        // Send every 5 ms for a second, with at most 4 requests in flight
+        server.startServer();
+        client.startPipelinedClient(5, 4, Duration.ofSeconds(2));
+        TimeUnit.SECONDS.sleep(1);
+        client.shutdownClient();
+        TimeUnit.MILLISECONDS.sleep(500);
+
+        // Ensure far more requests were sent than one every 2 seconds, and processed in send order
+        assertTrue(processedTimes.size() > 50);
+        for (int i = 1; i < processedTimes.size(); i++) {
+            assertTrue(processedTimes.get(i) > processedTimes.get(i - 1));
+        }
+
+        // Shutdown the server
+        server.shutdownServer();
+    }
+
     /**
      Integration Test: Fetch data every 2 seconds.
      */
@@ -0,0 +1,151 @@
+package weatheraggregation.test;
+
+import org.junit.Test;
+import weatheraggregation.aggregationserver.AggregationServer;
+import weatheraggregation.aggregationserver.ShardRebalancer;
+import weatheraggregation.contentserver.ContentServer;
+import weatheraggregation.core.HashRing;
+import weatheraggregation.getclient.GETClient;
+import weatheraggregation.jsonparser.CustomParseException;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HashRingTests {
+
+    /**
+     Spread stations evenly over the servers, and place them identically on rings built separately.
+     */
+    @Test
+    public void ownersAreBalanced() {
+        List<String> nodes = List.of("127.0.0.1:4567", "127.0.0.1:4568", "127.0.0.1:4569");
+        HashRing ring = new HashRing(nodes);
+        HashRing sameRing = new HashRing(nodes);
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 30000; i++) {
+            String stationId = String.format("IDS%05d", i);
+            String owner = ring.getOwner(stationId);
+            assertEquals(owner, sameRing.getOwner(stationId));
+            counts.merge(owner, 1, Integer::sum);
+        }
+
+        // Each server should own close to a third of the stations
+        assertEquals(3, counts.size());
+        for (int count : counts.values()) {
+            assertTrue("Unbalanced share: " + count, count > 8000 && count < 12000);
+        }
+    }
+
+    /**
+     Move only the stations taken over by a joining server, and about its share of them.
+     */
+    @Test
+    public void joiningNodeMovesOnlyItsRanges() {
+        HashRing before = new HashRing(List.of("127.0.0.1:4567", "127.0.0.1:4568", "127.0.0.1:4569"));
+        HashRing after = before.withNode("127.0.0.1:4570");
+
+        int moved = 0;
+        for (int i = 0; i < 30000; i++) {
+            String stationId = String.format("IDS%05d", i);
+            String owner = after.getOwner(stationId);
+            if (!owner.equals(before.getOwner(stationId))) {
+                // Stations only ever move to the joining server
+                assertEquals("127.0.0.1:4570", owner);
+                moved++;
+            }
+        }
+
+        // The joining server should take close to a quarter of the stations
+        assertTrue("Moved " + moved, moved > 6000 && moved < 9000);
+
+        // Removing the server again restores every owner
+        HashRing restored = after.withoutNode("127.0.0.1:4570");
+        for (int i = 0; i < 1000; i++) {
+            String stationId = String.format("IDS%05d", i);
+            assertEquals(before.getOwner(stationId), restored.getOwner(stationId));
+        }
+    }
+
+    /**
+     Publish stations to one server, rebalance onto a joining server keeping their commit times, then GET each station
+     from its new owner and the most recent station from every server at once.
+     */
+    @Test
+    public void rebalanceOntoJoiningServer() throws IOException, InterruptedException, CustomParseException {
+        // Set up two servers, and content files for 20 stations
+        String shardFilename = TestHelpers.DIRECTORY + "test_weather_shard.txt";
+        TestHelpers.swapFiles(TestHelpers.DIRECTORY + "testdata/0_entry.tst", TestHelpers.WEATHER_DATA_FILENAME);
+        TestHelpers.swapFiles(TestHelpers.DIRECTORY + "testdata/0_entry.tst", shardFilename);
+        String joiningHostname = TestHelpers.IP + ":" + (TestHelpers.PORT + 1);
+
+        Path directory = Files.createTempDirectory("hash-ring");
+        String contentText = Files.readString(Path.of(TestHelpers.DIRECTORY + "testdata/content_data_1.tst"));
+        List<String> stationIds = new ArrayList<>();
+        List<String> contentFilenames = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String stationId = String.format("IDS%05d", 100 + i);
+            Path contentPath = directory.resolve(stationId + ".tst");
+            Files.writeString(contentPath, contentText.replace("IDS00001", stationId));
+            stationIds.add(stationId);
+            contentFilenames.add(contentPath.toString());
+        }
+
+        AggregationServer server = new AggregationServer(TestHelpers.WEATHER_DATA_FILENAME, TestHelpers.PORT, true);
+        AggregationServer joiningServer = new AggregationServer(shardFilename, TestHelpers.PORT + 1, true);
+        server.startServer();
+        joiningServer.startServer();
+
+        // Publish every station to the only server on the ring
+        HashRing before = new HashRing(List.of(TestHelpers.HOSTNAME));
+        List<ContentServer> contentServers = ContentServer.forRing(before, contentFilenames);
+        assertEquals(1, contentServers.size());
+        ContentServer contentServer = contentServers.getFirst();
+        assertEquals(200, contentServer.sendRequest(contentServer.createRequest()).statusCode());
+
+        // Rebalance a second later, moving only the stations the joining server now owns
+        HashRing after = before.withNode(joiningHostname);
+        int owned = 0;
+        for (String stationId : stationIds) {
+            if (after.getOwner(stationId).equals(joiningHostname)) owned++;
+        }
+        TimeUnit.MILLISECONDS.sleep(1100);
+        assertEquals(owned, new ShardRebalancer().rebalance(before, after));
+
+        // Ensure every station is served by its new owner, with the commit time it had on its old owner
+        for (String stationId : stationIds) {
+            GETClient client = new GETClient(after, stationId);
+            assertEquals(after.getOwner(stationId), client.serverHostname);
+            HttpResponse<String> response = client.sendRequest(client.createRequest());
+            assertEquals(200, response.statusCode());
+
+            GETClient oldClient = new GETClient(TestHelpers.HOSTNAME, stationId);
+            assertEquals(oldClient.sendRequest(oldClient.createRequest()).headers().firstValue("Last-Modified"),
+                    response.headers().firstValue("Last-Modified"));
+        }
+
+        // Ensure rebalancing again is harmless, as the new owner already holds every moved record
+        assertEquals(owned, new ShardRebalancer().rebalance(before, after));
+
+        // Ensure the most recent station is gathered from both servers
+        GETClient scatterClient = new GETClient(after, null);
+        assertEquals(200, scatterClient.sendScatterGather().statusCode());
+
+        // Shutdown the servers
+        joiningServer.shutdownServer();
+        server.shutdownServer();
+        Files.deleteIfExists(Path.of(shardFilename));
+        for (String filename : contentFilenames) Files.deleteIfExists(Path.of(filename));
+        Files.deleteIfExists(directory);
+    }
+}
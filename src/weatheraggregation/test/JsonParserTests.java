@@ -6,6 +6,7 @@ import weatheraggregation.contentserver.ContentServer;
 import weatheraggregation.core.FileHelpers;
 import weatheraggregation.jsonparser.CustomJsonParser;
 import weatheraggregation.jsonparser.CustomParseException;
+import weatheraggregation.jsonparser.ParsedJson;
 
 import java.io.IOException;
 import java.net.http.HttpRequest;
@@ -16,6 +17,7 @@ import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class JsonParserTests {
     /**
@@ -125,15 +127,130 @@ public class JsonParserTests {
     }
 
     /**
-     Fail to parse a JSON object that has a comma in the line. This is expected behaviour.
+     Parse a JSON object that has a comma inside a field value.
      */
-    @Test(expected = CustomParseException.class)
-    public void failParseCommaItem() throws CustomParseException {
+    @Test
+    public void parseCommaItem() throws CustomParseException {
         // Define test JSON string
         String jsonString = "{\"key\":\"value1,value2\"}";
 
-        // Fail to convert to JSON
-        CustomJsonParser.stringToJson(jsonString);
+        // Convert to JSON
+        Map<String, String> jsonObject = CustomJsonParser.stringToJson(jsonString);
+
+        // Test the correct count and value of fields have parsed
+        assertEquals(1, jsonObject.size());
+        assertEquals("value1,value2", jsonObject.get("key"));
+    }
+
+    /**
+     Parse a JSON object with escaped quotes and backslashes inside a field value.
+     */
+    @Test
+    public void parseEscapedItem() throws CustomParseException {
+        // Define test JSON string
+        String jsonString = "{\"quote\":\"say \\\"hi\\\"\",\"path\":\"C:\\\\tmp\",\"unicode\":\"\\u00b0C\"}";
+
+        // Convert to JSON
+        Map<String, String> jsonObject = CustomJsonParser.stringToJson(jsonString);
+
+        // Test the correct count and value of fields have parsed
+        assertEquals(3, jsonObject.size());
+        assertEquals("say \"hi\"", jsonObject.get("quote"));
+        assertEquals("C:\\tmp", jsonObject.get("path"));
+        assertEquals("\u00b0C", jsonObject.get("unicode"));
+    }
+
+    /**
+     Parse a JSON object with nested objects and arrays, which are kept as raw JSON.
+     */
+    @Test
+    public void parseNestedItems() throws CustomParseException {
+        // Define test JSON bytes
+        byte[] jsonBytes = "{\"id\":\"IDS1\",\"gusts\":[1,2,{\"max\":\"3]\"}],\"meta\":{\"ok\":true},\"temp\":-1.5e2}".getBytes();
+
+        // Convert to JSON
+        Map<String, String> jsonObject = CustomJsonParser.bytesToJson(jsonBytes);
+
+        // Test the correct count and value of fields have parsed
+        assertEquals(4, jsonObject.size());
+        assertEquals("[1,2,{\"max\":\"3]\"}]", jsonObject.get("gusts"));
+        assertEquals("{\"ok\":true}", jsonObject.get("meta"));
+        assertEquals("-1.5e2", jsonObject.get("temp"));
+    }
+
+    /**
+     Fail to parse a JSON object with a missing colon, and report the offset of the error.
+     */
+    @Test
+    public void failParseReportsOffset() {
+        // Define test JSON string
+        String jsonString = "{\"key\" \"value\"}";
+
+        // Fail to convert to JSON, and check the offset points at the second string
+        try {
+            CustomJsonParser.stringToJson(jsonString);
+            fail("Expected a CustomParseException");
+        } catch (CustomParseException e) {
+            assertEquals(7, e.getOffset());
+        }
+    }
+
+    /**
+     Fail to parse a string holding a raw line break, and report the offset of the line break.
+     */
+    @Test
+    public void failParseControlCharacter() {
+        // Define test JSON string, with an unescaped newline in a value
+        String jsonString = "{\"x\":\"line1\nline2\"}";
+
+        // Fail to convert to JSON, and check the offset points at the newline
+        try {
+            CustomJsonParser.stringToJson(jsonString);
+            fail("Expected a CustomParseException");
+        } catch (CustomParseException e) {
+            assertEquals(11, e.getOffset());
+        }
+    }
+
+    /**
+     Fail to parse malformed numbers, and report the offset of the first invalid character.
+     */
+    @Test
+    public void failParseMalformedNumber() {
+        // Define test JSON strings, each with a number that breaks the grammar at the given offset
+        String[] jsonStrings = {"{\"x\":1-2e+}", "{\"x\":-}", "{\"x\":1.}", "{\"x\":1e+}", "{\"x\":01}"};
+        int[] offsets = {6, 6, 7, 8, 6};
+
+        // Fail to convert each to JSON
+        for (int i = 0; i < jsonStrings.length; i++) {
+            try {
+                CustomJsonParser.stringToJson(jsonStrings[i]);
+                fail("Expected a CustomParseException for " + jsonStrings[i]);
+            } catch (CustomParseException e) {
+                assertEquals(offsets[i], e.getOffset());
+            }
+        }
+    }
+
+    /**
+     Parse a JSON array of objects and newline-delimited objects, keeping each object's raw JSON.
+     */
+    @Test
+    public void parseObjectList() throws CustomParseException {
+        // Define test JSON bytes, as an array and as lines
+        byte[] arrayBytes = "[{\"id\":\"IDS1\"}, {\"id\":\"IDS2\",\"temp\":1},]".getBytes();
+        byte[] lineBytes = "{\"id\":\"IDS1\"}\n{\"id\":\"IDS2\",\"temp\":1}\n".getBytes();
+
+        // Convert both to JSON
+        for (byte[] jsonBytes : List.of(arrayBytes, lineBytes)) {
+            List<ParsedJson> jsonObjects = CustomJsonParser.bytesToJsonList(jsonBytes);
+
+            // Test the correct count, values and raw JSON have parsed
+            assertEquals(2, jsonObjects.size());
+            assertEquals("IDS1", jsonObjects.getFirst().json.get("id"));
+            assertEquals("1", jsonObjects.get(1).json.get("temp"));
+            assertEquals("{\"id\":\"IDS2\",\"temp\":1}", jsonObjects.get(1).text);
+        }
     }
 
     /**
@@ -147,7 +264,7 @@ public class JsonParserTests {
 
         // Convert to and check it is correct
         String jsonString = CustomJsonParser.jsonToString(jsonObject);
-        assertEquals("{\"key\":\"value1\",}", jsonString);
+        assertEquals("{\"key\":\"value1\"}", jsonString);
     }
 
     /**
@@ -164,7 +281,7 @@ public class JsonParserTests {
 
         // Convert to and check it is correct
         String jsonString = CustomJsonParser.jsonToString(jsonObject);
-        assertEquals("{\"keyA\":\" helloA \",\"keyB\":\"hey:B\",\"key:C\":\"hi C\",}", jsonString);
+        assertEquals("{\"keyA\":\" helloA \",\"keyB\":\"hey:B\",\"key:C\":\"hi C\"}", jsonString);
     }
 
     /**
@@ -179,4 +296,19 @@ public class JsonParserTests {
         String jsonString = CustomJsonParser.jsonToString(jsonObject);
         assertEquals("{}", jsonString);
     }
-}
\ No newline at end of file
+
+    /**
+     Escape control characters when converting to a string, and parse the string back to the same values.
+     */
+    @Test
+    public void escapeControlCharactersRoundTrip() throws CustomParseException {
+        // Define test JSON object, with a tab, a newline and a bell in its value
+        Map<String, String> jsonObject = new HashMap<>();
+        jsonObject.put("key", "a\tb\nc\u0007");
+
+        // Convert to a single line of valid JSON, then back again
+        String jsonString = CustomJsonParser.jsonToString(jsonObject);
+        assertEquals("{\"key\":\"a\\tb\\nc\\u0007\"}", jsonString);
+        assertEquals(jsonObject, CustomJsonParser.stringToJson(jsonString));
+    }
+}
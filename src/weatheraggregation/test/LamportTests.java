@@ -1,8 +1,15 @@
 package weatheraggregation.test;
 
+import weatheraggregation.core.AtomicLamportClock;
 import weatheraggregation.core.LamportClock;
 import weatheraggregation.core.LamportClockImpl;
 import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import static org.junit.Assert.assertEquals;
 
 public class LamportTests {
@@ -57,4 +64,41 @@ public class LamportTests {
         clock.processEvent(0);
         assertEquals(clock.getLamportTime(),3);
     }
-}
\ No newline at end of file
+
+    /**
+     A shared atomic lamport clock loses no events and never hands out the same time twice.
+     */
+    @Test
+    public void atomicLamportClockConcurrentEvents() throws InterruptedException {
+        LamportClock clock = new AtomicLamportClock();
+        int threadCount = 8;
+        int eventsPerThread = 10000;
+
+        // Record every time handed out by the clock
+        Set<Long> times = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < eventsPerThread; i++) {
+                    times.add(clock.processEvent(i));
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(threadCount * eventsPerThread, times.size());
+        assertEquals(threadCount * eventsPerThread, clock.getLamportTime());
+    }
+
+    /**
+     A lamport clock keeps 64-bit time past the range of an int.
+     */
+    @Test
+    public void lamportClockBeyondIntRange() {
+        LamportClock clock = new AtomicLamportClock();
+
+        assertEquals((long) Integer.MAX_VALUE + 1, clock.processEvent(Integer.MAX_VALUE));
+        assertEquals((long) Integer.MAX_VALUE + 2, clock.processEvent());
+    }
+}
@@ -0,0 +1,54 @@
+package weatheraggregation.test;
+
+import org.junit.Test;
+import weatheraggregation.core.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogTests {
+
+    /**
+     Write lines in order, sending warnings and errors to stderr and skipping lines below the level.
+     */
+    @Test
+    public void writeLinesByLevel() {
+        Log log = new Log(8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        assertFalse(log.log(Log.Level.DEBUG, "Handling GET..."));
+        assertTrue(log.log(Log.Level.INFO, "first"));
+        assertTrue(log.log(Log.Level.ERROR, "failed"));
+        assertTrue(log.log(Log.Level.INFO, "second"));
+
+        assertEquals(3, log.drainTo(new PrintStream(out, true, StandardCharsets.UTF_8), new PrintStream(err, true, StandardCharsets.UTF_8)));
+        assertEquals("first\nsecond\n", out.toString(StandardCharsets.UTF_8).replace("\r\n", "\n"));
+        assertEquals("failed\n", err.toString(StandardCharsets.UTF_8).replace("\r\n", "\n"));
+    }
+
+    /**
+     Drop lines rather than block once the buffer is full, and report how many were dropped.
+     */
+    @Test
+    public void dropLinesWhenFull() {
+        Log log = new Log(4);
+        for (int i = 0; i < 6; i++) log.log(Log.Level.INFO, "line " + i);
+        assertEquals(2, log.getDropped());
+
+        // The oldest lines are kept, and the drop is reported after them
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        assertEquals(4, log.drainTo(new PrintStream(out, true, StandardCharsets.UTF_8), new PrintStream(err, true, StandardCharsets.UTF_8)));
+        assertEquals("line 0\nline 1\nline 2\nline 3\n", out.toString(StandardCharsets.UTF_8).replace("\r\n", "\n"));
+        assertEquals("Log buffer full, dropped 2 lines.\n", err.toString(StandardCharsets.UTF_8).replace("\r\n", "\n"));
+
+        // Once drained, the buffer accepts lines again
+        assertTrue(log.log(Log.Level.INFO, "line 6"));
+    }
+}
@@ -2,14 +2,19 @@ package weatheraggregation.test;
 
 import org.junit.Test;
 import weatheraggregation.aggregationserver.AggregationServer;
+import weatheraggregation.replicatedcontentserver.EndpointHealth;
 import weatheraggregation.replicatedcontentserver.ReplicatedContentServer;
 import weatheraggregation.core.AggregationClient;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class ReplicatedContentServerTests {
 
@@ -156,4 +161,41 @@ public class ReplicatedContentServerTests {
         // Shut down the client
         replicatedClient.shutdownClient();
     }
-}
\ No newline at end of file
+
+    /**
+     Create a ReplicatedContentServer in fan-out mode with three ContentServers, one missing its AggregationServer.
+     Every update should reach the two live servers at once, and the dead server should be skipped until it is probed.
+     */
+    @Test
+    public void fanOutSkipsDeadServer() throws IOException, InterruptedException {
+        // Set up two of the three AggregationServers, each with its own file
+        String otherFilename = TestHelpers.DIRECTORY + "test_weather_fanout.txt";
+        TestHelpers.swapFiles(TestHelpers.DIRECTORY + "testdata/0_entry.tst", TestHelpers.WEATHER_DATA_FILENAME);
+        TestHelpers.swapFiles(TestHelpers.DIRECTORY + "testdata/0_entry.tst", otherFilename);
+        AggregationServer server1 = new AggregationServer(TestHelpers.WEATHER_DATA_FILENAME, PORT_1, true);
+        AggregationServer server3 = new AggregationServer(otherFilename, PORT_3, true);
+
+        // Set up the ReplicatedContentServer with three ContentServers
+        List<String> hostnames = List.of(HOSTNAME_1, HOSTNAME_2, HOSTNAME_3);
+        ReplicatedContentServer replicatedClient = new ReplicatedContentServer(hostnames, TestHelpers.DIRECTORY + "testdata/content_data_1.tst");
+        server1.startServer();
+        server3.startServer();
+
+        // Publish to all three, and check that both live servers accepted the update
+        assertEquals(2, replicatedClient.publishToAll(3));
+        List<EndpointHealth> healths = replicatedClient.getEndpointHealths();
+        assertTrue(healths.get(0).isHealthy());
+        assertFalse(healths.get(1).isHealthy());
+        assertTrue(healths.get(2).isHealthy());
+
+        // Publish again, and check that the dead server was skipped rather than retried
+        assertEquals(2, replicatedClient.publishToAll(2));
+        assertEquals(1, healths.get(1).getFailures());
+        assertEquals(2, healths.get(0).getSuccesses());
+
+        // Shut down the AggregationServers
+        server1.shutdownServer();
+        server3.shutdownServer();
+        Files.deleteIfExists(Path.of(otherFilename));
+    }
+}
@@ -0,0 +1,168 @@
+package weatheraggregation.test;
+
+import org.junit.Test;
+import weatheraggregation.core.AggregationClient;
+import weatheraggregation.core.BackoffRetryPolicy;
+import weatheraggregation.core.CircuitBreaker;
+import weatheraggregation.core.ConversionHelpers;
+import weatheraggregation.core.FixedRetryPolicy;
+import weatheraggregation.core.RetryPolicy;
+import weatheraggregation.getclient.GETClient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTests {
+
+    /**
+     Retry every SLEEP_SECONDS seconds by default, giving up after MAX_RETRIES failures.
+     */
+    @Test
+    public void fixedPolicyKeepsRetryCadence() {
+        RetryPolicy policy = new FixedRetryPolicy();
+        long sleepMillis = AggregationClient.SLEEP_SECONDS * 1000L;
+
+        for (int failures = 1; failures < AggregationClient.MAX_RETRIES; failures++) {
+            assertTrue(policy.allowRequest("server"));
+            assertEquals(sleepMillis, policy.recordFailure("server", failures, -1));
+        }
+        assertEquals(RetryPolicy.GIVE_UP, policy.recordFailure("server", AggregationClient.MAX_RETRIES, -1));
+
+        // Ensure a longer Retry-After is waited out
+        assertEquals(5000, policy.recordFailure("server", 1, 5000));
+    }
+
+    /**
+     Back off exponentially with full jitter, capped at the maximum delay.
+     */
+    @Test
+    public void backoffDelaysAreJitteredAndCapped() {
+        BackoffRetryPolicy policy = new BackoffRetryPolicy(100, 1000, 0, Integer.MAX_VALUE, 1000);
+
+        for (int failures = 1; failures <= 12; failures++) {
+            long capMillis = Math.min(1000, 100L << (failures - 1));
+            Set<Long> delays = new HashSet<>();
+            for (int i = 0; i < 200; i++) {
+                long delayMillis = policy.recordFailure("server", failures, -1);
+                assertTrue(delayMillis >= 0 && delayMillis <= capMillis);
+                delays.add(delayMillis);
+            }
+            // Ensure clients failing together would not retry together
+            assertTrue(delays.size() > 10);
+        }
+
+        // Ensure a Retry-After is the shortest wait, and the retries run out when limited
+        assertTrue(policy.recordFailure("server", 1, 5000) >= 5000);
+        BackoffRetryPolicy limitedPolicy = new BackoffRetryPolicy(100, 1000, 3);
+        assertTrue(limitedPolicy.recordFailure("server", 2, -1) >= 0);
+        assertEquals(RetryPolicy.GIVE_UP, limitedPolicy.recordFailure("server", 3, -1));
+    }
+
+    /**
+     Open a circuit after repeated failures, then let a single probe through once it is half-open.
+     */
+    @Test
+    public void circuitOpensAndProbes() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(2, 200);
+
+        // Open the circuit
+        breaker.recordFailure();
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        // Ensure only one probe is let through, and a failed probe reopens the circuit
+        TimeUnit.MILLISECONDS.sleep(250);
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        // Ensure a successful probe closes the circuit
+        TimeUnit.MILLISECONDS.sleep(250);
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+
+        // Ensure each endpoint of a shared policy has its own circuit
+        BackoffRetryPolicy policy = new BackoffRetryPolicy(100, 1000, 0, 1, 10000);
+        policy.recordFailure("server1", 1, -1);
+        assertFalse(policy.allowRequest("server1"));
+        assertTrue(policy.allowRequest("server2"));
+    }
+
+    /**
+     Parse Retry-After headers given as seconds or as HTTP dates.
+     */
+    @Test
+    public void parseRetryAfter() {
+        assertEquals(3000, RetryPolicy.parseRetryAfter("3"));
+        assertEquals(-1, RetryPolicy.parseRetryAfter(null));
+        assertEquals(-1, RetryPolicy.parseRetryAfter("soon"));
+
+        long dateMillis = RetryPolicy.parseRetryAfter(ConversionHelpers.epochSecondsToHttpDate(System.currentTimeMillis() / 1000 + 10));
+        assertTrue(dateMillis > 8000 && dateMillis <= 10000);
+        assertEquals(0, RetryPolicy.parseRetryAfter(ConversionHelpers.epochSecondsToHttpDate(0)));
+    }
+
+    /**
+     Wait out a server's Retry-After when it refuses a request, instead of retrying at the usual cadence.
+     */
+    @Test
+    public void refusedRequestWaitsForRetryAfter() throws IOException, InterruptedException {
+        List<Long> requestNanos = new CopyOnWriteArrayList<>();
+        ServerSocket busyServer = new ServerSocket(TestHelpers.PORT + 3);
+
+        // Refuse every request, asking clients to wait 3 seconds
+        Thread serverThread = Thread.ofPlatform().start(() -> {
+            while (!busyServer.isClosed()) {
+                try (Socket socket = busyServer.accept()) {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                    String line;
+                    while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                        // Read the request headers
+                    }
+                    requestNanos.add(System.nanoTime());
+                    OutputStream output = socket.getOutputStream();
+                    output.write("HTTP/1.1 503 Service Unavailable\r\nRetry-After: 3\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                    output.flush();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+
+        try {
+            GETClient client = new GETClient(TestHelpers.IP + ":" + (TestHelpers.PORT + 3));
+            client.startClient();
+            TimeUnit.MILLISECONDS.sleep(4500);
+            client.shutdownClient();
+        } finally {
+            // Closing the socket ends the server thread's accept loop
+            busyServer.close();
+            serverThread.join();
+        }
+
+        // Ensure the retry waited for the Retry-After rather than SLEEP_SECONDS
+        assertEquals(2, requestNanos.size());
+        assertTrue(requestNanos.get(1) - requestNanos.get(0) >= TimeUnit.MILLISECONDS.toNanos(2900));
+    }
+}
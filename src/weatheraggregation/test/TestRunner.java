@@ -7,7 +7,7 @@ import org.junit.runner.notification.Failure;
 public class TestRunner {
     public static void main(String[] args) {
         // Specify the test classes to run
-        Class<?>[] testClasses = { AggregationServerTests.class, ContentServerTests.class, GETClientTests.class, JsonParserTests.class, LamportTests.class, ReplicatedContentServerTests.class };
+        Class<?>[] testClasses = { AggregationServerTests.class, ContentServerTests.class, GETClientTests.class, HashRingTests.class, JsonParserTests.class, LamportTests.class, LogTests.class, ReplicatedContentServerTests.class, RetryPolicyTests.class, WeatherStoreTests.class };
 
         // Run the tests
         Result result = JUnitCore.runClasses(testClasses);
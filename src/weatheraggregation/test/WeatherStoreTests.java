@@ -0,0 +1,353 @@
+package weatheraggregation.test;
+
+import org.junit.After;
+import org.junit.Test;
+import weatheraggregation.aggregationserver.FileWeatherStore;
+import weatheraggregation.aggregationserver.LogWeatherStore;
+import weatheraggregation.aggregationserver.MappedWeatherStore;
+import weatheraggregation.core.FileHelpers;
+import weatheraggregation.core.WeatherRecord;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class WeatherStoreTests {
+
+    private static final String LOG_FILENAME = TestHelpers.DIRECTORY + "test_weather_log.txt";
+    private static final String MAPPED_FILENAME = TestHelpers.DIRECTORY + "test_weather_mapped.dat";
+    private static final String FILE_FILENAME = TestHelpers.DIRECTORY + "test_weather_file.txt";
+
+    /**
+     Delete the files the stores wrote, so no test leaves data behind.
+     */
+    @After
+    public void deleteStoreFiles() throws IOException {
+        resetLogStore();
+        Files.deleteIfExists(Paths.get(MAPPED_FILENAME));
+        Files.deleteIfExists(Paths.get(FILE_FILENAME));
+        Files.deleteIfExists(Paths.get(FILE_FILENAME + FileHelpers.TMP_SUFFIX));
+    }
+
+    /**
+     Commit to different stations from many threads at once, and ensure every commit lands in the weather file.
+     An out of date commit must fail alone, rather than failing the commits grouped with it.
+     */
+    @Test
+    public void fileStoreGroupsConcurrentCommits() throws IOException, InterruptedException {
+        Files.deleteIfExists(Paths.get(FILE_FILENAME));
+        FileWeatherStore store = new FileWeatherStore(FILE_FILENAME);
+        store.load();
+
+        // Each thread commits its own stations, then replaces them
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            threads.add(Thread.ofPlatform().start(() -> {
+                try {
+                    for (int lamportTime = 1; lamportTime <= 2; lamportTime++) {
+                        for (int s = 0; s < 10; s++) {
+                            String stationId = "T" + thread + "S" + s;
+                            store.commit(new WeatherRecord(stationId, 100, lamportTime, "{\"id\":\"" + stationId + "\"}"));
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(List.of(), errors);
+
+        // Ensure an out of date commit is rejected on its own
+        try {
+            store.commit(new WeatherRecord("T0S0", 100, 1, "{\"id\":\"T0S0\"}"));
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException ignored) {}
+
+        List<WeatherRecord> records = store.load();
+        assertEquals(80, records.size());
+        for (WeatherRecord record : records) assertEquals(2, record.lamportTime);
+    }
+
+    /**
+     Recover committed records by replaying the log after a restart.
+     */
+    @Test
+    public void logStoreRecoversAfterRestart() throws IOException {
+        resetLogStore();
+
+        // Commit two stations, then replace the first
+        LogWeatherStore store = new LogWeatherStore(LOG_FILENAME);
+        store.load();
+        store.commit(new WeatherRecord("TEST00001", 100, 1, "{\"id\":\"TEST00001\"}"));
+        store.commit(new WeatherRecord("TEST00002", 101, 1, "{\"id\":\"TEST00002\"}"));
+        store.commit(new WeatherRecord("TEST00001", 102, 2, "{\"id\":\"TEST00001\"}"));
+        store.close();
+
+        // Restart the store and check the most recent record comes first
+        store = new LogWeatherStore(LOG_FILENAME);
+        List<WeatherRecord> records = store.load();
+        store.close();
+
+        assertEquals(2, records.size());
+        assertEquals("TEST00001", records.getFirst().stationId);
+        assertEquals(2, records.getFirst().lamportTime);
+        assertEquals("TEST00002", records.get(1).stationId);
+    }
+
+    /**
+     Fold sealed segments into the snapshot, which uses the weather file format.
+     */
+    @Test
+    public void logStoreCompactsSegments() throws IOException {
+        resetLogStore();
+
+        // Use tiny segments so every commit seals one
+        LogWeatherStore store = new LogWeatherStore(LOG_FILENAME, 1);
+        store.load();
+        store.commit(new WeatherRecord("TEST00001", 100, 1, "{\"id\":\"TEST00001\"}"));
+        store.commit(new WeatherRecord("TEST00002", 101, 1, "{\"id\":\"TEST00002\"}"));
+        store.compact();
+        store.close();
+
+        // Check that the snapshot holds both records, most recent first
+        List<String[]> entries = FileHelpers.readWeatherFileAll(LOG_FILENAME);
+        assertEquals(2, entries.size());
+        assertEquals("TEST00002", entries.getFirst()[0]);
+        assertEquals("TEST00001", entries.get(1)[0]);
+
+        // Check that recovery still sees both records
+        store = new LogWeatherStore(LOG_FILENAME);
+        assertEquals(2, store.load().size());
+        store.close();
+    }
+
+    /**
+     Remove records with tombstones, unless they have been replaced since.
+     */
+    @Test
+    public void logStoreRemovesRecords() throws IOException {
+        resetLogStore();
+
+        WeatherRecord oldRecord = new WeatherRecord("TEST00001", 100, 1, "{\"id\":\"TEST00001\"}");
+        WeatherRecord newRecord = new WeatherRecord("TEST00001", 102, 2, "{\"id\":\"TEST00001\"}");
+        WeatherRecord otherRecord = new WeatherRecord("TEST00002", 101, 1, "{\"id\":\"TEST00002\"}");
+
+        LogWeatherStore store = new LogWeatherStore(LOG_FILENAME);
+        store.load();
+        store.commit(oldRecord);
+        store.commit(otherRecord);
+        store.commit(newRecord);
+        store.remove(List.of(oldRecord, otherRecord));
+        store.close();
+
+        // Only the replaced record should survive
+        store = new LogWeatherStore(LOG_FILENAME);
+        List<WeatherRecord> records = store.load();
+        store.close();
+
+        assertEquals(1, records.size());
+        assertEquals(2, records.getFirst().lamportTime);
+    }
+
+    /**
+     Stop replaying at a frame whose length runs past the end of its segment, rather than allocating it.
+     */
+    @Test
+    public void logStoreStopsAtCorruptLength() throws IOException {
+        resetLogStore();
+
+        LogWeatherStore store = new LogWeatherStore(LOG_FILENAME);
+        store.load();
+        store.commit(new WeatherRecord("TEST00001", 100, 1, "{\"id\":\"TEST00001\"}"));
+        store.close();
+
+        // Append a torn header claiming a huge frame
+        Path segmentPath = Paths.get(LOG_FILENAME + ".seg.0");
+        try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(segmentPath, StandardOpenOption.APPEND))) {
+            output.writeInt(Integer.MAX_VALUE);
+            output.writeInt(0);
+            output.write(new byte[16]);
+        }
+
+        // Only the record before the corrupt frame should be recovered
+        store = new LogWeatherStore(LOG_FILENAME);
+        List<WeatherRecord> records = store.load();
+        store.close();
+
+        assertEquals(1, records.size());
+        assertEquals("TEST00001", records.getFirst().stationId);
+    }
+
+    /**
+     Cut a torn frame from a failed write back out of its segment, so commits after it survive a restart.
+     */
+    @Test
+    public void logStoreDiscardsTornFrame() throws IOException {
+        resetLogStore();
+
+        // Fail the second append after writing only part of its frame
+        LogWeatherStore store = new LogWeatherStore(LOG_FILENAME) {
+            private int appends = 0;
+
+            @Override
+            protected void writeFrames(FileChannel segment, ByteBuffer[] frames, long framesSize) throws IOException {
+                if (++this.appends == 2) {
+                    frames[0].limit(frames[0].limit() / 2);
+                    segment.write(frames[0]);
+                    throw new IOException("Injected write failure");
+                }
+                super.writeFrames(segment, frames, framesSize);
+            }
+        };
+        store.load();
+        store.commit(new WeatherRecord("TEST00001", 100, 1, "{\"id\":\"TEST00001\"}"));
+        try {
+            store.commit(new WeatherRecord("TEST00002", 101, 1, "{\"id\":\"TEST00002\"}"));
+            fail("Expected an IOException");
+        } catch (IOException ignored) {}
+        store.commit(new WeatherRecord("TEST00003", 102, 1, "{\"id\":\"TEST00003\"}"));
+        store.close();
+
+        // Both acknowledged commits should be recovered, and the failed one should not
+        store = new LogWeatherStore(LOG_FILENAME);
+        List<WeatherRecord> records = store.load();
+        store.close();
+
+        assertEquals(2, records.size());
+        assertEquals("TEST00003", records.getFirst().stationId);
+        assertEquals("TEST00001", records.get(1).stationId);
+    }
+
+    /**
+     Overwrite a station's slot in place, and free the slots of removed stations.
+     */
+    @Test
+    public void mappedStoreOverwritesSlots() throws IOException {
+        Files.deleteIfExists(Paths.get(MAPPED_FILENAME));
+
+        WeatherRecord oldRecord = new WeatherRecord("TEST00001", 100, 1, "{\"id\":\"TEST00001\"}");
+        WeatherRecord newRecord = new WeatherRecord("TEST00001", 102, 2, "{\"id\":\"TEST00001\"}");
+        WeatherRecord otherRecord = new WeatherRecord("TEST00002", 101, 1, "{\"id\":\"TEST00002\"}");
+
+        // With two slots, replacing the first station must reuse its slot
+        MappedWeatherStore store = new MappedWeatherStore(MAPPED_FILENAME, 2, 256);
+        store.load();
+        store.commit(oldRecord);
+        store.commit(otherRecord);
+        store.commit(newRecord);
+        store.close();
+
+        // Restart the store and check the most recent record comes first
+        store = new MappedWeatherStore(MAPPED_FILENAME);
+        List<WeatherRecord> records = store.load();
+        assertEquals(2, records.size());
+        assertEquals("TEST00001", records.getFirst().stationId);
+        assertEquals(2, records.getFirst().lamportTime);
+
+        // Only the replaced record should survive, and its freed slot can be claimed again
+        store.remove(List.of(oldRecord, otherRecord));
+        store.commit(new WeatherRecord("TEST00003", 103, 1, "{\"id\":\"TEST00003\"}"));
+        store.close();
+
+        store = new MappedWeatherStore(MAPPED_FILENAME);
+        records = store.load();
+        store.close();
+
+        assertEquals(2, records.size());
+        assertEquals("TEST00003", records.getFirst().stationId);
+        assertEquals("TEST00001", records.get(1).stationId);
+    }
+
+    /**
+     Reject records that are too large for a slot, or that need a slot when none are free.
+     */
+    @Test
+    public void mappedStoreRejectsOverflow() throws IOException {
+        Files.deleteIfExists(Paths.get(MAPPED_FILENAME));
+
+        MappedWeatherStore store = new MappedWeatherStore(MAPPED_FILENAME, 1, 64);
+        store.load();
+        store.commit(new WeatherRecord("TEST00001", 100, 1, "{\"id\":\"TEST00001\"}"));
+
+        // A record too large for its slot
+        try {
+            store.commit(new WeatherRecord("TEST00001", 101, 2, "{\"id\":\"TEST00001\",\"name\":\"Far too long for the slot\"}"));
+            fail("Expected an IOException");
+        } catch (IOException ignored) {}
+
+        // A new station when every slot is taken
+        try {
+            store.commit(new WeatherRecord("TEST00002", 101, 1, "{\"id\":\"TEST00002\"}"));
+            fail("Expected an IOException");
+        } catch (IOException ignored) {}
+        store.close();
+    }
+
+    /**
+     Reject a whole batch if any record is too large for a slot, or there aren't enough free slots, writing none of it.
+     */
+    @Test
+    public void mappedStoreRejectsBatchUnchanged() throws IOException {
+        Files.deleteIfExists(Paths.get(MAPPED_FILENAME));
+
+        MappedWeatherStore store = new MappedWeatherStore(MAPPED_FILENAME, 2, 64);
+        store.load();
+        store.commit(new WeatherRecord("TEST00001", 100, 1, "{\"id\":\"TEST00001\"}"));
+
+        // A batch whose last record is too large for its slot
+        try {
+            store.commitAll(List.of(
+                    new WeatherRecord("TEST00001", 101, 2, "{\"id\":\"TEST00001\"}"),
+                    new WeatherRecord("TEST00002", 101, 1, "{\"id\":\"TEST00002\",\"name\":\"Far too long for the slot\"}")));
+            fail("Expected an IOException");
+        } catch (IOException ignored) {}
+
+        // A batch of two new stations when only one slot is free
+        try {
+            store.commitAll(List.of(
+                    new WeatherRecord("TEST00002", 102, 1, "{\"id\":\"TEST00002\"}"),
+                    new WeatherRecord("TEST00003", 102, 1, "{\"id\":\"TEST00003\"}")));
+            fail("Expected an IOException");
+        } catch (IOException ignored) {}
+
+        // Ensure the free slot was handed back
+        store.commit(new WeatherRecord("TEST00004", 103, 1, "{\"id\":\"TEST00004\"}"));
+        store.close();
+
+        // Only the records committed outside the rejected batches should be recovered
+        store = new MappedWeatherStore(MAPPED_FILENAME);
+        List<WeatherRecord> records = store.load();
+        store.close();
+
+        assertEquals(2, records.size());
+        assertEquals("TEST00004", records.getFirst().stationId);
+        assertEquals("TEST00001", records.get(1).stationId);
+        assertEquals(1, records.get(1).lamportTime);
+    }
+
+    /**
+     Delete the log store's snapshot and segments.
+     */
+    private static void resetLogStore() throws IOException {
+        Path snapshotPath = Paths.get(LOG_FILENAME);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(snapshotPath.toAbsolutePath().getParent(), snapshotPath.getFileName() + "*")) {
+            for (Path path : stream) Files.delete(path);
+        }
+    }
+}